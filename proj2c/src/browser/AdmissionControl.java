@@ -0,0 +1,198 @@
+package browser;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps the route of one handler and enforces its RouteLimits, so a burst of expensive queries
+ * on one route cannot take every server thread and starve the others.
+ *
+ * Admitted requests either run on the server thread that received them, or, when the route has
+ * a timeout (or the server was asked to use virtual threads), on a worker thread the server
+ * thread waits for. A request that runs past its timeout is answered with 503 and its worker is
+ * interrupted; WordNet traversals check for that and give up, so the work stops soon after.
+ * Until it does, the worker keeps the request's permit, so work that ignores interrupts (a
+ * count lookup, a PNG encoding) still counts against the route's limit.
+ */
+public class AdmissionControl implements Route {
+    static final String BUSY = "The server is busy, please try again shortly.";
+    static final String TIMED_OUT = "The query took too long and was cancelled.";
+
+    private final Route route;
+    private final RouteLimits limits;
+    // where admitted requests run, or null to run them on the server thread
+    private final ExecutorService workers;
+
+    private final Semaphore running;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /** Constructs a wrapper running ROUTE within LIMITS, on WORKERS if it is not null. */
+    public AdmissionControl(Route route, RouteLimits limits, ExecutorService workers) {
+        if (limits.timeoutMillis() > 0 && workers == null) {
+            throw new IllegalArgumentException("A route with a timeout needs worker threads to run on");
+        }
+        this.route = route;
+        this.limits = limits;
+        this.workers = workers;
+        // fair, so requests that had to wait are let in in the order they arrived
+        this.running = new Semaphore(limits.maxConcurrent(), true);
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        try {
+            return call(() -> route.handle(request, response));
+        } catch (RejectedExecutionException e) {
+            return unavailable(response, BUSY);
+        } catch (TimeoutException e) {
+            return unavailable(response, TIMED_OUT);
+        }
+    }
+
+    /**
+     * Runs TASK within the limits of this route, exactly like a request to it: waits for a turn
+     * if the route is busy, and on a worker thread with the route's timeout if it has one.
+     * Throws a RejectedExecutionException if the route turned the task away, and a
+     * TimeoutException if it ran out of time. A task that timed out is interrupted, and keeps
+     * its turn until it has actually stopped, so the route never runs more than maxConcurrent
+     * tasks at once. Anything TASK throws is passed on.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        if (!admit()) {
+            rejected.increment();
+            throw new RejectedExecutionException(BUSY);
+        }
+        admitted.increment();
+        if (workers == null) {
+            try {
+                return task.call();
+            } finally {
+                running.release();
+            }
+        }
+        return callOnWorker(task);
+    }
+
+    /** Takes a permit to run, waiting in the queue if there is room in it. Returns false if turned away. */
+    private boolean admit() throws InterruptedException {
+        // the timed tryAcquire respects the order of the waiters, the untimed one would jump the queue
+        if (running.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        if (queued.incrementAndGet() > limits.maxQueued()) {
+            queued.decrementAndGet();
+            return false;
+        }
+        try {
+            return running.tryAcquire(limits.queueTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /** Runs TASK on a worker, which gives the permit taken by admit back once TASK is done. */
+    private <T> T callOnWorker(Callable<T> task) throws Exception {
+        // whoever sets this releases the permit: the worker when it starts TASK, or this thread
+        // if TASK was cancelled before a worker got to it
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<T> result;
+        try {
+            result = workers.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return task.call();
+                } finally {
+                    running.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.release();
+            rejected.increment();
+            throw e;
+        }
+        try {
+            if (limits.timeoutMillis() == 0) {
+                return result.get();
+            }
+            return result.get(limits.timeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancel(result, claimed);
+            timedOut.increment();
+            throw e;
+        } catch (InterruptedException e) {
+            // the server is shutting down, or the batch this belongs to was cancelled
+            cancel(result, claimed);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) {
+                // the handler noticed it was interrupted just as its time ran out
+                timedOut.increment();
+                throw new TimeoutException(TIMED_OUT);
+            }
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private void cancel(Future<?> result, AtomicBoolean claimed) {
+        result.cancel(true);
+        if (claimed.compareAndSet(false, true)) {
+            // no worker ever started it, so nobody else will give the permit back
+            running.release();
+        }
+    }
+
+    private static String unavailable(Response response, String message) {
+        response.status(503);
+        response.header("Retry-After", "1");
+        return message;
+    }
+
+    /** Returns how many requests are running right now. */
+    public int running() {
+        return limits.maxConcurrent() - running.availablePermits();
+    }
+
+    /** Returns how many requests are waiting for a turn to run right now. */
+    public int queued() {
+        return queued.get();
+    }
+
+    /** Returns how many requests were let in to run. */
+    public long admitted() {
+        return admitted.sum();
+    }
+
+    /** Returns how many requests were turned away because the route was busy. */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** Returns how many requests were cancelled for running past the route's timeout. */
+    public long timedOut() {
+        return timedOut.sum();
+    }
+}
@@ -0,0 +1,225 @@
+package browser;
+
+import com.google.gson.Gson;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers many queries in one request. The body is a JSON array of objects, each naming a
+ * route and giving the same parameters as a GET query to it, for example
+ *     [{"route": "hyponyms", "words": "cat, dog", "k": 5}, {"route": "historytext", "words": "cat"}]
+ * The response is newline-delimited JSON, one line per query as soon as it is answered (so not
+ * necessarily in order), e.g. {"index":0,"result":"[...]"} or {"index":1,"error":"..."}.
+ *
+ * Identical queries in a batch are only answered once. The queries go to the same handlers as
+ * the single-query routes, so they share those handlers' response caches, and with them the
+ * per-word weights and graph closures the data classes memoize, across the batch and with
+ * everyone else. They also count against the limits of those routes, like requests of their
+ * own: a query the route turns away, or that runs past its timeout, is answered with an error.
+ */
+public class BatchQueryHandler implements Route {
+    private static final Gson gson = new Gson();
+
+    /** One query of a batch, as the client sends it (numbers are read as text). */
+    static final class Item {
+        String route;
+        String words;
+        String startYear;
+        String endYear;
+        String k;
+        String ngordnetQueryType;
+    }
+
+    /** One line of the response; exactly one of result and error is set. */
+    private static final class Line {
+        final int index;
+        final String result;
+        final String error;
+
+        Line(int index, String result, String error) {
+            this.index = index;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private record Key(String route, NgordnetQuery query) {
+    }
+
+    /** The answer to one distinct query, for every position of the batch it appeared at. */
+    private record Answer(List<Integer> indexes, String result, String error) {
+    }
+
+    /** A query that is being answered, and when it runs out of time (in System.nanoTime). */
+    private record Running(List<Integer> indexes, long deadline) {
+    }
+
+    private final Map<String, NgordnetQueryHandler> handlers;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int maxQueries;
+    private final long itemTimeoutMillis;
+
+    /**
+     * Constructs a batch handler for the routes in HANDLERS (route name to handler). Queries run
+     * on EXECUTOR, at most PARALLELISM at a time per batch; batches of more than MAXQUERIES
+     * queries are refused. A query still running after ITEMTIMEOUTMILLIS is cancelled and
+     * answered with an error (0 means no timeout).
+     */
+    public BatchQueryHandler(Map<String, NgordnetQueryHandler> handlers, ExecutorService executor,
+                             int parallelism, int maxQueries, long itemTimeoutMillis) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive, got " + parallelism);
+        }
+        if (maxQueries <= 0) {
+            throw new IllegalArgumentException("maxQueries must be positive, got " + maxQueries);
+        }
+        if (itemTimeoutMillis < 0) {
+            throw new IllegalArgumentException("itemTimeoutMillis must not be negative, got " + itemTimeoutMillis);
+        }
+        this.handlers = Map.copyOf(handlers);
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.maxQueries = maxQueries;
+        this.itemTimeoutMillis = itemTimeoutMillis;
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        Item[] items = parse(request.body());
+        if (items == null) {
+            response.status(400);
+            return "Expected a JSON array of queries";
+        }
+        if (items.length > maxQueries) {
+            response.status(400);
+            return "A batch may hold at most " + maxQueries + " queries, got " + items.length;
+        }
+
+        response.type("application/x-ndjson");
+        answer(items, response.raw().getOutputStream());
+        return "";
+    }
+
+    /** Returns the queries in BODY, or null if it is not a JSON array. */
+    static Item[] parse(String body) {
+        try {
+            return gson.fromJson(body, Item[].class);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Answers ITEMS, writing one line to OUT for each of them as soon as it is answered. */
+    void answer(Item[] items, OutputStream out) throws IOException, InterruptedException {
+        // identical queries are grouped, in order of first appearance
+        Map<Key, List<Integer>> distinct = new LinkedHashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            Item item = items[i];
+            if (item == null || item.route == null || item.words == null) {
+                write(out, new Line(i, null, "Expected an object with at least \"route\" and \"words\""));
+            } else if (!handlers.containsKey(item.route)) {
+                write(out, new Line(i, null, "Unknown route \"" + item.route + "\""));
+            } else {
+                NgordnetQuery query = NgordnetQueryHandler.readQuery(
+                        item.words, item.startYear, item.endYear, item.k, item.ngordnetQueryType);
+                distinct.computeIfAbsent(new Key(item.route, query), key -> new ArrayList<>()).add(i);
+            }
+        }
+        out.flush();
+
+        CompletionService<Answer> completion = new ExecutorCompletionService<>(executor);
+        // in order of submission, which is also the order of their deadlines
+        Map<Future<Answer>, Running> running = new LinkedHashMap<>();
+        Iterator<Map.Entry<Key, List<Integer>>> pending = distinct.entrySet().iterator();
+        try {
+            while (pending.hasNext() || !running.isEmpty()) {
+                while (running.size() < parallelism && pending.hasNext()) {
+                    Map.Entry<Key, List<Integer>> next = pending.next();
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(itemTimeoutMillis);
+                    try {
+                        running.put(completion.submit(() -> answer(next.getKey(), next.getValue())),
+                                new Running(next.getValue(), deadline));
+                    } catch (RejectedExecutionException e) {
+                        writeAll(out, next.getValue(), null, AdmissionControl.BUSY);
+                    }
+                }
+                if (running.isEmpty()) {
+                    continue;
+                }
+                Future<Answer> done = takeOrTimeOut(completion, running, out);
+                if (done == null || running.remove(done) == null) {
+                    // the oldest query ran out of time, or this is one that did earlier
+                    continue;
+                }
+                Answer answer = done.get();
+                writeAll(out, answer.indexes(), answer.result(), answer.error());
+            }
+        } catch (ExecutionException e) {
+            // answer catches everything its handler throws
+            throw new IllegalStateException(e);
+        } finally {
+            // only does anything if the batch was cut short, e.g. the client went away
+            for (Future<Answer> future : running.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the next query of RUNNING to be answered, or null if the oldest one ran out of time
+     * first, in which case it is cancelled, removed and answered with an error on OUT.
+     */
+    private Future<Answer> takeOrTimeOut(CompletionService<Answer> completion, Map<Future<Answer>, Running> running,
+                                         OutputStream out) throws IOException, InterruptedException {
+        if (itemTimeoutMillis == 0) {
+            return completion.take();
+        }
+        Map.Entry<Future<Answer>, Running> oldest = running.entrySet().iterator().next();
+        Future<Answer> done = completion.poll(oldest.getValue().deadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (done == null) {
+            oldest.getKey().cancel(true);
+            running.remove(oldest.getKey());
+            writeAll(out, oldest.getValue().indexes(), null, AdmissionControl.TIMED_OUT);
+        }
+        return done;
+    }
+
+    private Answer answer(Key key, List<Integer> indexes) {
+        try {
+            return new Answer(indexes, handlers.get(key.route()).handle(key.query()), null);
+        } catch (RuntimeException | Error e) {
+            // an Error too, so one query that blows up does not take the rest of the batch with it
+            return new Answer(indexes, null, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static void writeAll(OutputStream out, List<Integer> indexes, String result, String error)
+            throws IOException {
+        for (int index : indexes) {
+            write(out, new Line(index, result, error));
+        }
+        out.flush();
+    }
+
+    private static void write(OutputStream out, Line line) throws IOException {
+        out.write((gson.toJson(line) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,273 @@
+package browser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Wraps another handler and remembers its responses, so a popular query is only computed once.
+ *
+ * Queries are normalized before lookup: words are trimmed, and when the handler's answer to a
+ * query does not depend on word order (e.g. hyponyms, which intersect over all words) they are
+ * also sorted and deduplicated. Years, k and the query type are part of the key as they are.
+ *
+ * Eviction is a segmented LRU bounded both by the number of entries and by an estimate of the
+ * bytes held, so neither a few huge responses nor many tiny ones grow it without limit. New
+ * responses enter a probation segment; a second hit promotes them to a protected segment that
+ * takes up to 80% of both budgets. One-off queries therefore only ever push out other one-off queries, while
+ * repeatedly asked ones survive a burst of new ones.
+ *
+ * Concurrent misses on the same query are coalesced: the first computes the response and the
+ * others wait for it. Every response is tagged with DATAVERSION at the time it was computed,
+ * and is treated as a miss once the version moves on (see NGramMap.version()). If the query
+ * being waited for is cancelled (see AdmissionControl), the waiters compute it themselves.
+ *
+ * The server calls cached before admitting a request to a limited route, so a hit is answered
+ * without waiting for a turn or a worker thread.
+ */
+public class CachingQueryHandler extends NgordnetQueryHandler {
+    // rough per-entry cost of the key, the entry and the map node, on top of the strings
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private record Key(List<String> words, int startYear, int endYear, int k, NgordnetQueryType type) {
+    }
+
+    private record Entry(String response, long version, long bytes) {
+    }
+
+    private final NgordnetQueryHandler delegate;
+    private final Predicate<NgordnetQuery> wordOrderMatters;
+    private final LongSupplier dataVersion;
+    private final int maxEntries;
+    private final int maxProtectedEntries;
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+
+    // both in order from least to most recently used; guarded by this
+    private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<Key, Entry> protectedEntries = new LinkedHashMap<>();
+    private long probationBytes;
+    private long protectedBytes;
+
+    private final ConcurrentHashMap<Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a cache of at most MAXENTRIES responses and MAXBYTES in front of DELEGATE.
+     * Queries for which WORDORDERMATTERS is false share one entry with any query listing the
+     * same words in a different order. DATAVERSION returns the current version of the data
+     * DELEGATE reads (a constant if it never changes).
+     */
+    public CachingQueryHandler(NgordnetQueryHandler delegate, Predicate<NgordnetQuery> wordOrderMatters,
+                               int maxEntries, long maxBytes, LongSupplier dataVersion) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive, got " + maxEntries);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive, got " + maxBytes);
+        }
+        this.delegate = delegate;
+        this.wordOrderMatters = wordOrderMatters;
+        this.dataVersion = dataVersion;
+        this.maxEntries = maxEntries;
+        this.maxProtectedEntries = maxEntries / 5 * 4;
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = maxBytes / 5 * 4;
+    }
+
+    /**
+     * Returns the cached response to Q if there is one for the current data, without ever
+     * computing it, or null. A response found counts as a hit.
+     */
+    public String cached(NgordnetQuery q) {
+        String cached = lookup(normalize(q), dataVersion.getAsLong());
+        if (cached != null) {
+            hits.increment();
+        }
+        return cached;
+    }
+
+    @Override
+    public String handle(NgordnetQuery q) {
+        Key key = normalize(q);
+        long version = dataVersion.getAsLong();
+        String cached = lookup(key, version);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            // someone else is already computing this very query
+            coalesced.increment();
+            try {
+                // get rather than join, so a waiter whose own time runs out stops waiting
+                return running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for the same query");
+            } catch (CancellationException e) {
+                // that query timed out; this one may have time left, so it tries on its own
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                return handle(q);
+            } catch (ExecutionException e) {
+                // that query failed, and this one would fail the same way
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw (RuntimeException) e.getCause();
+            }
+        }
+        misses.increment();
+        String response;
+        try {
+            response = delegate.handle(q);
+        } catch (RuntimeException | Error e) {
+            // removed first, so a waiter that tries again does not find the failed one
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        store(key, new Entry(response, version, sizeOf(key, response)));
+        inFlight.remove(key, mine);
+        mine.complete(response);
+        return response;
+    }
+
+    private Key normalize(NgordnetQuery q) {
+        List<String> words = new ArrayList<>(q.words().size());
+        for (String word : q.words()) {
+            words.add(word.trim());
+        }
+        if (!wordOrderMatters.test(q)) {
+            words = words.stream().sorted().distinct().toList();
+        }
+        return new Key(List.copyOf(words), q.startYear(), q.endYear(), q.k(), q.ngordnetQueryType());
+    }
+
+    private static long sizeOf(Key key, String response) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 2L * response.length();
+        for (String word : key.words()) {
+            bytes += 48 + 2L * word.length();
+        }
+        return bytes;
+    }
+
+    /** Returns the cached response for KEY if it was computed at VERSION, promoting it on a hit. */
+    private synchronized String lookup(Key key, long version) {
+        Entry entry = protectedEntries.remove(key);
+        if (entry != null) {
+            protectedBytes -= entry.bytes();
+        } else {
+            entry = probation.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            probationBytes -= entry.bytes();
+        }
+        if (entry.version() != version) {
+            evictions.increment();
+            return null;
+        }
+        // a hit either way moves the entry to the most recently used end of protected
+        protectedEntries.put(key, entry);
+        protectedBytes += entry.bytes();
+        while (protectedBytes > maxProtectedBytes || protectedEntries.size() > maxProtectedEntries) {
+            Iterator<Map.Entry<Key, Entry>> eldest = protectedEntries.entrySet().iterator();
+            Map.Entry<Key, Entry> demoted = eldest.next();
+            eldest.remove();
+            protectedBytes -= demoted.getValue().bytes();
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationBytes += demoted.getValue().bytes();
+        }
+        trim();
+        return entry.response();
+    }
+
+    private synchronized void store(Key key, Entry entry) {
+        if (entry.bytes() > maxBytes) {
+            return;
+        }
+        Entry old = protectedEntries.remove(key);
+        if (old != null) {
+            protectedBytes -= old.bytes();
+        }
+        old = probation.remove(key);
+        if (old != null) {
+            probationBytes -= old.bytes();
+        }
+        probation.put(key, entry);
+        probationBytes += entry.bytes();
+        trim();
+    }
+
+    /** Evicts the least recently used entries, probation first, until both budgets are met. */
+    private void trim() {
+        while (probationBytes + protectedBytes > maxBytes || probation.size() + protectedEntries.size() > maxEntries) {
+            LinkedHashMap<Key, Entry> segment = probation.isEmpty() ? protectedEntries : probation;
+            Iterator<Map.Entry<Key, Entry>> eldest = segment.entrySet().iterator();
+            long bytes = eldest.next().getValue().bytes();
+            eldest.remove();
+            if (segment == probation) {
+                probationBytes -= bytes;
+            } else {
+                protectedBytes -= bytes;
+            }
+            evictions.increment();
+        }
+    }
+
+    /** Returns how many queries were answered from the cache. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Returns how many queries were computed by the wrapped handler. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Returns how many queries waited for an identical query that was already being computed. */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /** Returns how many entries were dropped, for lack of space or because the data changed. */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Returns the fraction of queries answered without computing them again, or 0 before any query. */
+    public double hitRatio() {
+        long hitCount = hits.sum() + coalesced.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /** Returns the number of cached responses. */
+    public synchronized int entries() {
+        return probation.size() + protectedEntries.size();
+    }
+
+    /** Returns the estimated number of bytes held by the cached responses. */
+    public synchronized long sizeInBytes() {
+        return probationBytes + protectedBytes;
+    }
+}
@@ -21,8 +21,19 @@ public abstract class NgordnetQueryHandler implements Route {
         return Arrays.asList(requestedWords);
     }
 
-    private static NgordnetQuery readQueryMap(QueryParamsMap qm) {
-        List<String> words = commaSeparatedStringToList(qm.get("words").value());
+    /** Builds a query from the parameters of a request, QM. */
+    static NgordnetQuery readQueryMap(QueryParamsMap qm) {
+        return readQuery(qm.get("words").value(), qm.get("startYear").value(), qm.get("endYear").value(),
+                qm.get("k").value(), qm.get("ngordnetQueryType").value());
+    }
+
+    /**
+     * Builds a query from its parameters as they appear in a request, with WORDSPARAM holding the
+     * words separated by commas. Missing or invalid years, k and type are replaced by their defaults.
+     */
+    static NgordnetQuery readQuery(String wordsParam, String startYearParam, String endYearParam,
+                                   String kParam, String typeParam) {
+        List<String> words = commaSeparatedStringToList(wordsParam);
 
         int startYear;
         int endYear;
@@ -30,25 +41,25 @@ public abstract class NgordnetQueryHandler implements Route {
         NgordnetQueryType ngordnetQueryType;
 
         try {
-            startYear = Integer.parseInt(qm.get("startYear").value());
+            startYear = Integer.parseInt(startYearParam);
         } catch (RuntimeException e) {
             startYear = 1900;
         }
 
         try {
-            endYear = Integer.parseInt(qm.get("endYear").value());
+            endYear = Integer.parseInt(endYearParam);
         } catch (RuntimeException e) {
             endYear = 2020;
         }
 
         try {
-            k = Integer.parseInt(qm.get("k").value());
+            k = Integer.parseInt(kParam);
         } catch (RuntimeException e) {
             k = 0;
         }
 
         try {
-            ngordnetQueryType = NgordnetQueryType.valueOf(qm.get("ngordnetQueryType").value());
+            ngordnetQueryType = NgordnetQueryType.valueOf(typeParam);
         } catch (RuntimeException e) {
             ngordnetQueryType = NgordnetQueryType.HYPONYMS;
         }
@@ -56,11 +67,16 @@ public abstract class NgordnetQueryHandler implements Route {
         return new NgordnetQuery(words, startYear, endYear, k, ngordnetQueryType);
     }
 
+    /** Returns QUERYRESULT as the body of a response. */
+    static String toJson(String queryResult) {
+        return gson.toJson(queryResult);
+    }
+
     @Override
     public String handle(Request request, Response response) throws Exception {
         QueryParamsMap qm = request.queryMap();
         NgordnetQuery nq = readQueryMap(qm);
         String queryResult = handle(nq);
-        return gson.toJson(queryResult);
+        return toJson(queryResult);
     }
 }
@@ -1,8 +1,10 @@
 package browser;
 
 /** An enum to represent the type of query.
- *  Default value is HYPONYMS. */
+ *  Default value is HYPONYMS.
+ *  COMMON_ANCESTOR asks for the closest common ancestor of the first two words. */
 public enum NgordnetQueryType {
     HYPONYMS,
-    ANCESTORS
+    ANCESTORS,
+    COMMON_ANCESTOR
 }
@@ -1,13 +1,237 @@
 package browser;
 
+import metrics.Metrics;
+import metrics.Timer;
+import spark.Route;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import static spark.Spark.*;
 
 /**
  * Created by hug.
  */
 public class NgordnetServer {
+    private final boolean virtualThreads;
+    // where batch queries, and handlers of limited routes with a timeout, run; created on first use
+    private ExecutorService workers;
+    // the most platform workers the routes registered so far can keep busy at once
+    private int workerThreads;
+    // every handler registered so far, by route, for the batch route to send queries to
+    private final Map<String, NgordnetQueryHandler> handlers = new HashMap<>();
+
+    public NgordnetServer() {
+        this(false);
+    }
+
+    /**
+     * Constructs a server whose limited routes run their handlers on virtual threads if
+     * VIRTUALTHREADS, rather than on the server thread (or a platform worker thread, for
+     * routes with a timeout). The queries of a batch run on the same kind of threads.
+     */
+    public NgordnetServer(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
     public void register(String URL, NgordnetQueryHandler nqh) {
-        get(URL, nqh);
+        handlers.put(URL, nqh);
+        exportCacheMetrics(URL, nqh);
+        get(URL, timed(URL, nqh));
+    }
+
+    /**
+     * Registers NQH at URL, handling at most as many requests at once as LIMITS allows and
+     * turning the rest away. If NQH is a CachingQueryHandler, a request it has the answer to is
+     * answered before it is admitted, so hits never wait for a turn. Returns the wrapper, which
+     * counts what it let in and turned away.
+     */
+    public AdmissionControl register(String URL, NgordnetQueryHandler nqh, RouteLimits limits) {
+        ExecutorService routeWorkers =
+                virtualThreads || limits.timeoutMillis() > 0 ? workers(limits.maxConcurrent()) : null;
+        AdmissionControl admissionControl = new AdmissionControl(timed(URL, nqh), limits, routeWorkers);
+        handlers.put(URL, limited(URL, nqh, admissionControl));
+        exportCacheMetrics(URL, nqh);
+        exportAdmissionMetrics(URL, admissionControl);
+        get(URL, cachedFirst(nqh, admissionControl));
+        return admissionControl;
+    }
+
+    /**
+     * Registers a batch route at URL, to which a JSON array of queries to any of the routes
+     * registered so far can be POSTed (see BatchQueryHandler). Each batch runs at most
+     * PARALLELISM of its queries at once and holds at most MAXQUERIES; the batch requests
+     * themselves are limited by LIMITS. The timeout of LIMITS applies to each query of a batch
+     * rather than the batch as a whole, since its answers are already streaming out; each query
+     * also counts against the limits and timeout of its own route.
+     */
+    public AdmissionControl registerBatch(String URL, int parallelism, int maxQueries, RouteLimits limits) {
+        // each batch let in runs up to PARALLELISM queries at once
+        ExecutorService batchWorkers = workers(limits.maxConcurrent() * parallelism);
+        BatchQueryHandler batch =
+                new BatchQueryHandler(handlers, batchWorkers, parallelism, maxQueries, limits.timeoutMillis());
+        RouteLimits batchLimits =
+                new RouteLimits(limits.maxConcurrent(), limits.maxQueued(), limits.queueTimeoutMillis(), 0);
+        ExecutorService routeWorkers = virtualThreads ? workers(limits.maxConcurrent()) : null;
+        AdmissionControl admissionControl = new AdmissionControl(timed(URL, batch), batchLimits, routeWorkers);
+        exportAdmissionMetrics(URL, admissionControl);
+        post(URL, admissionControl);
+        return admissionControl;
+    }
+
+    /**
+     * Registers a route at URL that lists every metric in the Prometheus text format: request
+     * and stage timers (with -Dngordnet.metrics=true), admission counts and cache hit ratios.
+     */
+    public void registerMetrics(String URL) {
+        get(URL, (request, response) -> {
+            response.type("text/plain; version=0.0.4; charset=utf-8");
+            return Metrics.scrape();
+        });
+    }
+
+    /**
+     * Returns NQH for the batch route to send queries to, with the limits and timeout of
+     * ADMISSIONCONTROL applied to each query as if it were a request of its own, and its stages
+     * timed under the route URL. A query the response cache of NQH (if any) has the answer to
+     * is answered without being admitted. A query that is turned away or runs out of time
+     * throws, and the batch answers it with the message.
+     */
+    private static NgordnetQueryHandler limited(String URL, NgordnetQueryHandler nqh,
+                                                AdmissionControl admissionControl) {
+        return new NgordnetQueryHandler() {
+            @Override
+            public String handle(NgordnetQuery q) {
+                if (nqh instanceof CachingQueryHandler cache) {
+                    String cached = cache.cached(q);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+                try {
+                    return admissionControl.call(() -> {
+                        Metrics.RouteLabel label = Metrics.routeLabel(URL);
+                        try {
+                            return nqh.handle(q);
+                        } finally {
+                            label.restore();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (TimeoutException e) {
+                    throw new CancellationException(AdmissionControl.TIMED_OUT);
+                } catch (InterruptedException e) {
+                    // the batch was cut short, or this query ran past the batch's own timeout
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException(AdmissionControl.TIMED_OUT);
+                } catch (Exception e) {
+                    // NgordnetQueryHandler.handle throws no checked exceptions
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns ROUTE with the response cache of NQH, if it has one, looked up first, so a cached
+     * answer goes straight back instead of through ROUTE.
+     */
+    private static Route cachedFirst(NgordnetQueryHandler nqh, Route route) {
+        if (!(nqh instanceof CachingQueryHandler cache)) {
+            return route;
+        }
+        return (request, response) -> {
+            String cached = cache.cached(NgordnetQueryHandler.readQueryMap(request.queryMap()));
+            if (cached != null) {
+                return NgordnetQueryHandler.toJson(cached);
+            }
+            return route.handle(request, response);
+        };
+    }
+
+    /** Returns ROUTE, timed under the name URL when metrics are enabled. */
+    private static Route timed(String URL, Route route) {
+        if (!Metrics.ENABLED) {
+            return route;
+        }
+        Timer timer = Metrics.timer("ngordnet_request", "handling requests (once let in), by route", "route", URL);
+        return (request, response) -> {
+            Metrics.RouteLabel label = Metrics.routeLabel(URL);
+            Timer.Sample sample = timer.time();
+            try {
+                return route.handle(request, response);
+            } finally {
+                sample.stop();
+                label.restore();
+            }
+        };
+    }
+
+    private static void exportCacheMetrics(String URL, NgordnetQueryHandler nqh) {
+        if (!(nqh instanceof CachingQueryHandler cache)) {
+            return;
+        }
+        Metrics.counter("ngordnet_response_cache_hits_total", "Queries answered from the response cache",
+                "route", URL, cache::hits);
+        Metrics.counter("ngordnet_response_cache_misses_total", "Queries the response cache had to compute",
+                "route", URL, cache::misses);
+        Metrics.counter("ngordnet_response_cache_coalesced_total", "Queries that waited for the same query",
+                "route", URL, cache::coalesced);
+        Metrics.counter("ngordnet_response_cache_evictions_total", "Responses dropped from the response cache",
+                "route", URL, cache::evictions);
+        Metrics.gauge("ngordnet_response_cache_hit_ratio", "Fraction of queries answered without computing them",
+                "route", URL, cache::hitRatio);
+        Metrics.gauge("ngordnet_response_cache_entries", "Number of cached responses",
+                "route", URL, cache::entries);
+        Metrics.gauge("ngordnet_response_cache_bytes", "Estimated size of the cached responses",
+                "route", URL, cache::sizeInBytes);
+    }
+
+    private static void exportAdmissionMetrics(String URL, AdmissionControl admissionControl) {
+        Metrics.gauge("ngordnet_requests_running", "Requests being handled right now",
+                "route", URL, admissionControl::running);
+        Metrics.gauge("ngordnet_requests_queued", "Requests waiting for their turn right now",
+                "route", URL, admissionControl::queued);
+        Metrics.counter("ngordnet_requests_admitted_total", "Requests let in to run",
+                "route", URL, admissionControl::admitted);
+        Metrics.counter("ngordnet_requests_rejected_total", "Requests turned away with 503 because the route was busy",
+                "route", URL, admissionControl::rejected);
+        Metrics.counter("ngordnet_requests_timed_out_total", "Requests cancelled for running past their timeout",
+                "route", URL, admissionControl::timedOut);
+    }
+
+    /**
+     * Returns the executor that worker threads come from, with room for THREADS more of them.
+     * A request keeps its route's permit until its worker is done, so a route never has more
+     * workers busy than its maxConcurrent, and the platform pool never needs more threads than
+     * the routes asked for. It has no queue: past that many, a task is rejected (and the
+     * request turned away as busy) rather than left waiting behind the others.
+     */
+    private synchronized ExecutorService workers(int threads) {
+        if (virtualThreads) {
+            if (workers == null) {
+                workers = Executors.newVirtualThreadPerTaskExecutor();
+            }
+            return workers;
+        }
+        workerThreads += threads;
+        if (workers == null) {
+            ThreadFactory daemons = Thread.ofPlatform().name("ngordnet-handler-", 0).daemon().factory();
+            workers = new ThreadPoolExecutor(0, workerThreads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), daemons);
+        } else {
+            ((ThreadPoolExecutor) workers).setMaximumPoolSize(workerThreads);
+        }
+        return workers;
     }
 
     public void startUp() {
@@ -0,0 +1,26 @@
+package browser;
+
+/**
+ * How much of the server one route may use at once.
+ *
+ * At most MAXCONCURRENT requests of the route are handled at the same time. Up to MAXQUEUED
+ * more may wait, each for at most QUEUETIMEOUTMILLIS, for one of them to finish; any request
+ * beyond that is turned away at once with 503 Service Unavailable. A request that has been
+ * running for TIMEOUTMILLIS is cancelled and also answered with 503 (0 means no timeout).
+ */
+public record RouteLimits(int maxConcurrent, int maxQueued, long queueTimeoutMillis, long timeoutMillis) {
+    public RouteLimits {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive, got " + maxConcurrent);
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative, got " + maxQueued);
+        }
+        if (queueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("queueTimeoutMillis must not be negative, got " + queueTimeoutMillis);
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative, got " + timeoutMillis);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package dictionary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * An immutable dictionary that gives every distinct word a dense int id. Ids follow the
+ * alphabetical order of the words, so sorting ids also sorts the words they stand for.
+ *
+ * Lookups go through an open-addressing table of ids keyed on String.hashCode(), which the
+ * String caches, so translating a word costs one probe and (almost always) one equals().
+ *
+ * NGramMap and WordNet each build a dictionary of their own vocabulary, so their ids are not
+ * interchangeable. Where one looks up the other's words by id (WordNet asking NGramMap for
+ * counts), translate gives an array from one set of ids to the other, which NGramMap works out
+ * once per dictionary and keeps.
+ */
+public final class WordDictionary {
+    private final String[] words;
+
+    // id + 1 of the word hashed to each slot, 0 for an empty slot
+    private final int[] table;
+
+    private WordDictionary(String[] words) {
+        this.words = words;
+        int capacity = Integer.highestOneBit(Math.max(words.length, 1) * 2 - 1) << 1;
+        this.table = new int[capacity];
+        for (int id = 0; id < words.length; id++) {
+            int slot = words[id].hashCode() & (capacity - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    /** Returns a dictionary of the distinct words in WORDS. */
+    public static WordDictionary of(Collection<String> words) {
+        return new WordDictionary(new TreeSet<>(words).toArray(new String[0]));
+    }
+
+    /** Returns the id of WORD, or -1 if it is not in this dictionary. */
+    public int id(String word) {
+        int mask = table.length - 1;
+        int slot = word.hashCode() & mask;
+        while (table[slot] != 0) {
+            String candidate = words[table[slot] - 1];
+            if (candidate.equals(word)) {
+                return table[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** Returns the word with the given ID. */
+    public String word(int id) {
+        return words[id];
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Returns an array mapping every id of this dictionary to the id of the same word in OTHER,
+     * or -1 where OTHER does not have the word.
+     */
+    public int[] translate(WordDictionary other) {
+        int[] translation = new int[words.length];
+        for (int id = 0; id < words.length; id++) {
+            translation[id] = other.id(words[id]);
+        }
+        return translation;
+    }
+
+    /** Returns the number of bytes writeTo will use. */
+    public int encodedSize() {
+        int size = Integer.BYTES;
+        for (String word : words) {
+            size += Integer.BYTES + word.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    /** Writes the word count followed by each word as a length-prefixed UTF-8 string, in id order. */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(words.length);
+        for (String word : words) {
+            byte[] encoded = word.getBytes(StandardCharsets.UTF_8);
+            out.putInt(encoded.length).put(encoded);
+        }
+    }
+
+    /** Reads a dictionary written by writeTo, leaving IN positioned just after it. */
+    public static WordDictionary readFrom(ByteBuffer in) {
+        String[] words = new String[checkLength(in.getInt(), in.remaining() / Integer.BYTES)];
+        for (int id = 0; id < words.length; id++) {
+            byte[] encoded = new byte[checkLength(in.getInt(), in.remaining())];
+            in.get(encoded);
+            words[id] = new String(encoded, StandardCharsets.UTF_8);
+        }
+        return new WordDictionary(words);
+    }
+
+    /** Returns LENGTH if it is between 0 and MAX, so a corrupt length cannot allocate a huge array. */
+    private static int checkLength(int length, int max) {
+        if (length < 0 || length > max) {
+            throw new IllegalArgumentException("Corrupt word dictionary: length " + length
+                    + " where at most " + max + " fits");
+        }
+        return length;
+    }
+}
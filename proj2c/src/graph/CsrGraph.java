@@ -0,0 +1,187 @@
+package graph;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * An immutable directed graph in compressed sparse row (CSR) form. The out-edges of node v are
+ * targets[offsets[v]] .. targets[offsets[v + 1] - 1], sorted in increasing order, so the whole
+ * graph is two int arrays and walking it never boxes a node index. The arrays are held as
+ * IntBuffers, so a graph read with readFrom can point straight into a memory-mapped file.
+ *
+ * To visit the neighbours of v:
+ *     for (int i = g.start(v); i < g.end(v); i++) { int w = g.target(i); ... }
+ */
+public final class CsrGraph {
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+
+    CsrGraph(IntBuffer offsets, IntBuffer targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Builds a CSR graph over nodes 0 .. NODECOUNT - 1 from the first EDGECOUNT edges
+     * SOURCES[i] -> TARGETS[i]. An edge added more than once is kept once.
+     */
+    public static CsrGraph of(int nodeCount, int[] sources, int[] targets, int edgeCount) {
+        int[] offsets = new int[nodeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            offsets[sources[i] + 1] += 1;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] sorted = new int[edgeCount];
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            sorted[next[sources[i]]++] = targets[i];
+        }
+        // sort the targets of each node and squeeze out repeats, moving the runs down as we go
+        int kept = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            int from = offsets[v];
+            int to = offsets[v + 1];
+            Arrays.sort(sorted, from, to);
+            offsets[v] = kept;
+            for (int i = from; i < to; i++) {
+                if (i == from || sorted[i] != sorted[kept - 1]) {
+                    sorted[kept++] = sorted[i];
+                }
+            }
+        }
+        offsets[nodeCount] = kept;
+        return new CsrGraph(IntBuffer.wrap(offsets), IntBuffer.wrap(Arrays.copyOf(sorted, kept)));
+    }
+
+    /** Builds a CSR graph whose node v has the targets in LISTS[v] (null for none). */
+    public static CsrGraph of(int[][] lists) {
+        int[] offsets = new int[lists.length + 1];
+        for (int v = 0; v < lists.length; v++) {
+            offsets[v + 1] = offsets[v] + (lists[v] == null ? 0 : lists[v].length);
+        }
+        int[] targets = new int[offsets[lists.length]];
+        for (int v = 0; v < lists.length; v++) {
+            if (lists[v] != null) {
+                System.arraycopy(lists[v], 0, targets, offsets[v], lists[v].length);
+                Arrays.sort(targets, offsets[v], offsets[v + 1]);
+            }
+        }
+        return new CsrGraph(IntBuffer.wrap(offsets), IntBuffer.wrap(targets));
+    }
+
+    public int nodeCount() {
+        return offsets.capacity() - 1;
+    }
+
+    public int edgeCount() {
+        return targets.capacity();
+    }
+
+    /** Returns the position of NODE's first out-edge. */
+    public int start(int node) {
+        return offsets.get(node);
+    }
+
+    /** Returns the position just past NODE's last out-edge. */
+    public int end(int node) {
+        return offsets.get(node + 1);
+    }
+
+    /** Returns the target of the out-edge at POSITION. */
+    public int target(int position) {
+        return targets.get(position);
+    }
+
+    public int degree(int node) {
+        return offsets.get(node + 1) - offsets.get(node);
+    }
+
+    /** Returns a copy of the targets of NODE. */
+    public int[] targets(int node) {
+        int[] copy = new int[degree(node)];
+        targets.get(offsets.get(node), copy);
+        return copy;
+    }
+
+    /**
+     * Returns a CRC-32 of the offsets and then the targets, which tells apart graphs with the
+     * same node and edge counts but different edges.
+     */
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocate(4096 * Integer.BYTES);
+        for (IntBuffer ints : new IntBuffer[]{offsets, targets}) {
+            for (int i = 0; i < ints.capacity(); i++) {
+                if (!chunk.hasRemaining()) {
+                    crc.update(chunk.flip());
+                    chunk.clear();
+                }
+                chunk.putInt(ints.get(i));
+            }
+        }
+        crc.update(chunk.flip());
+        return crc.getValue();
+    }
+
+    /** Returns the number of bytes writeTo will use. */
+    public int encodedSize() {
+        return 2 * Integer.BYTES + (offsets.capacity() + targets.capacity()) * Integer.BYTES;
+    }
+
+    /** Writes the node count, the edge count, the offsets and then the targets, as ints. */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(nodeCount()).putInt(edgeCount());
+        for (int i = 0; i < offsets.capacity(); i++) {
+            out.putInt(offsets.get(i));
+        }
+        for (int i = 0; i < targets.capacity(); i++) {
+            out.putInt(targets.get(i));
+        }
+    }
+
+    /**
+     * Throws an IllegalArgumentException unless the offsets start at 0, never go down and end at
+     * edgeCount, and every target is below TARGETCOUNT. A graph read from a corrupt file would
+     * otherwise only fail (or give wrong answers) once a query walks the broken part.
+     */
+    public void validate(int targetCount) {
+        if (offsets.get(0) != 0 || offsets.get(nodeCount()) != edgeCount()) {
+            throw new IllegalArgumentException("Corrupt graph: the offsets do not cover the edges");
+        }
+        for (int v = 0; v < nodeCount(); v++) {
+            if (offsets.get(v + 1) < offsets.get(v)) {
+                throw new IllegalArgumentException("Corrupt graph: the offsets go down at node " + v);
+            }
+        }
+        for (int i = 0; i < edgeCount(); i++) {
+            if (targets.get(i) < 0 || targets.get(i) >= targetCount) {
+                throw new IllegalArgumentException("Corrupt graph: target " + targets.get(i) + " out of range");
+            }
+        }
+    }
+
+    /**
+     * Reads a graph written by writeTo, leaving IN positioned just after it. Nothing is copied:
+     * the graph is a view of IN's bytes, so they must not change afterwards.
+     */
+    public static CsrGraph readFrom(ByteBuffer in) {
+        int nodeCount = in.getInt();
+        int edgeCount = in.getInt();
+        if (nodeCount < 0 || edgeCount < 0
+                || ((long) nodeCount + 1 + edgeCount) * Integer.BYTES > in.remaining()) {
+            throw new IllegalArgumentException("Corrupt graph: " + nodeCount + " nodes and " + edgeCount
+                    + " edges do not fit in " + in.remaining() + " bytes");
+        }
+        ByteOrder order = in.order();
+        IntBuffer offsets = in.slice(in.position(), (nodeCount + 1) * Integer.BYTES).order(order).asIntBuffer();
+        in.position(in.position() + (nodeCount + 1) * Integer.BYTES);
+        IntBuffer targets = in.slice(in.position(), edgeCount * Integer.BYTES).order(order).asIntBuffer();
+        in.position(in.position() + edgeCount * Integer.BYTES);
+        return new CsrGraph(offsets, targets);
+    }
+}
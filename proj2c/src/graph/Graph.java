@@ -1,75 +1,98 @@
 package graph;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 
+/**
+ * Collects the nodes and edges of a graph while it is being read. Everything is kept in
+ * growable int arrays, so loading never boxes a node index or a word id. Once loading is done,
+ * compact the graph with the ...ToCsr methods and query the immutable CsrGraphs, which are safe
+ * to share between threads.
+ */
 public class Graph {
-    // maps the index of a node to all the indexes of its adjacent nodes
-    private final HashMap<Integer, HashSet<Integer>> adjList;
+    // maps the index of a node to the ids of all the words in that node (null if there is no
+    // node with that index); a node may contain multiple words
+    private int[][] nodeWords = new int[1024][];
 
-    // maps the index of a node to all the words in that node
-    // a node may contain multiple words
-    private final HashMap<Integer, HashSet<String>> nodesHM;
+    // every edge added so far, from edgeParents[i] to edgeChildren[i]
+    // a node may have multiple children and multiple parents (1, 2, 3, ...)
+    private int[] edgeParents = new int[1024];
+    private int[] edgeChildren = new int[1024];
+    private int edgeCount;
 
-    // maps a word to all the indexes of the nodes containing that word
-    // a word may appear in multiple nodes
-    private final HashMap<String, HashSet<Integer>> wordsToIndexHM;
+    // one more than the largest node index seen so far
+    private int nodeCount;
 
-    // maps the index of a node to all the indexes of its parents
-    // a node may have multiple parents (1, 2, 3, ...)
-    private final HashMap<Integer, HashSet<Integer>> predHM;
-
-    public Graph() {
-        adjList = new HashMap<>();
-        nodesHM = new HashMap<>();
-        wordsToIndexHM = new HashMap<>();
-        predHM = new HashMap<>();
+    /**
+     * Creating a new node by specifying its index and the ids of all words stored inside of it.
+     * Word ids come from the dictionary of whoever builds the graph (see WordNet).
+     */
+    public void createNode(int index, int[] wordIds) {
+        if (index >= nodeWords.length) {
+            nodeWords = Arrays.copyOf(nodeWords, Math.max(index + 1, nodeWords.length * 2));
+        }
+        nodeWords[index] = wordIds;
+        nodeCount = Math.max(nodeCount, index + 1);
     }
 
-    /** Creating a new node by specifying its index and all words stored inside of it.*/
-    public void createNode(int index, HashSet<String> words) {
-        nodesHM.put(index, words);
-        for (String word: words) {
-            // a little bit fancy way to combine containsKey and add together
-            // inspired by ChatGPT
-            wordsToIndexHM.computeIfAbsent(word, k -> new HashSet<>()).add(index);
+    /** Given the index of the root node and the child node, add an edge between them. */
+    public void addEdge(int root, int child) {
+        if (edgeCount == edgeParents.length) {
+            edgeParents = Arrays.copyOf(edgeParents, edgeCount * 2);
+            edgeChildren = Arrays.copyOf(edgeChildren, edgeCount * 2);
         }
+        edgeParents[edgeCount] = root;
+        edgeChildren[edgeCount] = child;
+        edgeCount += 1;
+        nodeCount = Math.max(nodeCount, Math.max(root, child) + 1);
     }
 
-    /**
-     * Given the index of the root node and the child node, add an edge
-     * between them by updating adjList and predHM.
-     */
-    public void addEdge(int root, int child) {
-        // a little bit fancy way to combine containsKey and add together
-        // inspired by ChatGPT
-        adjList.computeIfAbsent(root, k -> new HashSet<>()).add(child);
-        predHM.computeIfAbsent(child, k -> new HashSet<>()).add(root);
+    /** Given the index of a node, return a copy of the ids of all the words stored in that node. */
+    public int[] getNodeValue(int nodeIndex) {
+        int[] wordIds = nodeIndex < nodeWords.length ? nodeWords[nodeIndex] : null;
+        return wordIds == null ? null : wordIds.clone();
     }
 
-    /** Given a word, return all the indexes of nodes containing that word.*/
-    public HashSet<Integer> getNodeIndex(String word) {
-        return wordsToIndexHM.get(word);
+    public int getNodeCount() {
+        return nodeCount;
     }
 
-    /** Given the index of a node, return all the words stored in that node. */
-    public HashSet<String> getNodeValue(int nodeIndex) {
-        return nodesHM.get(nodeIndex);
+    /** Compacts the edges into a CSR graph from each node to its children. */
+    public CsrGraph childrenToCsr() {
+        return CsrGraph.of(nodeCount, edgeParents, edgeChildren, edgeCount);
     }
 
-    /**
-     * Given the index of a node, return all the indexes of its adjacent or parent nodes,
-     * based on hashMap(adjList or predHM).
-     */
-    public HashSet<Integer> getAdjOrParentNodes(HashMap<Integer, HashSet<Integer>> hashMap, int nodeIndex) {
-        return hashMap.get(nodeIndex);
+    /** Compacts the edges into a CSR graph from each node to its parents. */
+    public CsrGraph parentsToCsr() {
+        return CsrGraph.of(nodeCount, edgeChildren, edgeParents, edgeCount);
     }
 
-    public HashMap<Integer, HashSet<Integer>> getAdjList() {
-        return adjList;
+    /** Compacts the node values into a CSR "graph" from each node index to the ids of its words. */
+    public CsrGraph nodeValuesToCsr() {
+        return CsrGraph.of(Arrays.copyOf(nodeWords, nodeCount));
     }
 
-    public HashMap<Integer, HashSet<Integer>> getPredHM() {
-        return predHM;
+    /**
+     * Compacts the node values into a CSR "graph" from each word id (below wordCount) to the
+     * indexes of the nodes containing that word.
+     */
+    public CsrGraph nodeIndexesToCsr(int wordCount) {
+        int[][] values = Arrays.copyOf(nodeWords, nodeCount);
+        int pairs = 0;
+        for (int[] value : values) {
+            pairs += value == null ? 0 : value.length;
+        }
+        int[] wordIds = new int[pairs];
+        int[] indexes = new int[pairs];
+        int pair = 0;
+        for (int index = 0; index < values.length; index++) {
+            if (values[index] != null) {
+                for (int wordId : values[index]) {
+                    wordIds[pair] = wordId;
+                    indexes[pair] = index;
+                    pair += 1;
+                }
+            }
+        }
+        return CsrGraph.of(wordCount, wordIds, indexes, pairs);
     }
 }
@@ -0,0 +1,281 @@
+package graph;
+
+import snapshot.SnapshotFiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Precomputed closures (every node reachable from a node, itself included) for as many nodes
+ * of a CsrGraph as fit in a memory budget. The graph never changes once loaded, so the closures
+ * can be worked out once at startup, or read back from a file written earlier.
+ *
+ * Each covered node's closure is stored in whichever form is smaller: a plain bitmap over all
+ * nodes (one bit per node, O(1) membership) or a sorted array of node indexes (4 bytes per
+ * member, binary-search membership), the same trade-off Roaring bitmaps make per container.
+ * Nodes with the largest closures are covered first, since those are the most expensive to
+ * traverse. Queries about nodes that aren't covered fall back to a traversal, which still
+ * stops early at any covered node it meets.
+ *
+ * The index never changes once built, and each thread traverses with its own scratch space,
+ * so it can be queried from any number of threads at once.
+ */
+public final class ReachabilityIndex {
+    // "REAC", followed by the format version
+    private static final int FILE_MAGIC = 0x52454143;
+    private static final int FILE_VERSION = 2;
+
+    // each thread's working memory for isReachable, reused across queries
+    private final ThreadLocal<Scratch> scratch;
+
+    private final CsrGraph graph;
+    // for each node, at most one of these is non-null
+    private final long[][] bitmaps;
+    private final int[][] members;
+    private final long bytes;
+
+    private ReachabilityIndex(CsrGraph graph, long[][] bitmaps, int[][] members, long bytes) {
+        this.graph = graph;
+        this.bitmaps = bitmaps;
+        this.members = members;
+        this.bytes = bytes;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(graph.nodeCount()));
+    }
+
+    private static final class Scratch {
+        final BitSet visited;
+        int[] stack = new int[64];
+
+        Scratch(int nodeCount) {
+            visited = new BitSet(nodeCount);
+        }
+    }
+
+    /** Builds an index for GRAPH that uses at most BUDGETBYTES for the stored closures. */
+    public static ReachabilityIndex build(CsrGraph graph, long budgetBytes) {
+        int n = graph.nodeCount();
+        long bitmapBytes = (long) ((n + 63) / 64) * Long.BYTES;
+
+        // one traversal per node to learn how big each closure is
+        int[] sizes = new int[n];
+        BitSet visited = new BitSet(n);
+        int[] stack = new int[Math.max(n, 1)];
+        for (int v = 0; v < n; v++) {
+            visited.clear();
+            sizes[v] = traverse(graph, v, visited, stack);
+        }
+
+        Integer[] order = new Integer[n];
+        for (int v = 0; v < n; v++) {
+            order[v] = v;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(sizes[b], sizes[a]));
+
+        long[][] bitmaps = new long[n][];
+        int[][] members = new int[n][];
+        long used = 0;
+        for (int v : order) {
+            long arrayBytes = (long) sizes[v] * Integer.BYTES;
+            long cost = Math.min(arrayBytes, bitmapBytes);
+            if (used + cost > budgetBytes) {
+                continue;
+            }
+            visited.clear();
+            traverse(graph, v, visited, stack);
+            if (bitmapBytes <= arrayBytes) {
+                bitmaps[v] = Arrays.copyOf(visited.toLongArray(), (n + 63) / 64);
+            } else {
+                members[v] = visited.stream().toArray();
+            }
+            used += cost;
+        }
+        return new ReachabilityIndex(graph, bitmaps, members, used);
+    }
+
+    /** Marks every node reachable from START in VISITED, returning how many there are. */
+    private static int traverse(CsrGraph graph, int start, BitSet visited, int[] stack) {
+        int size = 0;
+        int count = 1;
+        stack[size++] = start;
+        visited.set(start);
+        while (size > 0) {
+            int node = stack[--size];
+            for (int i = graph.start(node); i < graph.end(node); i++) {
+                int next = graph.target(i);
+                if (!visited.get(next)) {
+                    visited.set(next);
+                    stack[size++] = next;
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Returns true if the closure of NODE is stored in this index. */
+    public boolean covers(int node) {
+        return bitmaps[node] != null || members[node] != null;
+    }
+
+    /** Returns the number of bytes used by the stored closures. */
+    public long sizeInBytes() {
+        return bytes;
+    }
+
+    /** Returns true if TO can be reached from FROM (every node reaches itself). */
+    public boolean isReachable(int from, int to) {
+        if (covers(from)) {
+            return coveredContains(from, to);
+        }
+        Scratch local = scratch.get();
+        BitSet visited = local.visited;
+        visited.clear();
+        int[] stack = local.stack;
+        int size = 0;
+        stack[size++] = from;
+        visited.set(from);
+        while (size > 0) {
+            int node = stack[--size];
+            if (node == to) {
+                return true;
+            }
+            if (node != from && covers(node)) {
+                if (coveredContains(node, to)) {
+                    return true;
+                }
+                continue; // nothing below node can reach to either
+            }
+            for (int i = graph.start(node); i < graph.end(node); i++) {
+                int next = graph.target(i);
+                if (!visited.get(next)) {
+                    visited.set(next);
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                        local.stack = stack;
+                    }
+                    stack[size++] = next;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean coveredContains(int node, int target) {
+        if (bitmaps[node] != null) {
+            return (bitmaps[node][target >>> 6] & (1L << target)) != 0;
+        }
+        return Arrays.binarySearch(members[node], target) >= 0;
+    }
+
+    /**
+     * Adds the closure of NODE to RESULT if it is stored in this index, and returns whether it
+     * was. RESULT must cover all nodes of the graph.
+     */
+    public boolean addClosureTo(int node, BitSet result) {
+        if (bitmaps[node] != null) {
+            result.or(BitSet.valueOf(bitmaps[node]));
+            return true;
+        }
+        if (members[node] != null) {
+            for (int member : members[node]) {
+                result.set(member);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the stored closures to PATH, to be read back with read(). The file is replaced
+     * atomically, so a reader never sees a half-written index.
+     */
+    public void write(Path path) throws IOException {
+        SnapshotFiles.writeAtomically(path, this::writeTo);
+    }
+
+    private void writeTo(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(graph.nodeCount());
+            out.writeInt(graph.edgeCount());
+            out.writeLong(graph.checksum());
+            out.writeLong(bytes);
+            for (int v = 0; v < bitmaps.length; v++) {
+                if (bitmaps[v] != null) {
+                    out.writeByte(1);
+                    for (long word : bitmaps[v]) {
+                        out.writeLong(word);
+                    }
+                } else if (members[v] != null) {
+                    out.writeByte(2);
+                    out.writeInt(members[v].length);
+                    for (int member : members[v]) {
+                        out.writeInt(member);
+                    }
+                } else {
+                    out.writeByte(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by write() for GRAPH. Throws an IOException if the file was written
+     * for a different graph (even one with as many nodes and edges), or is truncated or corrupt.
+     */
+    public static ReachabilityIndex read(Path path, CsrGraph graph) throws IOException {
+        return SnapshotFiles.read(path, file -> readFrom(file, graph));
+    }
+
+    private static ReachabilityIndex readFrom(Path path, CsrGraph graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException(path + " is not a reachability index");
+            }
+            if (in.readInt() != graph.nodeCount() || in.readInt() != graph.edgeCount()
+                    || in.readLong() != graph.checksum()) {
+                throw new IOException(path + " was built for a different graph");
+            }
+            long bytes = in.readLong();
+            int n = graph.nodeCount();
+            long[][] bitmaps = new long[n][];
+            int[][] members = new int[n][];
+            for (int v = 0; v < n; v++) {
+                byte kind = in.readByte();
+                if (kind == 1) {
+                    bitmaps[v] = new long[(n + 63) / 64];
+                    for (int i = 0; i < bitmaps[v].length; i++) {
+                        bitmaps[v][i] = in.readLong();
+                    }
+                } else if (kind == 2) {
+                    int size = in.readInt();
+                    if (size < 0 || size > n) {
+                        throw new IOException(path + " is corrupt: node " + v + " has " + size + " members");
+                    }
+                    members[v] = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        members[v][i] = in.readInt();
+                        // isReachable binary-searches the members, so they must be valid and sorted
+                        if (members[v][i] < 0 || members[v][i] >= n || (i > 0 && members[v][i] <= members[v][i - 1])) {
+                            throw new IOException(path + " is corrupt: the members of node " + v + " are out of order");
+                        }
+                    }
+                } else if (kind != 0) {
+                    throw new IOException(path + " is corrupt: unknown kind " + kind + " for node " + v);
+                }
+            }
+            if (in.read() != -1) {
+                throw new IOException(path + " is corrupt: it goes on past the last node");
+            }
+            return new ReachabilityIndex(graph, bitmaps, members, bytes);
+        }
+    }
+}
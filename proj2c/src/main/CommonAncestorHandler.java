@@ -0,0 +1,38 @@
+package main;
+
+import browser.NgordnetQuery;
+import browser.NgordnetQueryHandler;
+import wordnet.AncestralPath;
+import wordnet.WordNet;
+
+import java.util.List;
+
+/**
+ * Answers COMMON_ANCESTOR queries: the closest common ancestor(s) of the first two words,
+ * e.g. "[animal] (path length 4)". Returns "[]" if there are fewer than two words or they
+ * share no ancestor.
+ */
+public class CommonAncestorHandler extends NgordnetQueryHandler {
+    private final WordNet wordNet;
+
+    public CommonAncestorHandler(WordNet wordNet) {
+        this.wordNet = wordNet;
+    }
+
+    @Override
+    public String handle(NgordnetQuery q) {
+        return describe(wordNet, q.words());
+    }
+
+    /** Looks up the closest common ancestor of the first two of WORDS and formats the answer. */
+    static String describe(WordNet wordNet, List<String> words) {
+        if (words.size() < 2) {
+            return "[]";
+        }
+        AncestralPath path = wordNet.shortestAncestralPath(words.get(0), words.get(1));
+        if (path.length() < 0) {
+            return "[]";
+        }
+        return "[" + String.join(", ", path.ancestors()) + "] (path length " + path.length() + ")";
+    }
+}
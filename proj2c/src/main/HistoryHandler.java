@@ -2,18 +2,30 @@ package main;
 
 import browser.NgordnetQuery;
 import browser.NgordnetQueryHandler;
+import metrics.Metrics;
+import metrics.StageTimer;
+import metrics.Timer;
 import ngrams.NGramMap;
-import ngrams.TimeSeries;
+import ngrams.TimeSeriesView;
 import org.knowm.xchart.XYChart;
+import plotting.ChartFormat;
 import plotting.Plotter;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class HistoryHandler extends NgordnetQueryHandler {
+    private static final StageTimer SERIES_TIMER = Metrics.stage("series");
     private NGramMap nGramMap;
+    private final ChartFormat format;
     public HistoryHandler(NGramMap map) {
+        this(map, ChartFormat.PNG);
+    }
+
+    /** Constructs a handler that answers with a chart in the given FORMAT. */
+    public HistoryHandler(NGramMap map, ChartFormat format) {
         nGramMap = map;
+        this.format = format;
     }
 
     @Override
@@ -21,9 +33,17 @@ public class HistoryHandler extends NgordnetQueryHandler {
         List<String> words = q.words();
         int startYear = q.startYear();
         int endYear = q.endYear();
-        ArrayList<TimeSeries> lts = new ArrayList<>();
-        for (String word : words) {
-            lts.add(this.nGramMap.weightHistory(word, startYear, endYear));
+        ArrayList<TimeSeriesView> lts = new ArrayList<>();
+        Timer.Sample seriesSample = SERIES_TIMER.time();
+        try {
+            for (String word : words) {
+                lts.add(this.nGramMap.weightView(word, startYear, endYear));
+            }
+        } finally {
+            seriesSample.stop();
+        }
+        if (format == ChartFormat.JSON) {
+            return Plotter.encodeSeriesAsJson(words, lts);
         }
         XYChart chart = Plotter.generateTimeSeriesChart(words, lts);
         return Plotter.encodeChartAsString(chart);
@@ -2,11 +2,15 @@ package main;
 
 import browser.NgordnetQuery;
 import browser.NgordnetQueryHandler;
+import metrics.Metrics;
+import metrics.StageTimer;
+import metrics.Timer;
 import ngrams.NGramMap;
 
 import java.util.List;
 
 public class HistoryTextHandler extends NgordnetQueryHandler {
+    private static final StageTimer SERIES_TIMER = Metrics.stage("series");
     private final NGramMap nGramMap;
 
     public HistoryTextHandler(NGramMap map) {
@@ -19,10 +23,15 @@ public class HistoryTextHandler extends NgordnetQueryHandler {
         int startYear = q.startYear();
         int endYear = q.endYear();
         StringBuilder response = new StringBuilder();
-        for (String word: words) {
-            response.append(word).append(": ").
-                    append(this.nGramMap.weightHistory(word, startYear, endYear)).
-                    append("\n");
+        Timer.Sample seriesSample = SERIES_TIMER.time();
+        try {
+            for (String word: words) {
+                response.append(word).append(": ").
+                        append(this.nGramMap.weightView(word, startYear, endYear)).
+                        append("\n");
+            }
+        } finally {
+            seriesSample.stop();
         }
         return response.toString();
     }
@@ -2,22 +2,44 @@ package main;
 
 import browser.NgordnetQuery;
 import browser.NgordnetQueryHandler;
+import metrics.Metrics;
+import metrics.StageTimer;
+import metrics.Timer;
 import ngrams.NGramMap;
-import ngrams.TimeSeries;
+import ngrams.TimeSeriesView;
 import org.knowm.xchart.XYChart;
+import plotting.ChartFormat;
 import plotting.Plotter;
 import wordnet.WordNet;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class HypohistHandler extends NgordnetQueryHandler {
+    private static final StageTimer SERIES_TIMER = Metrics.stage("series");
     private final WordNet wordNet;
     private final NGramMap nGramMap;
+    // where multi-word queries fan out, and how many threads one query may use
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final ChartFormat format;
 
     public HypohistHandler(WordNet wordNet, NGramMap nGramMap) {
+        this(wordNet, nGramMap, null, 1, ChartFormat.PNG);
+    }
+
+    /**
+     * Constructs a handler that runs each query on at most PARALLELISM threads of POOL, and
+     * answers with a chart in the given FORMAT.
+     */
+    public HypohistHandler(WordNet wordNet, NGramMap nGramMap, ForkJoinPool pool, int parallelism,
+                           ChartFormat format) {
         this.wordNet = wordNet;
         this.nGramMap = nGramMap;
+        this.pool = pool;
+        this.parallelism = parallelism;
+        this.format = format;
     }
     @Override
     public String handle(NgordnetQuery q) {
@@ -30,13 +52,21 @@ public class HypohistHandler extends NgordnetQueryHandler {
         }
         List<String> results = wordNet.getTopKHOrAForListOfWords(
                 words, startYear, endYear, k,
-                nGramMap, wordNet.getGraph().getAdjList()
+                nGramMap, wordNet.getHyponymGraph(), pool, parallelism
         );
-        ArrayList<TimeSeries> lts = new ArrayList<>();
-        for (String result : results) {
-            lts.add(this.nGramMap.weightHistory(result, startYear, endYear));
+        ArrayList<TimeSeriesView> lts = new ArrayList<>();
+        Timer.Sample seriesSample = SERIES_TIMER.time();
+        try {
+            for (String result : results) {
+                lts.add(this.nGramMap.weightView(result, startYear, endYear));
+            }
+        } finally {
+            seriesSample.stop();
         }
 
+        if (format == ChartFormat.JSON) {
+            return Plotter.encodeSeriesAsJson(results, lts);
+        }
         XYChart chart = Plotter.generateTimeSeriesChart(results, lts);
         return Plotter.encodeChartAsString(chart);
     }
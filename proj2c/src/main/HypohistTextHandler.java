@@ -6,14 +6,25 @@ import ngrams.NGramMap;
 import wordnet.WordNet;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class HypohistTextHandler extends NgordnetQueryHandler {
     private final WordNet wordNet;
     private final NGramMap nGramMap;
+    // where multi-word queries fan out, and how many threads one query may use
+    private final ForkJoinPool pool;
+    private final int parallelism;
 
     public HypohistTextHandler(WordNet wordNet, NGramMap nGramMap) {
+        this(wordNet, nGramMap, null, 1);
+    }
+
+    /** Constructs a handler that runs each query on at most PARALLELISM threads of POOL. */
+    public HypohistTextHandler(WordNet wordNet, NGramMap nGramMap, ForkJoinPool pool, int parallelism) {
         this.wordNet = wordNet;
         this.nGramMap = nGramMap;
+        this.pool = pool;
+        this.parallelism = parallelism;
     }
     @Override
     public String handle(NgordnetQuery q) {
@@ -26,12 +37,12 @@ public class HypohistTextHandler extends NgordnetQueryHandler {
         }
         List<String> results = wordNet.getTopKHOrAForListOfWords(
                 words, startYear, endYear, k,
-                nGramMap, wordNet.getGraph().getAdjList()
+                nGramMap, wordNet.getHyponymGraph(), pool, parallelism
         );
         StringBuilder response = new StringBuilder();
         for (String result : results) {
             response.append(result).append(": ").
-                    append(this.nGramMap.weightHistory(result, startYear, endYear)).
+                    append(this.nGramMap.weightView(result, startYear, endYear)).
                     append("\n");
         }
         return response.toString();
@@ -7,13 +7,24 @@ import ngrams.NGramMap;
 import wordnet.WordNet;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class HyponymsHandler extends NgordnetQueryHandler {
     private final WordNet wordNet;
     private final NGramMap nGramMap;
+    // where multi-word queries fan out, and how many threads one query may use
+    private final ForkJoinPool pool;
+    private final int parallelism;
     public HyponymsHandler(WordNet wordNet, NGramMap nGramMap) {
+        this(wordNet, nGramMap, null, 1);
+    }
+
+    /** Constructs a handler that runs each query on at most PARALLELISM threads of POOL. */
+    public HyponymsHandler(WordNet wordNet, NGramMap nGramMap, ForkJoinPool pool, int parallelism) {
         this.wordNet = wordNet;
         this.nGramMap = nGramMap;
+        this.pool = pool;
+        this.parallelism = parallelism;
     }
 
     @Override
@@ -23,17 +34,20 @@ public class HyponymsHandler extends NgordnetQueryHandler {
         int endYear = q.endYear();
         int k = q.k();
         NgordnetQueryType type = q.ngordnetQueryType();
+        if (type == NgordnetQueryType.COMMON_ANCESTOR) {
+            return CommonAncestorHandler.describe(wordNet, words);
+        }
         List<String> response;
         // different mode below
         if (type == NgordnetQueryType.HYPONYMS) {
             response = wordNet.getTopKHOrAForListOfWords(
                     words, startYear, endYear, k,
-                    nGramMap, wordNet.getGraph().getAdjList()
+                    nGramMap, wordNet.getHyponymGraph(), pool, parallelism
             );
         } else {
             response = wordNet.getTopKHOrAForListOfWords(
                     words, startYear, endYear, k,
-                    nGramMap, wordNet.getGraph().getPredHM()
+                    nGramMap, wordNet.getHypernymGraph(), pool, parallelism
             );
         }
         return "[" + String.join(", ", response) + "]";
@@ -1,32 +1,296 @@
 package main;
 
+import browser.CachingQueryHandler;
+import browser.NgordnetQuery;
+import browser.NgordnetQueryType;
 import browser.NgordnetServer;
+import browser.RouteLimits;
+import graph.CsrGraph;
+import graph.ReachabilityIndex;
+import metrics.Metrics;
 import ngrams.NGramMap;
 import org.slf4j.LoggerFactory;
+import plotting.ChartFormat;
 import wordnet.WordNet;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
 public class Main {
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String APPLIED = "applied";
+
     static {
         LoggerFactory.getLogger(Main.class).info("\033[1;38mChanging text color to white");
     }
     public static void main(String[] args) {
-        NgordnetServer hns = new NgordnetServer();
+        // e.g. -Dngordnet.virtualThreads=true to run the handlers of limited routes on virtual threads
+        NgordnetServer hns = new NgordnetServer(Boolean.getBoolean("ngordnet.virtualThreads"));
 
         String wordFile = "./data/ngrams/top_14377_words.csv";
         String countFile = "./data/ngrams/total_counts.csv";
-        NGramMap ngm = new NGramMap(wordFile, countFile);
+        String snapshotFile = "./data/ngrams/top_14377_words.ngrams";
+        // e.g. -Dngordnet.deltaDir=./data/ngrams/deltas to merge *.delta count files dropped there into the live data
+        String deltaDir = System.getProperty("ngordnet.deltaDir");
+        NGramMap ngm = loadNGramMap(wordFile, countFile, snapshotFile, deltaDir == null ? null : Path.of(deltaDir));
+        if (deltaDir != null) {
+            watchDeltas(ngm, Path.of(deltaDir), Path.of(snapshotFile), Long.getLong("ngordnet.deltaPollSeconds", 60));
+        }
 
         String synsetFile = "./data/wordnet/synsets.txt";
         String hyponymFile = "./data/wordnet/hyponyms.txt";
-        WordNet wordNet = new WordNet(synsetFile, hyponymFile);
+        String wordNetSnapshotFile = "./data/wordnet/wordnet.snapshot";
+        WordNet wordNet = loadWordNet(synsetFile, hyponymFile, wordNetSnapshotFile);
+        // e.g. -Dngordnet.reachabilityBudgetMB=64 to precompute closures at startup
+        long budgetMB = Long.getLong("ngordnet.reachabilityBudgetMB", 0);
+        if (budgetMB > 0) {
+            wordNet.useReachabilityIndexes(
+                    loadReachabilityIndex(wordNet.getHyponymGraph(), budgetMB, hyponymFile, "./data/wordnet/hyponyms.reach"),
+                    loadReachabilityIndex(wordNet.getHypernymGraph(), budgetMB, hyponymFile, "./data/wordnet/hypernyms.reach"));
+        }
+
+        // multi-word hyponym queries share the common pool, each using at most this many threads
+        ForkJoinPool queryPool = ForkJoinPool.commonPool();
+        int queryParallelism = Integer.getInteger("ngordnet.queryParallelism", 4);
+
+        // every route has a response cache of its own this size, e.g. -Dngordnet.responseCacheMBPerRoute=16
+        // and -Dngordnet.responseCacheEntriesPerRoute=50000; it is looked up before the route's limits,
+        // so a cached answer never waits for a turn; history answers depend on word order (legend
+        // order), hyponym answers don't, except for common ancestor queries (only the first two words count)
+        long cacheBytes = Long.getLong("ngordnet.responseCacheMBPerRoute", 8) << 20;
+        int cacheEntries = Integer.getInteger("ngordnet.responseCacheEntriesPerRoute", 10_000);
+        Predicate<NgordnetQuery> orderAlwaysMatters = q -> true;
+        Predicate<NgordnetQuery> orderMattersForCommonAncestor =
+                q -> q.ngordnetQueryType() == NgordnetQueryType.COMMON_ANCESTOR;
+
+        // each route handles a limited number of requests at once, so a burst of expensive hyponym
+        // queries cannot hold every server thread; hyponym routes are also cancelled after a while
+        int cores = Runtime.getRuntime().availableProcessors();
+        RouteLimits historyLimits = new RouteLimits(2 * cores, 16 * cores, 2000, 0);
+        RouteLimits hyponymLimits = new RouteLimits(cores, 4 * cores, 2000, 10_000);
 
         hns.startUp();
-        hns.register("history", new HistoryHandler(ngm));
-        hns.register("historytext", new HistoryTextHandler(ngm));
-        hns.register("hypohist", new HypohistHandler(wordNet, ngm));
-        hns.register("hypohisttext", new HypohistTextHandler(wordNet, ngm));
-        hns.register("hyponyms", new HyponymsHandler(wordNet, ngm));
+        hns.register("history", new CachingQueryHandler(
+                new HistoryHandler(ngm), orderAlwaysMatters, cacheEntries, cacheBytes, ngm::version),
+                routeLimits("history", historyLimits));
+        hns.register("historytext", new CachingQueryHandler(
+                new HistoryTextHandler(ngm), orderAlwaysMatters, cacheEntries, cacheBytes, ngm::version),
+                routeLimits("historytext", historyLimits));
+        hns.register("hypohist", new CachingQueryHandler(
+                new HypohistHandler(wordNet, ngm, queryPool, queryParallelism, ChartFormat.PNG),
+                orderMattersForCommonAncestor, cacheEntries, cacheBytes, ngm::version),
+                routeLimits("hypohist", hyponymLimits));
+        hns.register("hypohisttext", new CachingQueryHandler(
+                new HypohistTextHandler(wordNet, ngm, queryPool, queryParallelism),
+                orderMattersForCommonAncestor, cacheEntries, cacheBytes, ngm::version),
+                routeLimits("hypohisttext", hyponymLimits));
+        hns.register("hyponyms", new CachingQueryHandler(
+                new HyponymsHandler(wordNet, ngm, queryPool, queryParallelism),
+                orderMattersForCommonAncestor, cacheEntries, cacheBytes, ngm::version),
+                routeLimits("hyponyms", hyponymLimits));
+        // the same charts as plain series, for the browser to draw itself
+        hns.register("historyjson", new CachingQueryHandler(
+                new HistoryHandler(ngm, ChartFormat.JSON), orderAlwaysMatters, cacheEntries, cacheBytes, ngm::version),
+                routeLimits("historyjson", historyLimits));
+        hns.register("hypohistjson", new CachingQueryHandler(
+                new HypohistHandler(wordNet, ngm, queryPool, queryParallelism, ChartFormat.JSON),
+                orderMattersForCommonAncestor, cacheEntries, cacheBytes, ngm::version),
+                routeLimits("hypohistjson", hyponymLimits));
+        hns.register("commonancestor", new CachingQueryHandler(
+                new CommonAncestorHandler(wordNet), orderAlwaysMatters, cacheEntries, cacheBytes, () -> 0),
+                routeLimits("commonancestor", historyLimits));
+        // any number of queries to the routes above in one POST, answered as newline-delimited JSON;
+        // the batch timeout is per query: a batch is not timed out as a whole, since its answers
+        // are already streaming out
+        hns.registerBatch("batch", Integer.getInteger("ngordnet.batchParallelism", cores), 10_000,
+                routeLimits("batch", new RouteLimits(2, 4, 2000, 10_000)));
+        // -Dngordnet.metrics=true adds request and stage timers to what this lists
+        Metrics.counter("ngordnet_weight_cache_hits_total", "Weight series served from the NGramMap weight cache",
+                null, null, ngm::weightCacheHits);
+        Metrics.counter("ngordnet_weight_cache_misses_total", "Weight series the NGramMap had to normalize",
+                null, null, ngm::weightCacheMisses);
+        hns.registerMetrics("metrics");
 
         System.out.println("Finished server startup! Visit http://localhost:4567/ngordnet.html");
     }
+
+    /**
+     * Returns the limits for ROUTE: DEFAULTS, each of which can be overridden with a system
+     * property, e.g. -Dngordnet.hyponyms.maxConcurrent=2 (also maxQueued, queueTimeoutMs and timeoutMs).
+     */
+    private static RouteLimits routeLimits(String route, RouteLimits defaults) {
+        String prefix = "ngordnet." + route + ".";
+        return new RouteLimits(
+                Integer.getInteger(prefix + "maxConcurrent", defaults.maxConcurrent()),
+                Integer.getInteger(prefix + "maxQueued", defaults.maxQueued()),
+                Long.getLong(prefix + "queueTimeoutMs", defaults.queueTimeoutMillis()),
+                Long.getLong(prefix + "timeoutMs", defaults.timeoutMillis()));
+    }
+
+    /**
+     * Memory-maps the NGramMap snapshot if it is newer than both text files. Otherwise parses
+     * the text files, merges the deltas already applied from DELTADIR (if not null) back in,
+     * in the order they were first applied, and (re)writes the snapshot for the next start.
+     * Throws an IllegalStateException if one of those deltas can no longer be merged, rather
+     * than starting without its rows.
+     */
+    private static NGramMap loadNGramMap(String wordFile, String countFile, String snapshotFile, Path deltaDir) {
+        File snapshot = new File(snapshotFile);
+        long textModified = Math.max(new File(wordFile).lastModified(), new File(countFile).lastModified());
+        if (snapshot.exists() && snapshot.lastModified() >= textModified) {
+            try {
+                return NGramMap.openSnapshot(snapshot.toPath());
+            } catch (IOException e) {
+                System.out.println("Could not open " + snapshotFile + ", re-reading the text files");
+            }
+        }
+        NGramMap ngm = new NGramMap(wordFile, countFile);
+        if (deltaDir != null) {
+            List<Path> applied;
+            try {
+                applied = listDeltas(deltaDir.resolve(APPLIED));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not list the deltas applied before in " + deltaDir, e);
+            }
+            for (Path delta : applied) {
+                try {
+                    ngm.ingest(delta);
+                } catch (RuntimeException e) {
+                    throw new IllegalStateException("Could not merge " + delta + " again after re-reading "
+                            + wordFile + "; fix or remove it and restart", e);
+                }
+            }
+        }
+        try {
+            ngm.writeSnapshot(snapshot.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return ngm;
+    }
+
+    /**
+     * Returns the finished delta files in DIR, in name order: those named *.delta, and not
+     * hidden. An empty list if DIR does not exist.
+     */
+    private static List<Path> listDeltas(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.endsWith(DELTA_SUFFIX) && !name.startsWith(".") && Files.isRegularFile(file);
+            }).sorted().toList();
+        }
+    }
+
+    /**
+     * Every POLLSECONDS, merges the delta files in DELTADIR into NGM in name order (see
+     * NGramMap.ingest) and moves each one into DELTADIR/applied, or DELTADIR/failed if it
+     * could not be read. Then rewrites the snapshot at SNAPSHOT, so the next start has the
+     * merged data too.
+     *
+     * Only files named *.delta are picked up, so a delta must be written under another name
+     * (e.g. rows.delta.tmp) and renamed once it is complete; a file still being copied in is
+     * never merged half-way. Applied files get the time they were merged as a name prefix, so
+     * their names sort in the order they were applied.
+     */
+    private static void watchDeltas(NGramMap ngm, Path deltaDir, Path snapshot, long pollSeconds) {
+        ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("ngordnet-deltas").daemon().factory());
+        poller.scheduleWithFixedDelay(() -> ingestDeltas(ngm, deltaDir, snapshot),
+                pollSeconds, pollSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void ingestDeltas(NGramMap ngm, Path deltaDir, Path snapshot) {
+        List<Path> deltas;
+        try {
+            deltas = listDeltas(deltaDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        for (Path delta : deltas) {
+            String outcome = APPLIED;
+            try {
+                ngm.ingest(delta);
+            } catch (RuntimeException e) {
+                System.out.println("Could not merge " + delta + ": " + e.getMessage());
+                outcome = "failed";
+            }
+            try {
+                Path done = Files.createDirectories(deltaDir.resolve(outcome));
+                String name = String.format("%013d-%s", System.currentTimeMillis(), delta.getFileName());
+                Files.move(delta, done.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                // merging the same file again next time does no harm, its rows replace themselves
+                e.printStackTrace();
+            }
+        }
+        try {
+            ngm.writeSnapshot(snapshot);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Memory-maps the WordNet snapshot if it is newer than both text files. Otherwise parses
+     * the text files and (re)writes the snapshot for the next start.
+     */
+    private static WordNet loadWordNet(String synsetFile, String hyponymFile, String snapshotFile) {
+        File snapshot = new File(snapshotFile);
+        long textModified = Math.max(new File(synsetFile).lastModified(), new File(hyponymFile).lastModified());
+        if (snapshot.exists() && snapshot.lastModified() >= textModified) {
+            try {
+                return WordNet.openSnapshot(snapshot.toPath());
+            } catch (IOException e) {
+                System.out.println("Could not open " + snapshotFile + ", re-reading the text files");
+            }
+        }
+        WordNet wordNet = new WordNet(synsetFile, hyponymFile);
+        try {
+            wordNet.writeSnapshot(snapshot.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return wordNet;
+    }
+
+    /**
+     * Reads the reachability index for GRAPH from INDEXFILE if it is newer than the hyponyms
+     * file. Otherwise builds one using at most BUDGETMB megabytes and writes it for the next start.
+     */
+    private static ReachabilityIndex loadReachabilityIndex(CsrGraph graph, long budgetMB,
+                                                           String hyponymFile, String indexFile) {
+        File file = new File(indexFile);
+        if (file.exists() && file.lastModified() >= new File(hyponymFile).lastModified()) {
+            try {
+                return ReachabilityIndex.read(file.toPath(), graph);
+            } catch (IOException e) {
+                System.out.println("Could not read " + indexFile + ", rebuilding it");
+            }
+        }
+        ReachabilityIndex index = ReachabilityIndex.build(graph, budgetMB << 20);
+        try {
+            index.write(file.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return index;
+    }
 }
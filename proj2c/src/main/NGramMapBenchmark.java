@@ -0,0 +1,95 @@
+package main;
+
+import edu.princeton.cs.algs4.In;
+import ngrams.NGramMap;
+import ngrams.TimeSeries;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the memory footprint and query latency of the columnar NGramMap against the
+ * old layout of one TreeMap-backed TimeSeries per word.
+ *
+ * Usage: java main.NGramMapBenchmark [wordsFile] [countsFile] [queries]
+ */
+public class NGramMapBenchmark {
+    public static void main(String[] args) {
+        String wordFile = args.length > 0 ? args[0] : "./data/ngrams/top_14377_words.csv";
+        String countFile = args.length > 1 ? args[1] : "./data/ngrams/total_counts.csv";
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        long heapBefore = usedHeap();
+        HashMap<String, TimeSeries> treeLayout = loadTreeLayout(wordFile);
+        long treeHeap = usedHeap() - heapBefore;
+
+        heapBefore = usedHeap();
+        long directBefore = usedDirect();
+        NGramMap ngm = new NGramMap(wordFile, countFile);
+        long columnarHeap = usedHeap() - heapBefore;
+        long columnarDirect = usedDirect() - directBefore;
+
+        System.out.printf("TreeMap layout:  %,d bytes heap%n", treeHeap);
+        System.out.printf("Columnar layout: %,d bytes heap + %,d bytes off-heap%n",
+                columnarHeap, columnarDirect);
+
+        List<String> words = new ArrayList<>(treeLayout.keySet());
+        Random random = new Random(61);
+        String[] sample = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            sample[i] = words.get(random.nextInt(words.size()));
+        }
+
+        // run each side twice so the second round is measured after JIT warm-up
+        for (int round = 0; round < 2; round++) {
+            double sink = 0;
+            long start = System.nanoTime();
+            for (String word : sample) {
+                sink += new TimeSeries(treeLayout.get(word), 1900, 1950).size();
+            }
+            long treeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String word : sample) {
+                sink += ngm.countHistory(word, 1900, 1950).size();
+            }
+            long columnarNanos = System.nanoTime() - start;
+
+            System.out.printf("round %d: TreeMap %.1f ns/query, columnar %.1f ns/query (%s)%n",
+                    round, (double) treeNanos / queries, (double) columnarNanos / queries, sink);
+        }
+    }
+
+    /** Loads WORDFILE into the layout NGramMap used before it switched to columns. */
+    private static HashMap<String, TimeSeries> loadTreeLayout(String wordFile) {
+        HashMap<String, TimeSeries> wordsInfoHM = new HashMap<>();
+        In in = new In(wordFile);
+        while (in.hasNextLine()) {
+            String[] splitLine = in.readLine().split("\t");
+            wordsInfoHM.computeIfAbsent(splitLine[0], k -> new TimeSeries())
+                    .put(Integer.parseInt(splitLine[1]), Double.parseDouble(splitLine[2]));
+        }
+        return wordsInfoHM;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
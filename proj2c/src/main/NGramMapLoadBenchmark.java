@@ -0,0 +1,39 @@
+package main;
+
+import ngrams.NGramMap;
+
+/**
+ * Measures how NGramMap construction scales with the number of threads used to parse the
+ * words file, from 1 up to the number of available cores.
+ *
+ * Usage: java main.NGramMapLoadBenchmark [wordsFile] [countsFile] [repetitions]
+ */
+public class NGramMapLoadBenchmark {
+    public static void main(String[] args) {
+        String wordFile = args.length > 0 ? args[0] : "./data/ngrams/top_14377_words.csv";
+        String countFile = args.length > 1 ? args[1] : "./data/ngrams/total_counts.csv";
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // warm up the parser (and the page cache) before timing anything
+        new NGramMap(wordFile, countFile, cores);
+
+        double singleThreadMillis = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < repetitions; i++) {
+                long start = System.nanoTime();
+                new NGramMap(wordFile, countFile, threads);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            double millis = best / 1e6;
+            if (threads == 1) {
+                singleThreadMillis = millis;
+            }
+            System.out.printf("%2d threads: %8.1f ms (%.2fx)%n", threads, millis, singleThreadMillis / millis);
+            if (threads < cores && threads * 2 > cores) {
+                threads = cores / 2; // make sure the last round uses every core
+            }
+        }
+    }
+}
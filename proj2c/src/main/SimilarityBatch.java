@@ -0,0 +1,40 @@
+package main;
+
+import wordnet.SimilarityIndex;
+import wordnet.WordNet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scores word pairs in bulk: reads one pair per line from pairsFile and writes the path and
+ * Wu-Palmer similarity of each to scoresFile (see SimilarityIndex.scoreFile).
+ *
+ * Usage: java main.SimilarityBatch pairsFile scoresFile [synsetsFile] [hyponymsFile] [threads]
+ */
+public class SimilarityBatch {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java main.SimilarityBatch pairsFile scoresFile [synsetsFile] [hyponymsFile] [threads]");
+            return;
+        }
+        String synsetFile = args.length > 2 ? args[2] : "./data/wordnet/synsets.txt";
+        String hyponymFile = args.length > 3 ? args[3] : "./data/wordnet/hyponyms.txt";
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        SimilarityIndex index = new SimilarityIndex(new WordNet(synsetFile, hyponymFile));
+        System.out.printf("index: %.1f ms, %d ancestor entries%n", (System.nanoTime() - start) / 1e6,
+                index.ancestorEntries());
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            start = System.nanoTime();
+            index.scoreFile(Path.of(args[0]), Path.of(args[1]), pool);
+            System.out.printf("scored in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
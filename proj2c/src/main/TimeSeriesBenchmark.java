@@ -0,0 +1,60 @@
+package main;
+
+import ngrams.DenseTimeSeries;
+import ngrams.TimeSeries;
+
+import java.util.Random;
+
+/**
+ * Sums 10,000 random series (1900-2019, roughly 90% of years present) three ways: chained
+ * TimeSeries.plus, chained DenseTimeSeries.plus and DenseTimeSeries.plusInto one accumulator.
+ *
+ * Usage: java main.TimeSeriesBenchmark [seriesCount] [rounds]
+ */
+public class TimeSeriesBenchmark {
+    public static void main(String[] args) {
+        int seriesCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random random = new Random(61);
+        TimeSeries[] trees = new TimeSeries[seriesCount];
+        DenseTimeSeries[] denses = new DenseTimeSeries[seriesCount];
+        for (int i = 0; i < seriesCount; i++) {
+            trees[i] = new TimeSeries();
+            for (int year = 1900; year < 2020; year++) {
+                if (random.nextDouble() < 0.9) {
+                    trees[i].put(year, random.nextDouble());
+                }
+            }
+            denses[i] = DenseTimeSeries.of(trees[i]);
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            TimeSeries treeSum = new TimeSeries();
+            for (TimeSeries ts : trees) {
+                treeSum = treeSum.plus(ts);
+            }
+            long treeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            DenseTimeSeries denseSum = new DenseTimeSeries(1900, 2019);
+            for (DenseTimeSeries ts : denses) {
+                denseSum = denseSum.plus(ts);
+            }
+            long denseNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            DenseTimeSeries accumulator = new DenseTimeSeries(1900, 2019);
+            for (DenseTimeSeries ts : denses) {
+                accumulator.plusInto(ts);
+            }
+            long inPlaceNanos = System.nanoTime() - start;
+
+            System.out.printf("round %d: TimeSeries.plus %.2f ms, DenseTimeSeries.plus %.2f ms, "
+                            + "plusInto %.2f ms (check %.6f / %.6f / %.6f)%n",
+                    round, treeNanos / 1e6, denseNanos / 1e6, inPlaceNanos / 1e6,
+                    treeSum.get(1950), denseSum.get(1950), accumulator.get(1950));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package main;
+
+import graph.ReachabilityIndex;
+import wordnet.WordNet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times single-word and multi-word hyponym queries (WordNet.getHOrAForListOfWords). Multi-word
+ * queries use two ancestors of a random word, so their intersection is never empty. With a
+ * reachability budget above 0, closures are precomputed (ReachabilityIndex) before timing.
+ *
+ * Usage: java main.WordNetBenchmark [synsetsFile] [hyponymsFile] [queries] [reachabilityBudgetMB]
+ */
+public class WordNetBenchmark {
+    public static void main(String[] args) {
+        String synsetFile = args.length > 0 ? args[0] : "./data/wordnet/synsets.txt";
+        String hyponymFile = args.length > 1 ? args[1] : "./data/wordnet/hyponyms.txt";
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        long budgetMB = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        long start = System.nanoTime();
+        WordNet wordNet = new WordNet(synsetFile, hyponymFile);
+        System.out.printf("load: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        if (budgetMB > 0) {
+            start = System.nanoTime();
+            ReachabilityIndex hyponyms = ReachabilityIndex.build(wordNet.getHyponymGraph(), budgetMB << 20);
+            ReachabilityIndex hypernyms = ReachabilityIndex.build(wordNet.getHypernymGraph(), budgetMB << 20);
+            wordNet.useReachabilityIndexes(hyponyms, hypernyms);
+            System.out.printf("index: %.1f ms, %d + %d bytes%n", (System.nanoTime() - start) / 1e6,
+                    hyponyms.sizeInBytes(), hypernyms.sizeInBytes());
+        }
+
+        Random random = new Random(61);
+        int wordCount = wordNet.getDictionary().size();
+        List<List<String>> singleWord = new ArrayList<>();
+        List<List<String>> multiWord = new ArrayList<>();
+        for (int i = 0; i < queries; i++) {
+            String word = wordNet.getDictionary().word(random.nextInt(wordCount));
+            List<String> ancestors = new ArrayList<>(
+                    wordNet.getHOrAForSingleWord(wordNet.getHypernymGraph(), word));
+            singleWord.add(List.of(ancestors.get(random.nextInt(ancestors.size()))));
+            multiWord.add(List.of(ancestors.get(random.nextInt(ancestors.size())),
+                    ancestors.get(random.nextInt(ancestors.size()))));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("round %d: single-word %.1f us/query, two-word %.1f us/query, \"entity\" %.1f us%n",
+                    round, time(wordNet, singleWord), time(wordNet, multiWord),
+                    time(wordNet, List.of(List.of("entity"))));
+        }
+    }
+
+    /** Returns the average microseconds per query over QUERIES. */
+    private static double time(WordNet wordNet, List<List<String>> queries) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (List<String> query : queries) {
+            sink += wordNet.getHOrAForListOfWords(wordNet.getHyponymGraph(), query).size();
+        }
+        long nanos = System.nanoTime() - start;
+        if (sink < 0) {
+            System.out.println(sink);
+        }
+        return nanos / 1e3 / queries.size();
+    }
+}
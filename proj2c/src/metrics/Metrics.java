@@ -0,0 +1,247 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters and timers for the server, and their rendering in the Prometheus text format for
+ * the /metrics route.
+ *
+ * Timers only record when the JVM was started with -Dngordnet.metrics=true. ENABLED is a
+ * constant, so with metrics off timing compiles to next to nothing. Gauges and counters are
+ * read from their suppliers only when the metrics are scraped, so they are always on.
+ *
+ * Stage timers are labelled with the route being handled, which the server sets for the
+ * thread handling a request with routeLabel.
+ *
+ * Allocations are measured per thread, on the thread that starts and stops a sample. Work
+ * that a query hands to a pool is timed as part of the stage that waits for it, but the pool's
+ * allocations are not counted, and neither is anything done on a virtual thread.
+ */
+public final class Metrics {
+    /** Whether timers record anything; set with -Dngordnet.metrics=true. */
+    public static final boolean ENABLED = Boolean.getBoolean("ngordnet.metrics");
+
+    // histogram buckets exported: 2^10 ns (about a microsecond) up to 2^36 ns (about a minute)
+    private static final int MIN_BUCKET_POWER = 10;
+    private static final int MAX_BUCKET_POWER = 36;
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationMXBean();
+
+    /** All metrics with the same name and label names, one sample per list of label values. */
+    private record Family(String name, String help, String type, List<String> labelNames,
+                          Map<List<String>, Object> samples) {
+    }
+
+    // by name, in order of registration; guarded by Metrics.class
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    // the route whose request the current thread is handling, for the route label of stage timers
+    private static final ThreadLocal<String> ROUTE = ThreadLocal.withInitial(() -> "none");
+
+    /** Labels the stages timed on the current thread with a route until it is restored. */
+    public static final class RouteLabel {
+        private final String previous;
+
+        private RouteLabel(String previous) {
+            this.previous = previous;
+        }
+
+        /** Puts back the route the current thread had before this label. */
+        public void restore() {
+            ROUTE.set(previous);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMXBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated so far. Returns 0 if metrics
+     * are disabled or this JVM cannot tell, and -1 on a virtual thread.
+     */
+    static long allocatedBytes() {
+        if (!ENABLED || THREADS == null) {
+            return 0;
+        }
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Returns the timer exported as NAME_seconds and NAME_allocated_bytes_total, with label
+     * LABELNAME set to LABELVALUE, creating it if needed. WHAT describes the work timed, e.g.
+     * "handling requests, by route".
+     */
+    public static Timer timer(String name, String what, String labelName, String labelValue) {
+        return timer(name, what, labelNames(labelName), labelValues(labelName, labelValue));
+    }
+
+    private static synchronized Timer timer(String name, String what, List<String> labelNames,
+                                            List<String> labelValues) {
+        Family family = family(name, what, "histogram", labelNames);
+        return (Timer) family.samples().computeIfAbsent(labelValues, values -> new Timer());
+    }
+
+    /** Returns the timer of one stage of answering a query, e.g. "closures" or "png". */
+    public static StageTimer stage(String stage) {
+        return new StageTimer(stage);
+    }
+
+    /** Returns the timer of STAGE for ROUTE. */
+    static Timer stageTimer(String route, String stage) {
+        return timer("ngordnet_stage", "in each stage of answering a query, by route and stage",
+                List.of("route", "stage"), List.of(route, stage));
+    }
+
+    /**
+     * Labels every stage timed on the current thread with ROUTE, until the result is restored
+     * (when the previous route comes back). Restore it in a finally block around handling a
+     * request.
+     */
+    public static RouteLabel routeLabel(String route) {
+        RouteLabel label = new RouteLabel(ROUTE.get());
+        ROUTE.set(route);
+        return label;
+    }
+
+    /** Returns the route whose request the current thread is handling, or "none". */
+    static String currentRoute() {
+        return ROUTE.get();
+    }
+
+    /**
+     * Exports VALUE as the gauge NAME with label LABELNAME set to LABELVALUE (LABELNAME may be
+     * null for a gauge without labels). Registering the same gauge again replaces it.
+     */
+    public static synchronized void gauge(String name, String help, String labelName, String labelValue,
+                                          DoubleSupplier value) {
+        family(name, help, "gauge", labelNames(labelName)).samples().put(labelValues(labelName, labelValue), value);
+    }
+
+    /** Same as gauge, but for a count that only ever goes up. NAME should end in _total. */
+    public static synchronized void counter(String name, String help, String labelName, String labelValue,
+                                            DoubleSupplier value) {
+        family(name, help, "counter", labelNames(labelName)).samples().put(labelValues(labelName, labelValue), value);
+    }
+
+    private static List<String> labelNames(String labelName) {
+        return labelName == null ? List.of() : List.of(labelName);
+    }
+
+    private static List<String> labelValues(String labelName, String labelValue) {
+        return labelName == null ? List.of() : List.of(labelValue);
+    }
+
+    private static Family family(String name, String help, String type, List<String> labelNames) {
+        Family family = FAMILIES.computeIfAbsent(name,
+                key -> new Family(name, help, type, labelNames, new LinkedHashMap<>()));
+        if (!family.type().equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type());
+        }
+        if (!family.labelNames().equals(labelNames)) {
+            throw new IllegalArgumentException(name + " is already registered with labels " + family.labelNames());
+        }
+        return family;
+    }
+
+    /** Returns every metric in the Prometheus text exposition format. */
+    public static String scrape() {
+        return scrape(ENABLED);
+    }
+
+    /** Returns every metric in the Prometheus text exposition format, leaving out timers unless TIMERS. */
+    static synchronized String scrape(boolean timers) {
+        StringBuilder out = new StringBuilder();
+        for (Family family : FAMILIES.values()) {
+            if (family.type().equals("histogram")) {
+                if (timers) {
+                    writeTimers(out, family);
+                }
+                continue;
+            }
+            writeHeader(out, family.name(), family.help(), family.type());
+            for (Map.Entry<List<String>, Object> sample : family.samples().entrySet()) {
+                double value = ((DoubleSupplier) sample.getValue()).getAsDouble();
+                writeSample(out, family.name(), labels(family.labelNames(), sample.getKey(), null), value);
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeTimers(StringBuilder out, Family family) {
+        String seconds = family.name() + "_seconds";
+        writeHeader(out, seconds, "Time spent " + family.help(), "histogram");
+        for (Map.Entry<List<String>, Object> sample : family.samples().entrySet()) {
+            Timer timer = (Timer) sample.getValue();
+            for (int power = MIN_BUCKET_POWER; power <= MAX_BUCKET_POWER; power++) {
+                String le = Double.toString(Math.scalb(1.0, power) / 1e9);
+                writeSample(out, seconds + "_bucket", labels(family.labelNames(), sample.getKey(), le),
+                        timer.countAtMost(power));
+            }
+            long count = timer.count();
+            writeSample(out, seconds + "_bucket", labels(family.labelNames(), sample.getKey(), "+Inf"), count);
+            writeSample(out, seconds + "_sum", labels(family.labelNames(), sample.getKey(), null),
+                    timer.totalSeconds());
+            writeSample(out, seconds + "_count", labels(family.labelNames(), sample.getKey(), null), count);
+        }
+        String allocated = family.name() + "_allocated_bytes_total";
+        writeHeader(out, allocated, "Bytes allocated " + family.help(), "counter");
+        for (Map.Entry<List<String>, Object> sample : family.samples().entrySet()) {
+            writeSample(out, allocated, labels(family.labelNames(), sample.getKey(), null),
+                    ((Timer) sample.getValue()).allocatedBytes());
+        }
+    }
+
+    private static void writeHeader(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+                .append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Double.POSITIVE_INFINITY) {
+            out.append("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            out.append("-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /** Returns the label set {NAME1="VALUE1",...,le="LE"}, leaving out le if it is null. */
+    private static String labels(List<String> labelNames, List<String> labelValues, String le) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < labelNames.size(); i++) {
+            if (!labels.isEmpty()) {
+                labels.append(',');
+            }
+            labels.append(labelNames.get(i)).append("=\"").append(escape(labelValues.get(i))).append('"');
+        }
+        if (le != null) {
+            if (!labels.isEmpty()) {
+                labels.append(',');
+            }
+            labels.append("le=\"").append(le).append('"');
+        }
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,27 @@
+package metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times one stage of answering a query (e.g. "closures" or "png") with a separate Timer for
+ * each route, so the same stage of a cheap route and of an expensive one are not mixed up. The
+ * route is the one whose request the current thread is handling, as set by Metrics.routeLabel;
+ * work done outside of any request is recorded under the route "none".
+ */
+public final class StageTimer {
+    private final String stage;
+    // by route; the timers themselves are shared with every StageTimer of the same stage
+    private final ConcurrentHashMap<String, Timer> byRoute = new ConcurrentHashMap<>();
+
+    StageTimer(String stage) {
+        this.stage = stage;
+    }
+
+    /** Starts timing the stage for the current route; stop the result when it is done. */
+    public Timer.Sample time() {
+        if (!Metrics.ENABLED) {
+            return Timer.Sample.DISABLED;
+        }
+        return byRoute.computeIfAbsent(Metrics.currentRoute(), route -> Metrics.stageTimer(route, stage)).time();
+    }
+}
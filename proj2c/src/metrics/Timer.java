@@ -0,0 +1,104 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times one kind of work (a route, or a stage of a query) into a histogram, and adds up the
+ * bytes allocated while doing it. Get one from Metrics.timer (or a StageTimer from
+ * Metrics.stage), then:
+ *     Timer.Sample sample = TIMER.time();
+ *     try {
+ *         ...
+ *     } finally {
+ *         sample.stop();
+ *     }
+ * The work is recorded when the sample is stopped, however the block is left. When metrics are
+ * disabled time() returns a sample that records nothing, and allocates nothing.
+ *
+ * The histogram has one bucket per power of two nanoseconds, so any duration is recorded to
+ * within a factor of two with a single atomic increment and no allocation.
+ */
+public final class Timer {
+    // bucket i counts durations of (2^(i-1), 2^i] nanoseconds, bucket 0 durations of 0 and 1,
+    // so each bucket ends on the inclusive upper bound Prometheus expects of an le= label
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    /** One timing in progress, recorded when it is stopped. */
+    public static final class Sample {
+        static final Sample DISABLED = new Sample(null, 0, 0);
+
+        private final Timer timer;
+        private final long start;
+        private final long allocatedAtStart;
+
+        private Sample(Timer timer, long start, long allocatedAtStart) {
+            this.timer = timer;
+            this.start = start;
+            this.allocatedAtStart = allocatedAtStart;
+        }
+
+        /** Records the work timed since this sample was started. */
+        public void stop() {
+            if (timer != null) {
+                timer.stop(start, allocatedAtStart);
+            }
+        }
+    }
+
+    Timer() {
+    }
+
+    /** Starts timing work on the current thread; stop the result when the work is done. */
+    public Sample time() {
+        if (!Metrics.ENABLED) {
+            return Sample.DISABLED;
+        }
+        return new Sample(this, System.nanoTime(), Metrics.allocatedBytes());
+    }
+
+    /**
+     * Records the time since START, and the bytes the current thread allocated since
+     * ALLOCATEDATSTART (a value returned by Metrics.allocatedBytes).
+     */
+    private void stop(long start, long allocatedAtStart) {
+        record(System.nanoTime() - start);
+        long allocated = Metrics.allocatedBytes();
+        if (allocatedAtStart >= 0 && allocated >= allocatedAtStart) {
+            allocatedBytes.add(allocated - allocatedAtStart);
+        }
+    }
+
+    /** Records one duration of NANOS nanoseconds. */
+    void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(nanos <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1));
+        totalNanos.add(nanos);
+    }
+
+    /** Returns how many durations of at most 2^POWER nanoseconds were recorded. */
+    long countAtMost(int power) {
+        long count = 0;
+        for (int i = 0; i <= Math.min(power, 63); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /** Returns how many durations were recorded. */
+    long count() {
+        return countAtMost(63);
+    }
+
+    /** Returns the sum of all recorded durations, in seconds. */
+    double totalSeconds() {
+        return totalNanos.sum() / 1e9;
+    }
+
+    /** Returns the bytes allocated while timed, as far as they could be measured. */
+    long allocatedBytes() {
+        return allocatedBytes.sum();
+    }
+}
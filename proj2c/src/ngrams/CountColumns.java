@@ -0,0 +1,451 @@
+package ngrams;
+
+import dictionary.WordDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Columnar storage for the NGrams dataset. Every word owns a dense run of slots inside one
+ * shared DoubleBuffer arena, indexed by (year - first year of that word). Years that
+ * have no data are stored as NaN, so a word costs 8 bytes per year of its span instead of a
+ * boxed TreeMap entry per year.
+ *
+ * The per-year total counts are kept the same way in a single dense column.
+ *
+ * Instances are immutable once built. The arena is off-heap when built from the text files,
+ * and on the heap when it is the result of a merge (see merge). It can be written to a binary
+ * snapshot file and memory-mapped back in, in which case it is served straight from the OS
+ * page cache.
+ */
+final class CountColumns {
+
+    // "NGRM", followed by the format version
+    private static final int SNAPSHOT_MAGIC = 0x4E47524D;
+    private static final int SNAPSHOT_VERSION = 4;
+    // six ints and the long position of the arenas
+    private static final int SNAPSHOT_HEADER_BYTES = 6 * Integer.BYTES + Long.BYTES;
+
+    // the most slots one arena can hold: a direct buffer holds at most Integer.MAX_VALUE bytes
+    private static final int MAX_ARENA_SIZE = Integer.MAX_VALUE / Double.BYTES;
+
+    // maps a word to its dense id (the index into the per-word arrays below)
+    private final WordDictionary dictionary;
+
+    // the first year stored for each word, and where its run starts in the arena
+    private final int[] firstYears;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    // all the word runs back to back, NaN for years without data
+    private final DoubleBuffer arena;
+
+    // same layout as the arena; each slot holds the sum of the word's counts up to that year
+    private final DoubleBuffer cumulative;
+
+    // total number of words recorded per year, NaN for years without data
+    private final int totalsFirstYear;
+    private final double[] totals;
+
+    private CountColumns(WordDictionary dictionary, int[] firstYears, int[] offsets,
+                         int[] lengths, DoubleBuffer arena, DoubleBuffer cumulative,
+                         int totalsFirstYear, double[] totals) {
+        this.dictionary = dictionary;
+        this.firstYears = firstYears;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.arena = arena;
+        this.cumulative = cumulative;
+        this.totalsFirstYear = totalsFirstYear;
+        this.totals = totals;
+    }
+
+    /** Returns the id of WORD, or -1 if the word is not in the data files. */
+    int id(String word) {
+        return dictionary.id(word);
+    }
+
+    WordDictionary dictionary() {
+        return dictionary;
+    }
+
+    int wordCount() {
+        return firstYears.length;
+    }
+
+    int firstYear(int id) {
+        return firstYears[id];
+    }
+
+    int lastYear(int id) {
+        return firstYears[id] + lengths[id] - 1;
+    }
+
+    /** Returns the count of word ID in YEAR, or NaN if there is no data for that year. */
+    double count(int id, int year) {
+        int slot = year - firstYears[id];
+        if (slot < 0 || slot >= lengths[id]) {
+            return Double.NaN;
+        }
+        return arena.get(offsets[id] + slot);
+    }
+
+    /**
+     * Returns the sum of the counts of word ID between STARTYEAR and ENDYEAR, inclusive of both
+     * ends, in constant time.
+     */
+    double rangeSum(int id, int startYear, int endYear) {
+        int from = Math.max(startYear - firstYears[id], 0);
+        int to = Math.min(endYear - firstYears[id], lengths[id] - 1);
+        if (from > to) {
+            return 0;
+        }
+        double sum = cumulative.get(offsets[id] + to);
+        return from == 0 ? sum : sum - cumulative.get(offsets[id] + from - 1);
+    }
+
+    /** Returns the counts of word ID, without copying; slot 0 holds firstYear(ID). */
+    DoubleBuffer column(int id) {
+        return arena.slice(offsets[id], lengths[id]);
+    }
+
+    /** Returns the total count of all words in YEAR, or NaN if there is no data for that year. */
+    double total(int year) {
+        int slot = year - totalsFirstYear;
+        if (slot < 0 || slot >= totals.length) {
+            return Double.NaN;
+        }
+        return totals[slot];
+    }
+
+    int totalsFirstYear() {
+        return totalsFirstYear;
+    }
+
+    int totalsLastYear() {
+        return totalsFirstYear + totals.length - 1;
+    }
+
+    /** Returns the number of bytes used by the count and cumulative arenas. */
+    long arenaBytes() {
+        return 2L * arena.capacity() * Double.BYTES;
+    }
+
+    /**
+     * Writes these columns to PATH. The layout (all little-endian) is:
+     * a header (magic, version, word count, arena length, totals first year, totals length, and
+     * the position of the arenas in the file), the totals column, the firstYears/offsets/lengths
+     * arrays, the word dictionary, padding up to a multiple of 8 bytes, and finally the count
+     * arena followed by the cumulative arena.
+     *
+     * The arenas are mapped one at a time, each at its own position, so the whole file may be
+     * larger than the 2 GB a single mapping can hold.
+     */
+    void write(Path path) throws IOException {
+        int wordCount = wordCount();
+        long metaBytes = SNAPSHOT_HEADER_BYTES + (long) totals.length * Double.BYTES
+                + 3L * wordCount * Integer.BYTES + dictionary.encodedSize();
+        long arenaPosition = (metaBytes + 7) & ~7L;
+        if (arenaPosition > Integer.MAX_VALUE) {
+            throw new IOException("The header and dictionary of the snapshot would take " + arenaPosition
+                    + " bytes, more than the " + Integer.MAX_VALUE + " one mapping can hold");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, arenaPosition);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION);
+            out.putInt(wordCount).putInt(arena.capacity());
+            out.putInt(totalsFirstYear).putInt(totals.length);
+            out.putLong(arenaPosition);
+            for (double total : totals) {
+                out.putDouble(total);
+            }
+            for (int id = 0; id < wordCount; id++) {
+                out.putInt(firstYears[id]).putInt(offsets[id]).putInt(lengths[id]);
+            }
+            dictionary.writeTo(out);
+            out.force();
+            writeArena(channel, arenaPosition, arena);
+            writeArena(channel, arenaPosition + (long) arena.capacity() * Double.BYTES, cumulative);
+        }
+    }
+
+    /** Copies COLUMN into CHANNEL as little-endian doubles, starting at byte POSITION. */
+    private static void writeArena(FileChannel channel, long position, DoubleBuffer column) throws IOException {
+        MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                (long) column.capacity() * Double.BYTES);
+        DoubleBuffer doubles = out.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        for (int i = 0; i < column.capacity(); i++) {
+            doubles.put(i, column.get(i));
+        }
+        out.force();
+    }
+
+    /**
+     * Memory-maps a snapshot written by write(). Only the small header and the dictionary are
+     * decoded onto the heap; the arenas stay in the mapped file. The sizes in the header are
+     * checked against the file, so a truncated file is reported as an IOException. Use through
+     * SnapshotFiles.read, which does the same for whatever a corrupt dictionary makes it throw.
+     */
+    static CountColumns map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mappings stay valid after the channel is closed
+            long fileSize = channel.size();
+            if (fileSize < SNAPSHOT_HEADER_BYTES) {
+                throw new IOException(path + " is not an NGramMap snapshot");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_BYTES);
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException(path + " is not an NGramMap snapshot");
+            }
+            int wordCount = in.getInt();
+            int arenaSize = in.getInt();
+            int totalsFirstYear = in.getInt();
+            int totalsLength = in.getInt();
+            long arenaPosition = in.getLong();
+            long arenaBytes = (long) arenaSize * Double.BYTES;
+            long metaBytes = SNAPSHOT_HEADER_BYTES + (long) totalsLength * Double.BYTES
+                    + 3L * wordCount * Integer.BYTES;
+            if (wordCount < 0 || arenaSize < 0 || totalsLength < 0 || metaBytes > arenaPosition
+                    || arenaPosition > Integer.MAX_VALUE || arenaPosition + 2 * arenaBytes != fileSize) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, arenaPosition);
+            in.order(ByteOrder.LITTLE_ENDIAN).position(SNAPSHOT_HEADER_BYTES);
+            double[] totals = new double[totalsLength];
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = in.getDouble();
+            }
+            int[] firstYears = new int[wordCount];
+            int[] offsets = new int[wordCount];
+            int[] lengths = new int[wordCount];
+            for (int id = 0; id < wordCount; id++) {
+                firstYears[id] = in.getInt();
+                offsets[id] = in.getInt();
+                lengths[id] = in.getInt();
+                if (lengths[id] < 0 || offsets[id] < 0 || offsets[id] > arenaSize - lengths[id]) {
+                    throw new IOException(path + " is corrupt: word " + id + " lies outside the arena");
+                }
+            }
+            WordDictionary dictionary = WordDictionary.readFrom(in);
+            if (dictionary.size() != wordCount || ((in.position() + 7) & ~7) != arenaPosition) {
+                throw new IOException(path + " is corrupt: its dictionary does not match its header");
+            }
+            DoubleBuffer arena = mapArena(channel, arenaPosition, arenaBytes);
+            DoubleBuffer cumulative = mapArena(channel, arenaPosition + arenaBytes, arenaBytes);
+            return new CountColumns(dictionary, firstYears, offsets, lengths,
+                    arena, cumulative, totalsFirstYear, totals);
+        }
+    }
+
+    private static DoubleBuffer mapArena(FileChannel channel, long position, long bytes) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Returns new columns holding every row of BASE and DELTA. Where both have a count (or a
+     * total) for the same word and year, the one from DELTA wins.
+     *
+     * The merged arenas are on the heap. The columns a merge replaces may still be read by
+     * queries that started before the swap, so nothing can free them explicitly; heap arenas
+     * are reclaimed by the garbage collector as soon as the last such query is done, while
+     * direct ones would only be released whenever a collection happened to find them.
+     */
+    static CountColumns merge(CountColumns base, CountColumns delta) {
+        Builder builder = new Builder();
+        for (int id = 0; id < base.wordCount(); id++) {
+            String word = base.dictionary.word(id);
+            int deltaId = delta.id(word);
+            int builderId = builder.wordId(word);
+            for (int year = base.firstYear(id); year <= base.lastYear(id); year++) {
+                double count = base.count(id, year);
+                if (!Double.isNaN(count) && (deltaId < 0 || Double.isNaN(delta.count(deltaId, year)))) {
+                    builder.addCount(builderId, year, count);
+                }
+            }
+        }
+        for (int id = 0; id < delta.wordCount(); id++) {
+            int builderId = builder.wordId(delta.dictionary.word(id));
+            for (int year = delta.firstYear(id); year <= delta.lastYear(id); year++) {
+                double count = delta.count(id, year);
+                if (!Double.isNaN(count)) {
+                    builder.addCount(builderId, year, count);
+                }
+            }
+        }
+        for (CountColumns columns : List.of(base, delta)) {
+            for (int year = columns.totalsFirstYear(); year <= columns.totalsLastYear(); year++) {
+                double total = columns.total(year);
+                if (!Double.isNaN(total)) {
+                    builder.addTotal(year, total);
+                }
+            }
+        }
+        return builder.build(false);
+    }
+
+    /**
+     * Collects (word, year, count) rows in growable primitive arrays and lays them out into
+     * columns in build(). Rows for the same word and year are summed.
+     */
+    static final class Builder {
+        private final HashMap<String, Integer> wordIds = new HashMap<>();
+        private int[] minYears = new int[1024];
+        private int[] maxYears = new int[1024];
+
+        private int[] rowIds = new int[1 << 16];
+        private int[] rowYears = new int[1 << 16];
+        private double[] rowCounts = new double[1 << 16];
+        private int rows;
+
+        private final HashMap<Integer, Double> totalsHM = new HashMap<>();
+
+        /** Returns the id of WORD in this builder, assigning the next free id if it is new. */
+        int wordId(String word) {
+            Integer boxedId = wordIds.get(word);
+            if (boxedId != null) {
+                return boxedId;
+            }
+            int id = wordIds.size();
+            wordIds.put(word, id);
+            if (id == minYears.length) {
+                minYears = Arrays.copyOf(minYears, id * 2);
+                maxYears = Arrays.copyOf(maxYears, id * 2);
+            }
+            minYears[id] = Integer.MAX_VALUE;
+            maxYears[id] = Integer.MIN_VALUE;
+            return id;
+        }
+
+        void addCount(String word, int year, double count) {
+            addCount(wordId(word), year, count);
+        }
+
+        void addCount(int id, int year, double count) {
+            minYears[id] = Math.min(minYears[id], year);
+            maxYears[id] = Math.max(maxYears[id], year);
+            if (rows == rowIds.length) {
+                rowIds = Arrays.copyOf(rowIds, rows * 2);
+                rowYears = Arrays.copyOf(rowYears, rows * 2);
+                rowCounts = Arrays.copyOf(rowCounts, rows * 2);
+            }
+            rowIds[rows] = id;
+            rowYears[rows] = year;
+            rowCounts[rows] = count;
+            rows += 1;
+        }
+
+        /** Appends every row collected by OTHER, translating its word ids into this builder's. */
+        void addAll(Builder other) {
+            int[] translation = new int[other.wordIds.size()];
+            for (var entry : other.wordIds.entrySet()) {
+                translation[entry.getValue()] = wordId(entry.getKey());
+            }
+            for (int r = 0; r < other.rows; r++) {
+                addCount(translation[other.rowIds[r]], other.rowYears[r], other.rowCounts[r]);
+            }
+            totalsHM.putAll(other.totalsHM);
+        }
+
+        void addTotal(int year, double count) {
+            totalsHM.put(year, count);
+        }
+
+        /** Lays the rows out into columns with off-heap arenas. */
+        CountColumns build() {
+            return build(true);
+        }
+
+        /** Lays the rows out into columns, with off-heap arenas if DIRECT and heap ones otherwise. */
+        CountColumns build(boolean direct) {
+            int n = wordIds.size();
+            WordDictionary dictionary = WordDictionary.of(wordIds.keySet());
+            // builder ids are in order of first appearance, the dictionary's are alphabetical
+            int[] remap = new int[n];
+            for (var entry : wordIds.entrySet()) {
+                remap[entry.getValue()] = dictionary.id(entry.getKey());
+            }
+            int[] firstYears = new int[n];
+            int[] lengths = new int[n];
+            for (int builderId = 0; builderId < n; builderId++) {
+                firstYears[remap[builderId]] = minYears[builderId];
+                lengths[remap[builderId]] = maxYears[builderId] - minYears[builderId] + 1;
+            }
+            int[] offsets = new int[n];
+            long totalSize = 0;
+            for (int id = 0; id < n; id++) {
+                if (totalSize + lengths[id] > MAX_ARENA_SIZE) {
+                    throw new IllegalArgumentException("The words span more than " + MAX_ARENA_SIZE
+                            + " years in total, which is more than one arena can hold");
+                }
+                offsets[id] = (int) totalSize;
+                totalSize += lengths[id];
+            }
+            int size = (int) totalSize;
+
+            DoubleBuffer arena = allocate(size, direct);
+            for (int i = 0; i < size; i++) {
+                arena.put(i, Double.NaN);
+            }
+            for (int r = 0; r < rows; r++) {
+                int id = remap[rowIds[r]];
+                int slot = offsets[id] + rowYears[r] - firstYears[id];
+                double old = arena.get(slot);
+                arena.put(slot, Double.isNaN(old) ? rowCounts[r] : old + rowCounts[r]);
+            }
+
+            DoubleBuffer cumulative = allocate(size, direct);
+            for (int id = 0; id < n; id++) {
+                double sum = 0;
+                for (int slot = offsets[id]; slot < offsets[id] + lengths[id]; slot++) {
+                    double count = arena.get(slot);
+                    if (!Double.isNaN(count)) {
+                        sum += count;
+                    }
+                    cumulative.put(slot, sum);
+                }
+            }
+
+            int totalsFirstYear = 0;
+            double[] totals = new double[0];
+            if (!totalsHM.isEmpty()) {
+                int minYear = Integer.MAX_VALUE;
+                int maxYear = Integer.MIN_VALUE;
+                for (int year : totalsHM.keySet()) {
+                    minYear = Math.min(minYear, year);
+                    maxYear = Math.max(maxYear, year);
+                }
+                totalsFirstYear = minYear;
+                totals = new double[maxYear - minYear + 1];
+                Arrays.fill(totals, Double.NaN);
+                for (var entry : totalsHM.entrySet()) {
+                    totals[entry.getKey() - minYear] = entry.getValue();
+                }
+            }
+            return new CountColumns(dictionary, firstYears, offsets, lengths,
+                    arena.asReadOnlyBuffer(), cumulative.asReadOnlyBuffer(), totalsFirstYear, totals);
+        }
+
+        private static DoubleBuffer allocate(int size, boolean direct) {
+            if (!direct) {
+                return DoubleBuffer.allocate(size);
+            }
+            return ByteBuffer.allocateDirect(Math.multiplyExact(size, Double.BYTES))
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+}
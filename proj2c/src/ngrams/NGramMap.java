@@ -1,9 +1,19 @@
 package ngrams;
 
+import dictionary.WordDictionary;
 import edu.princeton.cs.algs4.In;
+import snapshot.SnapshotFiles;
 
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 import static ngrams.TimeSeries.MAX_YEAR;
 import static ngrams.TimeSeries.MIN_YEAR;
@@ -20,29 +30,134 @@ import static ngrams.TimeSeries.MIN_YEAR;
  */
 public class NGramMap {
 
-    private final HashMap<String, TimeSeries> wordsInfoHM;
-    private final HashMap<Integer, Double> totalCountInfoHM;
+    // how many words' normalized histories to keep around for repeated queries
+    private static final int WEIGHT_CACHE_CAPACITY = 4096;
+
+    // the data every query reads; ingest swaps in a new generation instead of changing this one
+    private volatile Generation current;
+
+    // serializes ingest calls, readers never take it
+    private final Object ingestLock = new Object();
+
+    private final LongAdder weightCacheHits = new LongAdder();
+    private final LongAdder weightCacheMisses = new LongAdder();
+
+    /**
+     * One immutable version of the data together with the caches derived from it. A query reads
+     * current once and uses that generation throughout, so it never mixes old and new data.
+     */
+    private record Generation(long version, CountColumns columns, WeightCache weightCache,
+                              ConcurrentHashMap<WordDictionary, int[]> translations) {
+
+        DenseTimeSeries weights(int id) {
+            return weightCache.get(id, missedId -> computeWeightHistory(columns, missedId));
+        }
+    }
 
     /**
      * Constructs an NGramMap from WORDSFILENAME and COUNTSFILENAME.
      */
     public NGramMap(String wordsFilename, String countsFilename) {
-        wordsInfoHM = new HashMap<>();
-        totalCountInfoHM = new HashMap<>();
-        In in = new In(wordsFilename);
+        current = newGeneration(0, load(wordsFilename, countsFilename, ForkJoinPool.commonPool()));
+    }
+
+    /**
+     * Constructs an NGramMap from WORDSFILENAME and COUNTSFILENAME, parsing the words file on
+     * PARALLELISM threads.
+     */
+    public NGramMap(String wordsFilename, String countsFilename, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            current = newGeneration(0, load(wordsFilename, countsFilename, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private NGramMap(CountColumns columns) {
+        current = newGeneration(0, columns);
+    }
+
+    private Generation newGeneration(long version, CountColumns columns) {
+        return new Generation(version, columns,
+                new WeightCache(WEIGHT_CACHE_CAPACITY, weightCacheHits, weightCacheMisses),
+                new ConcurrentHashMap<>());
+    }
+
+    private static CountColumns load(String wordsFilename, String countsFilename, ForkJoinPool pool) {
+        CountColumns.Builder builder = new CountColumns.Builder();
+        try {
+            WordsFileLoader.load(Path.of(wordsFilename), builder, pool);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not open " + wordsFilename, e);
+        }
+        In in = new In(countsFilename);
         while (in.hasNextLine()) {
             String line = in.readLine();
-            String[] splitLine = line.split("\t"); // tsv file
-            TimeSeries newTimeSeries = new TimeSeries();
-            newTimeSeries.put(Integer.parseInt(splitLine[1]), Double.parseDouble(splitLine[2]));
-            // Using the merge method to add or update the entry
-            wordsInfoHM.merge(splitLine[0], newTimeSeries, TimeSeries::plus);
+            String[] splitLine = line.split(",");
+            builder.addTotal(Integer.parseInt(splitLine[0]), Double.parseDouble(splitLine[1]));
         }
-        in = new In(countsFilename);
+        return builder.build();
+    }
+
+    /**
+     * Writes this NGramMap to a binary snapshot at PATH, so later runs can load it with
+     * openSnapshot instead of re-parsing the text files. The file is replaced atomically, so
+     * processes that already mapped the old one are not disturbed.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        SnapshotFiles.writeAtomically(path, current.columns()::write);
+    }
+
+    /**
+     * Opens a snapshot written by writeSnapshot. The count data is memory-mapped rather than
+     * read, so this is near-instant and the pages are shared by every process mapping the file.
+     * Throws an IOException if the file is not a snapshot, or is truncated or corrupt.
+     */
+    public static NGramMap openSnapshot(Path path) throws IOException {
+        return new NGramMap(SnapshotFiles.read(path, CountColumns::map));
+    }
+
+    /**
+     * Merges the rows of DELTAFILE into this NGramMap while it keeps serving queries. Lines
+     * containing a tab are word rows in the words file format (word, year, count, ...); any
+     * other non-blank line is a row in the counts file format (year, total count, ...). A delta
+     * row replaces the existing value for the same word (or total) and year, and adds it if there
+     * was none.
+     *
+     * The merged data is built on the side and published in a single swap, so a query running
+     * concurrently sees either all of the delta or none of it. Concurrent ingest calls are
+     * applied one after another. Every call copies the whole dataset, so collect rows into
+     * fewer, larger delta files rather than ingesting them one at a time. Merged data lives on
+     * the heap, so the data an ingest replaces is garbage collected like any other object once
+     * no query uses it any more.
+     *
+     * Throws an IllegalArgumentException quoting the line if a row is malformed; none of the
+     * delta is merged then.
+     */
+    public void ingest(Path deltaFile) {
+        CountColumns.Builder delta = new CountColumns.Builder();
+        In in = new In(deltaFile.toString());
         while (in.hasNextLine()) {
             String line = in.readLine();
-            String[] splitLine = line.split(",");
-            totalCountInfoHM.put(Integer.parseInt(splitLine[0]), Double.parseDouble(splitLine[1]));
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                if (line.indexOf('\t') >= 0) {
+                    String[] splitLine = line.split("\t");
+                    delta.addCount(splitLine[0], Integer.parseInt(splitLine[1]), Double.parseDouble(splitLine[2]));
+                } else {
+                    String[] splitLine = line.split(",");
+                    delta.addTotal(Integer.parseInt(splitLine[0]), Double.parseDouble(splitLine[1]));
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Malformed line in " + deltaFile + ": \"" + line + "\"", e);
+            }
+        }
+        CountColumns deltaColumns = delta.build();
+        synchronized (ingestLock) {
+            current = newGeneration(current.version() + 1, CountColumns.merge(current.columns(), deltaColumns));
         }
     }
 
@@ -54,7 +169,36 @@ public class NGramMap {
      * returns an empty TimeSeries.
      */
     public TimeSeries countHistory(String word, int startYear, int endYear) {
-        return new TimeSeries(wordsInfoHM.get(word), startYear, endYear);
+        CountColumns columns = current.columns();
+        TimeSeries countTS = new TimeSeries();
+        int id = columns.id(word);
+        if (id < 0) {
+            return countTS;
+        }
+        int from = Math.max(startYear, columns.firstYear(id));
+        int to = Math.min(endYear, columns.lastYear(id));
+        for (int year = from; year <= to; year++) {
+            double count = columns.count(id, year);
+            if (!Double.isNaN(count)) {
+                countTS.put(year, count);
+            }
+        }
+        return countTS;
+    }
+
+    /**
+     * Provides the history of WORD between STARTYEAR and ENDYEAR, inclusive of both ends, as a
+     * read-only view of this NGramMap's data instead of a copy. Writing to the view copies it
+     * first, so the NGramMap is never changed. If the word is not in the data files, returns an
+     * empty view.
+     */
+    public TimeSeriesView countView(String word, int startYear, int endYear) {
+        CountColumns columns = current.columns();
+        int id = columns.id(word);
+        if (id < 0) {
+            return TimeSeriesView.empty();
+        }
+        return new TimeSeriesView(columns.column(id), columns.firstYear(id), startYear, endYear);
     }
 
     /**
@@ -67,12 +211,126 @@ public class NGramMap {
         return countHistory(word, MIN_YEAR, MAX_YEAR);
     }
 
+    /**
+     * Returns the total number of times WORD was recorded between STARTYEAR and ENDYEAR,
+     * inclusive of both ends, or 0 if the word is not in the data files. Runs in constant time
+     * and does not allocate.
+     */
+    public double totalCount(String word, int startYear, int endYear) {
+        CountColumns columns = current.columns();
+        int id = columns.id(word);
+        return id < 0 ? 0 : columns.rangeSum(id, startYear, endYear);
+    }
+
+    /**
+     * Returns the totalCount of every word in IDS, where the ids come from the caller's own
+     * DICTIONARY (so the caller never has to go back to strings). The translation from
+     * DICTIONARY to this NGramMap's ids is worked out once and then reused.
+     */
+    public double[] totalCounts(WordDictionary dictionary, int[] ids, int startYear, int endYear) {
+        Generation generation = current;
+        CountColumns columns = generation.columns();
+        int[] translation = generation.translations()
+                .computeIfAbsent(dictionary, d -> d.translate(columns.dictionary()));
+        double[] counts = new double[ids.length];
+        rangeSums(columns, translation, ids, 0, ids.length, startYear, endYear, counts);
+        return counts;
+    }
+
+    /**
+     * Same as totalCounts(DICTIONARY, IDS, STARTYEAR, ENDYEAR), but splits IDS into at most
+     * PARALLELISM slices that run on POOL. Every count is worked out the same way as in the
+     * sequential version, so the result is identical.
+     */
+    public double[] totalCounts(WordDictionary dictionary, int[] ids, int startYear, int endYear,
+                                ForkJoinPool pool, int parallelism) {
+        Generation generation = current;
+        CountColumns columns = generation.columns();
+        int[] translation = generation.translations()
+                .computeIfAbsent(dictionary, d -> d.translate(columns.dictionary()));
+        double[] counts = new double[ids.length];
+        // at most PARALLELISM slices, but never slices so small that forking costs more than it saves
+        int slices = Math.max(parallelism, 1);
+        int sliceSize = Math.max(RangeSumsTask.SEQUENTIAL_WORDS, (ids.length + slices - 1) / slices);
+        if (ids.length <= sliceSize) {
+            rangeSums(columns, translation, ids, 0, ids.length, startYear, endYear, counts);
+        } else {
+            pool.invoke(new RangeSumsTask(columns, translation, ids, 0, ids.length,
+                    startYear, endYear, counts, sliceSize));
+        }
+        return counts;
+    }
+
+    /** Writes the counts of IDS[LO..HI) (translated by TRANSLATION) into the same positions of COUNTS. */
+    private static void rangeSums(CountColumns columns, int[] translation, int[] ids, int lo, int hi,
+                                  int startYear, int endYear, double[] counts) {
+        for (int i = lo; i < hi; i++) {
+            int id = translation[ids[i]];
+            counts[i] = id < 0 ? 0 : columns.rangeSum(id, startYear, endYear);
+        }
+    }
+
+    /** Looks up the counts of a slice of word ids, splitting it in half while it is large. */
+    private static final class RangeSumsTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_WORDS = 1024;
+        // tasks are never serialized; the columns stay in the NGramMap they came from
+        private final transient CountColumns columns;
+        private final int[] translation;
+        private final int[] ids;
+        private final int lo;
+        private final int hi;
+        private final int startYear;
+        private final int endYear;
+        private final double[] counts;
+        private final int sliceSize;
+
+        RangeSumsTask(CountColumns columns, int[] translation, int[] ids, int lo, int hi,
+                      int startYear, int endYear, double[] counts, int sliceSize) {
+            this.columns = columns;
+            this.translation = translation;
+            this.ids = ids;
+            this.lo = lo;
+            this.hi = hi;
+            this.startYear = startYear;
+            this.endYear = endYear;
+            this.counts = counts;
+            this.sliceSize = sliceSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= sliceSize) {
+                rangeSums(columns, translation, ids, lo, hi, startYear, endYear, counts);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new RangeSumsTask(columns, translation, ids, lo, mid, startYear, endYear, counts, sliceSize),
+                    new RangeSumsTask(columns, translation, ids, mid, hi, startYear, endYear, counts, sliceSize));
+        }
+    }
+
+    /**
+     * Returns the dictionary that assigns ids to the words of this NGramMap. An ingest that adds
+     * new words replaces it.
+     */
+    public WordDictionary dictionary() {
+        return current.columns().dictionary();
+    }
+
     /**
      * Returns a defensive copy of the total number of words recorded per year in all volumes.
      */
     public TimeSeries totalCountHistory() {
+        CountColumns columns = current.columns();
         TimeSeries wordCountTS = new TimeSeries();
-        wordCountTS.putAll(totalCountInfoHM);
+        for (int year = columns.totalsFirstYear(); year <= columns.totalsLastYear(); year++) {
+            double total = columns.total(year);
+            if (!Double.isNaN(total)) {
+                wordCountTS.put(year, total);
+            }
+        }
         return wordCountTS;
     }
 
@@ -82,8 +340,65 @@ public class NGramMap {
      * TimeSeries.
      */
     public TimeSeries weightHistory(String word, int startYear, int endYear) {
-        TimeSeries wordCountTS = this.totalCountHistory(); // denominator
-        return new TimeSeries(wordsInfoHM.get(word).dividedBy(wordCountTS), startYear, endYear);
+        Generation generation = current;
+        int id = generation.columns().id(word);
+        if (id < 0) {
+            return new TimeSeries();
+        }
+        return generation.weights(id).toTimeSeries(startYear, endYear);
+    }
+
+    /**
+     * Same as weightHistory(WORD, STARTYEAR, ENDYEAR), but as a read-only view of the cached
+     * weights instead of a copy. Writing to the view copies it first. If the word is not in
+     * the data files, returns an empty view.
+     */
+    public TimeSeriesView weightView(String word, int startYear, int endYear) {
+        Generation generation = current;
+        int id = generation.columns().id(word);
+        if (id < 0) {
+            return TimeSeriesView.empty();
+        }
+        return generation.weights(id).view(startYear, endYear);
+    }
+
+    /**
+     * Divides the whole history of word ID in COLUMNS by the total counts. Throws an
+     * IllegalArgumentException if a year the word has data for has no total count.
+     */
+    private static DenseTimeSeries computeWeightHistory(CountColumns columns, int id) {
+        int from = columns.firstYear(id);
+        int to = columns.lastYear(id);
+        DenseTimeSeries weightTS = new DenseTimeSeries(from, to);
+        for (int year = from; year <= to; year++) {
+            double count = columns.count(id, year);
+            if (!Double.isNaN(count)) {
+                double total = columns.total(year); // denominator
+                if (Double.isNaN(total)) {
+                    throw new IllegalArgumentException("No total count recorded for year " + year);
+                }
+                weightTS.put(year, count / total);
+            }
+        }
+        return weightTS;
+    }
+
+    /**
+     * Returns the version of the data, which starts at 0 and goes up by one with every ingest.
+     * Anything computed from this NGramMap is still up to date while the version is the same.
+     */
+    public long version() {
+        return current.version();
+    }
+
+    /** Returns how many weightHistory lookups were answered from the weight cache. */
+    public long weightCacheHits() {
+        return weightCacheHits.sum();
+    }
+
+    /** Returns how many weightHistory lookups had to normalize a word's history. */
+    public long weightCacheMisses() {
+        return weightCacheMisses.sum();
     }
 
     /**
@@ -102,11 +417,126 @@ public class NGramMap {
      */
     public TimeSeries summedWeightHistory(Collection<String> words,
                                           int startYear, int endYear) {
-        TimeSeries summedWeightHistoryTS = new TimeSeries();
-        for (String word: words) {
-            summedWeightHistoryTS = summedWeightHistoryTS.plus(weightHistory(word, startYear, endYear));
+        CountColumns columns = current.columns();
+        int from = Math.max(startYear, MIN_YEAR);
+        int to = Math.min(endYear, MAX_YEAR);
+        double[] buffer = newWindow(from, to);
+        sumWeights(columns, wordIds(columns, words), 0, words.size(), from, buffer);
+        return windowToTimeSeries(from, buffer);
+    }
+
+    /**
+     * Same as summedWeightHistory(WORDS, STARTYEAR, ENDYEAR), but splits WORDS across the
+     * workers of POOL and adds up their partial sums at the end. Because the additions happen
+     * in a different order, the result can differ from the sequential one in the last bits.
+     */
+    public TimeSeries summedWeightHistory(Collection<String> words,
+                                          int startYear, int endYear, ForkJoinPool pool) {
+        CountColumns columns = current.columns();
+        int from = Math.max(startYear, MIN_YEAR);
+        int to = Math.min(endYear, MAX_YEAR);
+        int[] ids = wordIds(columns, words);
+        double[] buffer = pool.invoke(new SumWeightsTask(columns, ids, 0, ids.length, from, to));
+        return windowToTimeSeries(from, buffer);
+    }
+
+    /** Returns the ids of WORDS in COLUMNS, with -1 for words that are not in the data files. */
+    private static int[] wordIds(CountColumns columns, Collection<String> words) {
+        int[] ids = new int[words.size()];
+        int i = 0;
+        for (String word : words) {
+            ids[i++] = columns.id(word);
+        }
+        return ids;
+    }
+
+    /** Returns a buffer for the years FROM through TO, with every year still missing (NaN). */
+    private static double[] newWindow(int from, int to) {
+        double[] buffer = new double[Math.max(to - from + 1, 0)];
+        Arrays.fill(buffer, Double.NaN);
+        return buffer;
+    }
+
+    /**
+     * Adds the weights of IDS[LO..HI) straight from COLUMNS into BUFFER, which covers the years
+     * starting at FROM. No per-word series is built. Like weightHistory, throws an
+     * IllegalArgumentException if a word has a count in a year without a total count.
+     */
+    private static void sumWeights(CountColumns columns, int[] ids, int lo, int hi, int from, double[] buffer) {
+        int to = from + buffer.length - 1;
+        for (int i = lo; i < hi; i++) {
+            int id = ids[i];
+            if (id < 0) {
+                continue;
+            }
+            int first = Math.max(from, columns.firstYear(id));
+            int last = Math.min(to, columns.lastYear(id));
+            for (int year = first; year <= last; year++) {
+                double count = columns.count(id, year);
+                if (Double.isNaN(count)) {
+                    continue;
+                }
+                double total = columns.total(year); // denominator
+                if (Double.isNaN(total)) {
+                    throw new IllegalArgumentException("No total count recorded for year " + year);
+                }
+                double weight = count / total;
+                double sum = buffer[year - from];
+                buffer[year - from] = Double.isNaN(sum) ? weight : sum + weight;
+            }
+        }
+    }
+
+    private static TimeSeries windowToTimeSeries(int from, double[] buffer) {
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < buffer.length; i++) {
+            if (!Double.isNaN(buffer[i])) {
+                ts.put(from + i, buffer[i]);
+            }
+        }
+        return ts;
+    }
+
+    /** Sums the weights of a slice of word ids, splitting it in half while it is large. */
+    private static final class SumWeightsTask extends RecursiveTask<double[]> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_WORDS = 256;
+        private final transient CountColumns columns;
+        private final int[] ids;
+        private final int lo;
+        private final int hi;
+        private final int from;
+        private final int to;
+
+        SumWeightsTask(CountColumns columns, int[] ids, int lo, int hi, int from, int to) {
+            this.columns = columns;
+            this.ids = ids;
+            this.lo = lo;
+            this.hi = hi;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (hi - lo <= SEQUENTIAL_WORDS) {
+                double[] buffer = newWindow(from, to);
+                sumWeights(columns, ids, lo, hi, from, buffer);
+                return buffer;
+            }
+            int mid = (lo + hi) >>> 1;
+            SumWeightsTask left = new SumWeightsTask(columns, ids, lo, mid, from, to);
+            left.fork();
+            double[] right = new SumWeightsTask(columns, ids, mid, hi, from, to).compute();
+            double[] buffer = left.join();
+            for (int i = 0; i < buffer.length; i++) {
+                double a = buffer[i];
+                double b = right[i];
+                buffer[i] = Double.isNaN(a) ? b : (Double.isNaN(b) ? a : a + b);
+            }
+            return buffer;
         }
-        return summedWeightHistoryTS;
     }
 
     /**
@@ -0,0 +1,17 @@
+package ngrams;
+
+import java.util.List;
+
+/**
+ * Anything that can list its years and the data for those years, in matching order. Both
+ * TimeSeries and the zero-copy TimeSeriesView implement it, so read-only code such as the
+ * Plotter can take either.
+ */
+public interface ReadableTimeSeries {
+
+    /** Returns all years that have data, in increasing order. */
+    List<Integer> years();
+
+    /** Returns the data for every year in years(), in the same order. */
+    List<Double> data();
+}
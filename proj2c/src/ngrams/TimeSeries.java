@@ -1,7 +1,9 @@
 package ngrams;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
@@ -10,7 +12,7 @@ import java.util.TreeMap;
  *
  * @author Josh Hug
  */
-public class TimeSeries extends TreeMap<Integer, Double> {
+public class TimeSeries extends TreeMap<Integer, Double> implements ReadableTimeSeries {
 
     /** If it helps speed up your code, you can assume year arguments to your NGramMap
      * are between 1400 and 2100. We've stored these values as the constants
@@ -31,18 +33,16 @@ public class TimeSeries extends TreeMap<Integer, Double> {
      */
     public TimeSeries(TimeSeries ts, int startYear, int endYear) {
         super();
-        if (ts != null) {
-            for (Integer year : ts.years()) {
-                if (startYear <= year && year <= endYear) {
-                    this.put(year, ts.get(year));
-                }
-            }
+        if (ts != null && startYear <= endYear) {
+            // only walk the requested range, not the whole source series
+            this.putAll(ts.subMap(startYear, true, endYear, true));
         }
     }
 
     /**
      * Returns all years for this TimeSeries (in any order).
      */
+    @Override
     public List<Integer> years() {
         return new ArrayList<>(this.keySet());
     }
@@ -51,6 +51,7 @@ public class TimeSeries extends TreeMap<Integer, Double> {
      * Returns all data for this TimeSeries (in any order).
      * Must be in the same order as years().
      */
+    @Override
     public List<Double> data() {
         return new ArrayList<>(this.values());
     }
@@ -65,17 +66,24 @@ public class TimeSeries extends TreeMap<Integer, Double> {
      * should store the value from the TimeSeries that contains that year.
      */
     public TimeSeries plus(TimeSeries ts) {
+        // walk both (sorted) entry sets side by side instead of looking every year up
         TimeSeries newTimeSeries = new TimeSeries();
-        for (Integer year: this.years()) {
-            if (ts.containsKey(year)) {
-                newTimeSeries.put(year, this.get(year) + ts.get(year));
+        Iterator<Map.Entry<Integer, Double>> mine = this.entrySet().iterator();
+        Iterator<Map.Entry<Integer, Double>> theirs = ts.entrySet().iterator();
+        Map.Entry<Integer, Double> a = mine.hasNext() ? mine.next() : null;
+        Map.Entry<Integer, Double> b = theirs.hasNext() ? theirs.next() : null;
+        while (a != null || b != null) {
+            int order = a == null ? 1 : b == null ? -1 : Integer.compare(a.getKey(), b.getKey());
+            if (order < 0) {
+                newTimeSeries.put(a.getKey(), a.getValue());
+                a = mine.hasNext() ? mine.next() : null;
+            } else if (order > 0) {
+                newTimeSeries.put(b.getKey(), b.getValue());
+                b = theirs.hasNext() ? theirs.next() : null;
             } else {
-                newTimeSeries.put(year, this.get(year));
-            }
-        }
-        for (Integer year: ts.years()) {
-            if (!newTimeSeries.containsKey(year)) {
-                newTimeSeries.put(year, ts.get(year));
+                newTimeSeries.put(a.getKey(), a.getValue() + b.getValue());
+                a = mine.hasNext() ? mine.next() : null;
+                b = theirs.hasNext() ? theirs.next() : null;
             }
         }
         return newTimeSeries;
@@ -92,12 +100,16 @@ public class TimeSeries extends TreeMap<Integer, Double> {
      */
     public TimeSeries dividedBy(TimeSeries ts) {
         TimeSeries newTimeSeries = new TimeSeries();
-        for (Integer year: this.years()) {
-            if (!ts.containsKey(year)) {
+        Iterator<Map.Entry<Integer, Double>> theirs = ts.entrySet().iterator();
+        Map.Entry<Integer, Double> b = theirs.hasNext() ? theirs.next() : null;
+        for (Map.Entry<Integer, Double> a : this.entrySet()) {
+            while (b != null && b.getKey() < a.getKey()) {
+                b = theirs.hasNext() ? theirs.next() : null;
+            }
+            if (b == null || !b.getKey().equals(a.getKey())) {
                 throw new IllegalArgumentException();
-            } else {
-                newTimeSeries.put(year, this.get(year) / ts.get(year));
             }
+            newTimeSeries.put(a.getKey(), a.getValue() / b.getValue());
         }
         return newTimeSeries;
     }
@@ -0,0 +1,185 @@
+package ngrams;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only window of years over data NGramMap already stores, without copying it.
+ * The view keeps a reference to the backing data plus the requested [startYear, endYear]
+ * bounds; years without data (NaN in the backing data) are skipped.
+ *
+ * A view can still be changed with put(). The first put copies the window into a private
+ * TimeSeries (copy-on-write), so the NGramMap's data is never touched.
+ */
+public class TimeSeriesView implements ReadableTimeSeries {
+    private static final DoubleBuffer NO_DATA = DoubleBuffer.allocate(0);
+
+    private final DoubleBuffer backing;
+    private final int backingFirstYear;
+    private final int startYear;
+    private final int endYear;
+
+    // set on the first write, after which it replaces the backing data
+    private TimeSeries copy;
+
+    /**
+     * Constructs a view of the years STARTYEAR through ENDYEAR of BACKING, whose slot 0 holds
+     * the data for BACKINGFIRSTYEAR.
+     */
+    TimeSeriesView(DoubleBuffer backing, int backingFirstYear, int startYear, int endYear) {
+        this.backing = backing;
+        this.backingFirstYear = backingFirstYear;
+        this.startYear = Math.max(startYear, backingFirstYear);
+        this.endYear = Math.min(endYear, backingFirstYear + backing.limit() - 1);
+    }
+
+    /** Returns a view with no years in it. */
+    static TimeSeriesView empty() {
+        return new TimeSeriesView(NO_DATA, 0, 0, -1);
+    }
+
+    /** Returns the value for YEAR, or null if this view has no data for it. */
+    public Double get(int year) {
+        if (copy != null) {
+            return copy.get(year);
+        }
+        double value = slot(year);
+        return Double.isNaN(value) ? null : value;
+    }
+
+    /**
+     * Sets the value for YEAR. The first call copies this view into a private TimeSeries,
+     * so the data the view was created from is never modified.
+     */
+    public void put(int year, double value) {
+        if (copy == null) {
+            copy = toTimeSeries();
+        }
+        copy.put(year, value);
+    }
+
+    @Override
+    public List<Integer> years() {
+        if (copy != null) {
+            return copy.years();
+        }
+        List<Integer> years = new ArrayList<>();
+        for (int year = startYear; year <= endYear; year++) {
+            if (!Double.isNaN(slot(year))) {
+                years.add(year);
+            }
+        }
+        return years;
+    }
+
+    @Override
+    public List<Double> data() {
+        if (copy != null) {
+            return copy.data();
+        }
+        List<Double> data = new ArrayList<>();
+        for (int year = startYear; year <= endYear; year++) {
+            double value = slot(year);
+            if (!Double.isNaN(value)) {
+                data.add(value);
+            }
+        }
+        return data;
+    }
+
+    /** Returns the number of years in this view that have data. */
+    public int size() {
+        if (copy != null) {
+            return copy.size();
+        }
+        int size = 0;
+        for (int year = startYear; year <= endYear; year++) {
+            if (!Double.isNaN(slot(year))) {
+                size += 1;
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Returns the sum of the data of every year in this view. */
+    public double sum() {
+        if (copy != null) {
+            return copy.values().stream().mapToDouble(Double::doubleValue).sum();
+        }
+        double sum = 0;
+        for (int year = startYear; year <= endYear; year++) {
+            double value = slot(year);
+            if (!Double.isNaN(value)) {
+                sum += value;
+            }
+        }
+        return sum;
+    }
+
+    /** Returns a new TimeSeries holding the data of this view. */
+    public TimeSeries toTimeSeries() {
+        if (copy != null) {
+            return new TimeSeries(copy, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        TimeSeries ts = new TimeSeries();
+        for (int year = startYear; year <= endYear; year++) {
+            double value = slot(year);
+            if (!Double.isNaN(value)) {
+                ts.put(year, value);
+            }
+        }
+        return ts;
+    }
+
+    private double slot(int year) {
+        if (year < startYear || year > endYear) {
+            return Double.NaN;
+        }
+        return backing.get(year - backingFirstYear);
+    }
+
+    /** Returns whether O is a view with the same years and data, like TimeSeries.equals. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof TimeSeriesView other && years().equals(other.years()) && data().equals(other.data());
+    }
+
+    /** Returns the hash code a TimeSeries with the same data would have. */
+    @Override
+    public int hashCode() {
+        List<Integer> years = years();
+        List<Double> data = data();
+        int hash = 0;
+        for (int i = 0; i < years.size(); i++) {
+            hash += years.get(i).hashCode() ^ data.get(i).hashCode();
+        }
+        return hash;
+    }
+
+    /** Formats the view the same way a TimeSeries with the same data would print. */
+    @Override
+    public String toString() {
+        if (copy != null) {
+            return copy.toString();
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int year = startYear; year <= endYear; year++) {
+            double value = slot(year);
+            if (!Double.isNaN(value)) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(year).append('=').append(value);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
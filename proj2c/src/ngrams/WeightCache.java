@@ -0,0 +1,98 @@
+package ngrams;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * A bounded cache of full normalized weight histories, keyed by word id. The cached series are
+ * shared, so callers must only read from them.
+ *
+ * The cache is 4-way set-associative: every id hashes to a set of four slots and may live in
+ * any of them. When a full set needs room, a CLOCK hand picks what to evict: an entry that was
+ * hit since the hand last passed it gets a second chance, so the victim is roughly the least
+ * recently used entry of its set, and hot ids that hash to the same set do not keep evicting
+ * each other. Slots are read and written through an AtomicReferenceArray, so lookups never
+ * lock and a series is fully visible to any thread that finds it.
+ */
+final class WeightCache {
+    private static final int WAYS = 4;
+
+    private static final class Entry {
+        final int id;
+        final DenseTimeSeries weights;
+        // set by hits, cleared by the clock hand; only a hint, so racy reads and writes are fine
+        boolean referenced;
+
+        Entry(int id, DenseTimeSeries weights) {
+            this.id = id;
+            this.weights = weights;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    // the way each set's clock hand looks at next; a hint as well
+    private final byte[] hands;
+    private final int shift;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * Constructs a cache of about CAPACITY entries (rounded up to a power of two) that counts
+     * its hits and misses into HITS and MISSES.
+     */
+    WeightCache(int capacity, LongAdder hits, LongAdder misses) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(capacity / WAYS - 1, 1));
+        this.slots = new AtomicReferenceArray<>(WAYS << bits);
+        this.hands = new byte[1 << bits];
+        this.shift = 32 - bits;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    /** Returns the cached series for word ID, computing it with COMPUTE on a miss. */
+    DenseTimeSeries get(int id, IntFunction<DenseTimeSeries> compute) {
+        // Fibonacci hashing, so nearby ids spread over the whole table
+        int set = (id * 0x9E3779B9) >>> shift;
+        for (int way = 0; way < WAYS; way++) {
+            Entry cached = slots.get(set * WAYS + way);
+            if (cached != null && cached.id == id) {
+                if (!cached.referenced) {
+                    // only write when it changes, so hot entries don't bounce between cores
+                    cached.referenced = true;
+                }
+                hits.increment();
+                return cached.weights;
+            }
+        }
+        misses.increment();
+        // two threads missing on the same word just both compute it
+        DenseTimeSeries computed = compute.apply(id);
+        slots.set(set * WAYS + victim(set), new Entry(id, computed));
+        return computed;
+    }
+
+    /** Returns the way of SET to store a new entry in: an empty one, or the one the clock hand picks. */
+    private int victim(int set) {
+        for (int way = 0; way < WAYS; way++) {
+            if (slots.get(set * WAYS + way) == null) {
+                return way;
+            }
+        }
+        int hand = hands[set];
+        // after one turn every bit the hand passed is cleared, so two turns always find a victim
+        // unless other threads keep hitting the set; then just take the next way
+        for (int turn = 0; turn < 2 * WAYS; turn++) {
+            int way = hand;
+            hand = (hand + 1) & (WAYS - 1);
+            Entry entry = slots.get(set * WAYS + way);
+            if (entry == null || !entry.referenced) {
+                hands[set] = (byte) hand;
+                return way;
+            }
+            entry.referenced = false;
+        }
+        hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+        return hand;
+    }
+}
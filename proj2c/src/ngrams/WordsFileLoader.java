@@ -0,0 +1,220 @@
+package ngrams;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses an NGrams words file (word, year, count, volumes; tab separated) in parallel.
+ *
+ * The file is cut into byte ranges that start and end on line boundaries. Each range is
+ * memory-mapped and parsed by its own fork-join task into a partial CountColumns.Builder,
+ * and the partial builders are merged once, in file order, at the end.
+ */
+final class WordsFileLoader {
+
+    // aim for a few ranges per worker so an unlucky split doesn't leave cores idle
+    private static final int RANGES_PER_THREAD = 4;
+    private static final long MIN_RANGE_BYTES = 1 << 20;
+    // a mapped range is indexed by int, so ranges stay well under 2 GB even on huge files
+    private static final long MAX_RANGE_BYTES = 1 << 30;
+
+    private WordsFileLoader() {
+    }
+
+    /**
+     * Parses every row of WORDSFILE into BUILDER, using POOL for the parsing tasks. Throws an
+     * IllegalArgumentException quoting the line if a row has no word, year or count.
+     */
+    static void load(Path wordsFile, CountColumns.Builder builder, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(wordsFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long target = Math.min(MAX_RANGE_BYTES,
+                    Math.max(MIN_RANGE_BYTES, size / ((long) pool.getParallelism() * RANGES_PER_THREAD)));
+
+            List<ParseTask> tasks = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = nextLineStart(channel, Math.min(size, start + target));
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("The words file has a line over "
+                            + (Integer.MAX_VALUE - MAX_RANGE_BYTES) + " bytes long near byte " + start);
+                }
+                tasks.add(new ParseTask(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)));
+                start = end;
+            }
+            for (ParseTask task : tasks) {
+                pool.execute(task);
+            }
+            for (ParseTask task : tasks) {
+                builder.addAll(joinUnwrapped(task));
+            }
+        }
+    }
+
+    /**
+     * Returns the result of TASK. A task that failed on another thread is rethrown by join as a
+     * copy of its exception with the original as the cause; this throws the original instead,
+     * so the message quoting the bad line reaches the caller unchanged.
+     */
+    private static CountColumns.Builder joinUnwrapped(ParseTask task) {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof RuntimeException cause && cause.getClass() == e.getClass()) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Returns the position just past the first newline at or after POSITION (or the file size). */
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /** Parses one line-aligned range of the words file into its own builder. */
+    private static final class ParseTask extends RecursiveTask<CountColumns.Builder> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        // tasks only ever run in this process, so the mapped range is never serialized
+        private final transient MappedByteBuffer range;
+
+        ParseTask(MappedByteBuffer range) {
+            this.range = range;
+        }
+
+        @Override
+        protected CountColumns.Builder compute() {
+            CountColumns.Builder builder = new CountColumns.Builder();
+            int limit = range.limit();
+            // rows of one word are contiguous in the file, so remembering the previous word's
+            // bytes lets us skip building a String for almost every line
+            int previousStart = -1;
+            int previousLength = 0;
+            int previousId = -1;
+
+            int pos = 0;
+            while (pos < limit) {
+                if (range.get(pos) == '\n' || range.get(pos) == '\r') {
+                    pos++; // blank line
+                    continue;
+                }
+                int wordStart = pos;
+                while (pos < limit && range.get(pos) != '\t' && range.get(pos) != '\n') {
+                    pos++;
+                }
+                if (pos == limit || range.get(pos) != '\t') {
+                    throw badLine(wordStart, "no tab after the word");
+                }
+                int wordLength = pos - wordStart;
+                pos++;
+
+                int id;
+                if (previousId >= 0 && sameBytes(previousStart, previousLength, wordStart, wordLength)) {
+                    id = previousId;
+                } else {
+                    byte[] word = new byte[wordLength];
+                    range.get(wordStart, word);
+                    id = builder.wordId(new String(word, StandardCharsets.UTF_8));
+                }
+                previousStart = wordStart;
+                previousLength = wordLength;
+                previousId = id;
+
+                int year = 0;
+                boolean negative = pos < limit && range.get(pos) == '-';
+                if (negative) {
+                    pos++;
+                }
+                int yearStart = pos;
+                while (pos < limit && range.get(pos) >= '0' && range.get(pos) <= '9') {
+                    year = year * 10 + (range.get(pos) - '0');
+                    pos++;
+                }
+                if (pos == yearStart || pos == limit || range.get(pos) != '\t') {
+                    throw badLine(wordStart, "the year is not a whole number followed by a tab");
+                }
+                pos++;
+
+                int countStart = pos;
+                long wholeCount = 0;
+                boolean plainInteger = true;
+                while (pos < limit && range.get(pos) != '\t' && range.get(pos) != '\n' && range.get(pos) != '\r') {
+                    byte b = range.get(pos);
+                    if (b < '0' || b > '9') {
+                        plainInteger = false;
+                    } else {
+                        wholeCount = wholeCount * 10 + (b - '0');
+                    }
+                    pos++;
+                }
+                if (pos == countStart) {
+                    throw badLine(wordStart, "no count");
+                }
+                double count;
+                if (plainInteger && pos - countStart < 16) {
+                    count = wholeCount;
+                } else {
+                    // rare: decimals or exponents, let the JDK get the rounding right
+                    byte[] field = new byte[pos - countStart];
+                    range.get(countStart, field);
+                    count = Double.parseDouble(new String(field, StandardCharsets.US_ASCII));
+                }
+                builder.addCount(id, negative ? -year : year, count);
+
+                // skip the volumes column and the line terminator
+                while (pos < limit && range.get(pos) != '\n') {
+                    pos++;
+                }
+                pos++;
+            }
+            return builder;
+        }
+
+        /** Returns an exception quoting the line that starts at LINESTART, saying what is wrong with it. */
+        private IllegalArgumentException badLine(int lineStart, String problem) {
+            int lineEnd = lineStart;
+            while (lineEnd < range.limit() && range.get(lineEnd) != '\n' && range.get(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            byte[] line = new byte[lineEnd - lineStart];
+            range.get(lineStart, line);
+            return new IllegalArgumentException("Malformed line in the words file (" + problem + "): \""
+                    + new String(line, StandardCharsets.UTF_8) + "\"");
+        }
+
+        private boolean sameBytes(int aStart, int aLength, int bStart, int bLength) {
+            if (aLength != bLength) {
+                return false;
+            }
+            for (int i = 0; i < aLength; i++) {
+                if (range.get(aStart + i) != range.get(bStart + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
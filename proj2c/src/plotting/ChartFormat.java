@@ -0,0 +1,11 @@
+package plotting;
+
+/**
+ * How a chart handler answers. PNG renders the chart on the server and returns it as a
+ * Base64-encoded PNG; JSON returns just the series (see Plotter.encodeSeriesAsJson) for the
+ * browser to draw, so the server skips rasterizing entirely.
+ */
+public enum ChartFormat {
+    PNG,
+    JSON
+}
@@ -1,20 +1,30 @@
 package plotting;
 
-import ngrams.TimeSeries;
-import org.knowm.xchart.BitmapEncoder;
+import com.google.gson.Gson;
+import metrics.Metrics;
+import metrics.StageTimer;
+import metrics.Timer;
+import ngrams.ReadableTimeSeries;
 import org.knowm.xchart.SwingWrapper;
 import org.knowm.xchart.XYChart;
 
-import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class Plotter {
+    private static final Gson gson = new Gson();
+    private static final StageTimer RENDER_TIMER = Metrics.stage("chart_render");
+    private static final StageTimer JSON_TIMER = Metrics.stage("series_json");
+    // charts are painted into images reused from this pool (one per core), instead of allocating
+    // 2MB per chart; it is bounded, so images made by a burst of threads are just dropped again
+    private static final BlockingQueue<BufferedImage> CANVASES =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
 
-    public static XYChart generateTimeSeriesChart(List<String> words, List<TimeSeries> lts) {
+    public static XYChart generateTimeSeriesChart(List<String> words, List<? extends ReadableTimeSeries> lts) {
         if (words.size() != lts.size()) {
             throw new IllegalArgumentException("List of words and List of time series objects must be the same length");
         }
@@ -22,7 +32,7 @@ public class Plotter {
         XYChart chart = new XYChart(800, 600);
 
         for (int i = 0; i < words.size(); i += 1) {
-            TimeSeries ts = lts.get(i);
+            ReadableTimeSeries ts = lts.get(i);
             String word = words.get(i);
             chart.addSeries(word, ts.years(), ts.data());
         }
@@ -34,17 +44,80 @@ public class Plotter {
         new SwingWrapper(chart).displayChart();
     }
 
+    /**
+     * Renders CHART and returns it as a Base64-encoded PNG. The chart is painted into a reused
+     * opaque image and encoded with a PNG encoder tuned for speed (see PngEncoder).
+     */
     public static String encodeChartAsString(XYChart chart) {
-        BufferedImage img = BitmapEncoder.getBufferedImage(chart);
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-
+        int width = chart.getWidth();
+        int height = chart.getHeight();
+        BufferedImage img = CANVASES.poll();
+        if (img == null || img.getWidth() != width || img.getHeight() != height) {
+            img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
         try {
-            ImageIO.write(img, "png", os);
-        } catch (IOException e) {
-            e.printStackTrace();
+            Timer.Sample renderSample = RENDER_TIMER.time();
+            try {
+                Graphics2D g = img.createGraphics();
+                try {
+                    // the image is reused, so clear whatever the last chart left behind
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, width, height);
+                    chart.paint(g, width, height);
+                } finally {
+                    g.dispose();
+                }
+            } finally {
+                renderSample.stop();
+            }
+            return PngEncoder.encodeBase64(img);
+        } finally {
+            CANVASES.offer(img);
         }
+    }
 
-        String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-        return encodedImage;
+    /**
+     * Returns the series as compact JSON for the browser to draw, in the same order as WORDS:
+     * [{"word": "cat", "years": [1900, ...], "values": [0.0012, ...]}, ...].
+     * Values that are not finite numbers are written as null.
+     */
+    public static String encodeSeriesAsJson(List<String> words, List<? extends ReadableTimeSeries> lts) {
+        if (words.size() != lts.size()) {
+            throw new IllegalArgumentException("List of words and List of time series objects must be the same length");
+        }
+        Timer.Sample jsonSample = JSON_TIMER.time();
+        try {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < words.size(); i += 1) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"word\":").append(gson.toJson(words.get(i))).append(",\"years\":[");
+                List<Integer> years = lts.get(i).years();
+                for (int j = 0; j < years.size(); j += 1) {
+                    if (j > 0) {
+                        json.append(',');
+                    }
+                    json.append(years.get(j).intValue());
+                }
+                json.append("],\"values\":[");
+                List<Double> values = lts.get(i).data();
+                for (int j = 0; j < values.size(); j += 1) {
+                    if (j > 0) {
+                        json.append(',');
+                    }
+                    double value = values.get(j);
+                    if (Double.isFinite(value)) {
+                        json.append(value);
+                    } else {
+                        json.append("null");
+                    }
+                }
+                json.append("]}");
+            }
+            return json.append(']').toString();
+        } finally {
+            jsonSample.stop();
+        }
     }
 }
@@ -0,0 +1,182 @@
+package plotting;
+
+import metrics.Metrics;
+import metrics.StageTimer;
+import metrics.Timer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A minimal PNG encoder tuned for speed rather than size, for TYPE_INT_RGB chart images.
+ *
+ * ImageIO's PNG writer tries several row filters per row and picks the best one, which is most
+ * of its cost. Charts are large areas of flat colour that compress well anyway, so this encoder
+ * writes every row unfiltered and deflates at the fastest level: about 3x faster than ImageIO
+ * for an 800x600 chart, at about the same size. Encoders (each with its row buffer, deflater
+ * and output buffer) are kept in a small pool and reused, so encoding allocates little beyond
+ * the result. The pool holds one encoder per core; an encoder that finds it full is dropped,
+ * and its deflater's native memory freed right away.
+ */
+final class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final StageTimer PNG_TIMER = Metrics.stage("png");
+    private static final StageTimer BASE64_TIMER = Metrics.stage("base64");
+    private static final BlockingQueue<PngEncoder> POOL =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Output out = new Output();
+    private final CRC32 crc = new CRC32();
+    private byte[] row = new byte[0];
+    private byte[] chunk = new byte[1 << 16];
+
+    /** A ByteArrayOutputStream whose buffer can be read without copying it. */
+    private static final class Output extends ByteArrayOutputStream {
+        Output() {
+            super(1 << 17);
+        }
+
+        ByteBuffer contents() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private PngEncoder() {
+    }
+
+    /** Returns IMAGE (which must be TYPE_INT_RGB) as a Base64-encoded PNG. */
+    static String encodeBase64(BufferedImage image) {
+        PngEncoder encoder = acquire();
+        try {
+            Timer.Sample pngSample = PNG_TIMER.time();
+            try {
+                encoder.encodeImage(image);
+            } finally {
+                pngSample.stop();
+            }
+            Timer.Sample base64Sample = BASE64_TIMER.time();
+            try {
+                ByteBuffer base64 = Base64.getEncoder().encode(encoder.out.contents());
+                return new String(base64.array(), 0, base64.limit(), StandardCharsets.ISO_8859_1);
+            } finally {
+                base64Sample.stop();
+            }
+        } finally {
+            release(encoder);
+        }
+    }
+
+    /** Returns IMAGE (which must be TYPE_INT_RGB) as the bytes of a PNG file. */
+    static byte[] encode(BufferedImage image) {
+        PngEncoder encoder = acquire();
+        try {
+            encoder.encodeImage(image);
+            return encoder.out.toByteArray();
+        } finally {
+            release(encoder);
+        }
+    }
+
+    private static PngEncoder acquire() {
+        PngEncoder encoder = POOL.poll();
+        return encoder != null ? encoder : new PngEncoder();
+    }
+
+    private static void release(PngEncoder encoder) {
+        if (!POOL.offer(encoder)) {
+            // the pool is full; free the native zlib memory now rather than whenever GC gets to it
+            encoder.deflater.end();
+        }
+    }
+
+    private void encodeImage(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("Expected a TYPE_INT_RGB image, got type " + image.getType());
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width <= 0 || height <= 0) {
+            // a PNG must be at least one pixel in each direction
+            throw new IllegalArgumentException("Cannot encode an empty " + width + "x" + height + " image");
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        out.reset();
+        out.writeBytes(SIGNATURE);
+        byte[] header = ByteBuffer.allocate(13).putInt(width).putInt(height)
+                // 8 bits per sample, truecolour, deflate, no filtering method extensions, no interlace
+                .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0).array();
+        writeChunk("IHDR", header, header.length);
+
+        // one filter-type byte (0, none) and then RGB for every pixel of the row
+        if (row.length != 1 + 3 * width) {
+            row = new byte[1 + 3 * width];
+        }
+        deflater.reset();
+        int chunkSize = 0;
+        for (int y = 0; y < height; y++) {
+            int p = 1;
+            for (int x = y * width, end = x + width; x < end; x++) {
+                int pixel = pixels[x];
+                row[p++] = (byte) (pixel >> 16);
+                row[p++] = (byte) (pixel >> 8);
+                row[p++] = (byte) pixel;
+            }
+            deflater.setInput(row);
+            // deflate until the row is consumed
+            while (!deflater.needsInput()) {
+                chunkSize = deflateInto(chunkSize);
+            }
+        }
+        // then until everything is out
+        deflater.finish();
+        while (!deflater.finished()) {
+            chunkSize = deflateInto(chunkSize);
+        }
+        if (chunkSize > 0) {
+            writeChunk("IDAT", chunk, chunkSize);
+        }
+        writeChunk("IEND", chunk, 0);
+    }
+
+    /**
+     * Deflates into the chunk buffer, which already holds CHUNKSIZE bytes, writing it out as an
+     * IDAT chunk whenever it fills up. Returns how many bytes it holds afterwards.
+     */
+    private int deflateInto(int chunkSize) {
+        chunkSize += deflater.deflate(chunk, chunkSize, chunk.length - chunkSize);
+        if (chunkSize == chunk.length) {
+            writeChunk("IDAT", chunk, chunkSize);
+            return 0;
+        }
+        return chunkSize;
+    }
+
+    /** Writes a chunk of TYPE holding the first LENGTH bytes of DATA, with its length and CRC. */
+    private void writeChunk(String type, byte[] data, int length) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        writeInt(length);
+        out.writeBytes(typeBytes);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        writeInt((int) crc.getValue());
+    }
+
+    private void writeInt(int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
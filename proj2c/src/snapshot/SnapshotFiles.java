@@ -0,0 +1,60 @@
+package snapshot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes and reads the binary snapshot files the data classes keep next to their text files
+ * (see NGramMap.writeSnapshot, WordNet.writeSnapshot and ReachabilityIndex.write).
+ */
+public final class SnapshotFiles {
+
+    /** Writes a snapshot to the file at the given path. */
+    @FunctionalInterface
+    public interface Writer {
+        void write(Path path) throws IOException;
+    }
+
+    /** Decodes a snapshot from the file at the given path. */
+    @FunctionalInterface
+    public interface Reader<T> {
+        T read(Path path) throws IOException;
+    }
+
+    private SnapshotFiles() {
+    }
+
+    /**
+     * Writes the snapshot at PATH with WRITER, atomically. WRITER fills a temporary file in the
+     * same directory, which then replaces PATH in a single rename. A process that has the old
+     * file open or mapped keeps reading the old file, and a crash halfway through never leaves
+     * a half-written snapshot at PATH.
+     */
+    public static void writeAtomically(Path path, Writer writer) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, path.getFileName() + ".", ".tmp");
+        try {
+            writer.write(temp);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the snapshot at PATH with READER. Decoding a truncated or corrupt file can fail with
+     * any of the runtime exceptions buffers and arrays throw; those are reported as an
+     * IOException, so callers can fall back to the text files like for a missing snapshot.
+     */
+    public static <T> T read(Path path, Reader<T> reader) throws IOException {
+        try {
+            return reader.read(path);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                 | NegativeArraySizeException e) {
+            throw new IOException(path + " is truncated or corrupt", e);
+        }
+    }
+}
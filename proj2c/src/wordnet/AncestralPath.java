@@ -0,0 +1,13 @@
+package wordnet;
+
+import java.util.List;
+
+/**
+ * The answer to a shortest ancestral path query: LENGTH is the fewest parent edges from the
+ * first word up to a common ancestor and down to the second word, and ANCESTORS are the words
+ * of the closest common ancestors (in alphabetical order). LENGTH is -1 and ANCESTORS is empty
+ * when the words have no common ancestor, or one of them is not in WordNet.
+ */
+public record AncestralPath(int length, List<String> ancestors) {
+    static final AncestralPath NONE = new AncestralPath(-1, List.of());
+}
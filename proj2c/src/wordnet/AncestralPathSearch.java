@@ -0,0 +1,178 @@
+package wordnet;
+
+import graph.CsrGraph;
+
+import java.util.Arrays;
+
+/**
+ * Shortest ancestral path search: given two sets of nodes, finds the common ancestors that
+ * minimize (distance from the first set) + (distance from the second set), following parent
+ * edges only. Both sides run a breadth-first search in turn, and each side stops as soon as
+ * its next level could no longer match the best total found so far, so usually only a few
+ * levels near the two words are ever visited.
+ *
+ * The distance arrays and queues are kept per thread and reset after each search by walking
+ * only the nodes that were touched, so a search allocates nothing proportional to the graph.
+ */
+final class AncestralPathSearch {
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private AncestralPathSearch() {
+    }
+
+    /** Per-thread working memory, grown to fit the largest graph seen. -1 means not reached. */
+    private static final class Scratch {
+        int[] distA = new int[0];
+        int[] distB = new int[0];
+        int[] queueA = new int[0];
+        int[] queueB = new int[0];
+
+        void ensureCapacity(int nodeCount) {
+            if (distA.length < nodeCount) {
+                distA = new int[nodeCount];
+                distB = new int[nodeCount];
+                Arrays.fill(distA, -1);
+                Arrays.fill(distB, -1);
+                queueA = new int[nodeCount];
+                queueB = new int[nodeCount];
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the shortest ancestral path between FROMA and FROMB in PARENTS,
+     * and writes the nodes where such paths meet into ANCESTORS (cleared first, sorted on
+     * return). Returns -1 if the two sets have no common ancestor.
+     */
+    static int search(CsrGraph parents, int[] fromA, int[] fromB, IntList ancestors) {
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(parents.nodeCount());
+        int[] distA = scratch.distA;
+        int[] distB = scratch.distB;
+        int[] queueA = scratch.queueA;
+        int[] queueB = scratch.queueB;
+        ancestors.clear();
+
+        int best = Integer.MAX_VALUE;
+        int tailA = seed(fromA, distA, queueA);
+        int tailB = seed(fromB, distB, queueB);
+        for (int i = 0; i < tailB; i++) {
+            if (distA[queueB[i]] == 0) {
+                best = 0;
+                ancestors.add(queueB[i]);
+            }
+        }
+
+        // each queue holds every node its side has reached, in order of distance;
+        // HEAD..LEVELEND is the level that will be expanded next, at distance LEVEL
+        int headA = 0;
+        int headB = 0;
+        int levelA = 0;
+        int levelB = 0;
+        while (true) {
+            boolean canExpandA = headA < tailA && levelA + 1 <= best;
+            boolean canExpandB = headB < tailB && levelB + 1 <= best;
+            if (!canExpandA && !canExpandB) {
+                break;
+            }
+            // expand the side with the smaller frontier, it is the cheaper one to grow
+            if (canExpandA && (!canExpandB || tailA - headA <= tailB - headB)) {
+                int levelEnd = tailA;
+                for (; headA < levelEnd; headA++) {
+                    int node = queueA[headA];
+                    for (int i = parents.start(node); i < parents.end(node); i++) {
+                        int parent = parents.target(i);
+                        if (distA[parent] >= 0) {
+                            continue;
+                        }
+                        distA[parent] = levelA + 1;
+                        queueA[tailA++] = parent;
+                        if (distB[parent] >= 0) {
+                            best = record(levelA + 1 + distB[parent], parent, best, ancestors);
+                        }
+                    }
+                }
+                levelA += 1;
+            } else {
+                int levelEnd = tailB;
+                for (; headB < levelEnd; headB++) {
+                    int node = queueB[headB];
+                    for (int i = parents.start(node); i < parents.end(node); i++) {
+                        int parent = parents.target(i);
+                        if (distB[parent] >= 0) {
+                            continue;
+                        }
+                        distB[parent] = levelB + 1;
+                        queueB[tailB++] = parent;
+                        if (distA[parent] >= 0) {
+                            best = record(levelB + 1 + distA[parent], parent, best, ancestors);
+                        }
+                    }
+                }
+                levelB += 1;
+            }
+        }
+
+        for (int i = 0; i < tailA; i++) {
+            distA[queueA[i]] = -1;
+        }
+        for (int i = 0; i < tailB; i++) {
+            distB[queueB[i]] = -1;
+        }
+        ancestors.sort();
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    /** Puts the distinct nodes of FROM into QUEUE at distance 0, returning how many there are. */
+    private static int seed(int[] from, int[] dist, int[] queue) {
+        int tail = 0;
+        for (int node : from) {
+            if (dist[node] < 0) {
+                dist[node] = 0;
+                queue[tail++] = node;
+            }
+        }
+        return tail;
+    }
+
+    /** Notes that a path of LENGTH meets at NODE, returning the new best length. */
+    private static int record(int length, int node, int best, IntList ancestors) {
+        if (length < best) {
+            ancestors.clear();
+            best = length;
+        }
+        if (length == best) {
+            ancestors.add(node);
+        }
+        return best;
+    }
+
+    /** A growable list of ints, so results can be collected without boxing. */
+    static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+    }
+}
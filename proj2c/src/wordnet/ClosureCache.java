@@ -0,0 +1,94 @@
+package wordnet;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of traversal results, keyed by the node the traversal started from. Each
+ * value is the set of node indexes reachable from that node (itself included). The cached
+ * bitsets are shared, so callers must only read from them.
+ *
+ * Like NGramMap's weight cache, it is 4-way set-associative with a CLOCK hand per set: a node
+ * may be cached in any of the four slots of its set, and a put into a full set evicts an entry
+ * that was not hit since the hand last passed it. Slots are read and written through an
+ * AtomicReferenceArray, so lookups never lock and a bitset is fully visible to any thread that
+ * finds it.
+ */
+final class ClosureCache {
+    private static final int WAYS = 4;
+
+    private static final class Entry {
+        final int nodeIndex;
+        final BitSet closure;
+        // set by hits, cleared by the clock hand; only a hint, so racy reads and writes are fine
+        boolean referenced;
+
+        Entry(int nodeIndex, BitSet closure) {
+            this.nodeIndex = nodeIndex;
+            this.closure = closure;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    // the way each set's clock hand looks at next; a hint as well
+    private final byte[] hands;
+    private final int shift;
+
+    /** Constructs a cache of about CAPACITY entries, rounded up to a power of two. */
+    ClosureCache(int capacity) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(capacity / WAYS - 1, 1));
+        this.slots = new AtomicReferenceArray<>(WAYS << bits);
+        this.hands = new byte[1 << bits];
+        this.shift = 32 - bits;
+    }
+
+    private int set(int nodeIndex) {
+        // Fibonacci hashing, so nearby node indexes spread over the whole table
+        return (nodeIndex * 0x9E3779B9) >>> shift;
+    }
+
+    /** Returns the cached closure of NODEINDEX, or null if it isn't cached. */
+    BitSet get(int nodeIndex) {
+        int set = set(nodeIndex);
+        for (int way = 0; way < WAYS; way++) {
+            Entry entry = slots.get(set * WAYS + way);
+            if (entry != null && entry.nodeIndex == nodeIndex) {
+                if (!entry.referenced) {
+                    // only write when it changes, so hot entries don't bounce between cores
+                    entry.referenced = true;
+                }
+                return entry.closure;
+            }
+        }
+        return null;
+    }
+
+    void put(int nodeIndex, BitSet closure) {
+        int set = set(nodeIndex);
+        slots.set(set * WAYS + victim(set), new Entry(nodeIndex, closure));
+    }
+
+    /** Returns the way of SET to store a new entry in: an empty one, or the one the clock hand picks. */
+    private int victim(int set) {
+        for (int way = 0; way < WAYS; way++) {
+            if (slots.get(set * WAYS + way) == null) {
+                return way;
+            }
+        }
+        int hand = hands[set];
+        // after one turn every bit the hand passed is cleared, so two turns always find a victim
+        // unless other threads keep hitting the set; then just take the next way
+        for (int turn = 0; turn < 2 * WAYS; turn++) {
+            int way = hand;
+            hand = (hand + 1) & (WAYS - 1);
+            Entry entry = slots.get(set * WAYS + way);
+            if (entry == null || !entry.referenced) {
+                hands[set] = (byte) hand;
+                return way;
+            }
+            entry.referenced = false;
+        }
+        hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+        return hand;
+    }
+}
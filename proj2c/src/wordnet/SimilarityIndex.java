@@ -0,0 +1,283 @@
+package wordnet;
+
+import dictionary.WordDictionary;
+import graph.CsrGraph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scores how similar two words are, from where they sit in the WordNet hypernym graph. Built
+ * once per WordNet, it holds the depth of every node and, for every node, its sorted list of
+ * ancestors (itself included) with their distances. Scoring a pair then only merges two short
+ * sorted lists, with no traversal.
+ *
+ * For two nodes with common ancestors:
+ *     path similarity = 1 / (1 + length of the shortest path through a common ancestor)
+ *     Wu-Palmer = 2 * depth(lcs) / (distance(a, lcs) + distance(b, lcs) + 2 * depth(lcs))
+ * where lcs is the deepest common ancestor, and a root has depth 1. A word's score is the best
+ * over all pairs of nodes the two words appear in. Words with no common ancestor (or not in
+ * WordNet) score NaN.
+ *
+ * The index is read-only once built, so any number of threads can score pairs at once.
+ */
+public final class SimilarityIndex {
+    // pairs scored per batch by scoreFile, and per leaf task within a batch
+    private static final int BATCH_PAIRS = 1 << 16;
+    private static final int SEQUENTIAL_PAIRS = 1024;
+
+    private final WordDictionary dictionary;
+    private final CsrGraph wordNodes;
+    // length of the shortest path from a root, plus one
+    private final int[] depths;
+    // ancestors of node v are ancestorNodes[ancestorOffsets[v] .. ancestorOffsets[v + 1] - 1],
+    // sorted by node index, at ancestorDistances[...] edges away
+    private final int[] ancestorOffsets;
+    private final int[] ancestorNodes;
+    private final int[] ancestorDistances;
+
+    /** Builds the depth and ancestor index for WORDNET. */
+    public SimilarityIndex(WordNet wordNet) {
+        this.dictionary = wordNet.getDictionary();
+        this.wordNodes = wordNet.getWordNodes();
+        CsrGraph parents = wordNet.getHypernymGraph();
+        CsrGraph children = wordNet.getHyponymGraph();
+        int n = parents.nodeCount();
+
+        // depths: breadth-first from every root at once
+        depths = new int[n];
+        int[] queue = new int[n];
+        int tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (parents.degree(v) == 0) {
+                depths[v] = 1;
+                queue[tail++] = v;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int node = queue[head];
+            for (int i = children.start(node); i < children.end(node); i++) {
+                int child = children.target(i);
+                if (depths[child] == 0) {
+                    depths[child] = depths[node] + 1;
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        // ancestors: one breadth-first search up the parents of every node
+        ancestorOffsets = new int[n + 1];
+        int[] nodes = new int[Math.max(n, 16)];
+        int[] distances = new int[nodes.length];
+        int size = 0;
+        int[] dist = new int[n];
+        Arrays.fill(dist, -1);
+        for (int v = 0; v < n; v++) {
+            tail = 0;
+            queue[tail++] = v;
+            dist[v] = 0;
+            for (int head = 0; head < tail; head++) {
+                int node = queue[head];
+                for (int i = parents.start(node); i < parents.end(node); i++) {
+                    int parent = parents.target(i);
+                    if (dist[parent] < 0) {
+                        dist[parent] = dist[node] + 1;
+                        queue[tail++] = parent;
+                    }
+                }
+            }
+            Arrays.sort(queue, 0, tail);
+            if (size + tail > nodes.length) {
+                int capacity = Math.max(nodes.length * 2, size + tail);
+                nodes = Arrays.copyOf(nodes, capacity);
+                distances = Arrays.copyOf(distances, capacity);
+            }
+            for (int i = 0; i < tail; i++) {
+                nodes[size] = queue[i];
+                distances[size] = dist[queue[i]];
+                size += 1;
+                dist[queue[i]] = -1;
+            }
+            ancestorOffsets[v + 1] = size;
+        }
+        ancestorNodes = Arrays.copyOf(nodes, size);
+        ancestorDistances = Arrays.copyOf(distances, size);
+    }
+
+    /** Returns the number of (node, ancestor) entries stored, a measure of the index's size. */
+    public int ancestorEntries() {
+        return ancestorNodes.length;
+    }
+
+    /** Returns the path similarity of WORDA and WORDB, or NaN if they have no common ancestor. */
+    public double pathSimilarity(String wordA, String wordB) {
+        double[] scores = new double[2];
+        score(dictionary.id(wordA), dictionary.id(wordB), scores);
+        return scores[0];
+    }
+
+    /** Returns the Wu-Palmer similarity of WORDA and WORDB, or NaN if they have no common ancestor. */
+    public double wuPalmerSimilarity(String wordA, String wordB) {
+        double[] scores = new double[2];
+        score(dictionary.id(wordA), dictionary.id(wordB), scores);
+        return scores[1];
+    }
+
+    /**
+     * Writes the path similarity and Wu-Palmer similarity of word ids IDA and IDB into
+     * SCORES[0] and SCORES[1] (NaN when there is no common ancestor or an id is -1).
+     */
+    private void score(int idA, int idB, double[] scores) {
+        int bestLength = Integer.MAX_VALUE;
+        double bestWuPalmer = Double.NaN;
+        if (idA >= 0 && idB >= 0) {
+            for (int i = wordNodes.start(idA); i < wordNodes.end(idA); i++) {
+                for (int j = wordNodes.start(idB); j < wordNodes.end(idB); j++) {
+                    int a = wordNodes.target(i);
+                    int b = wordNodes.target(j);
+                    bestLength = Math.min(bestLength, shortestLength(a, b));
+                    double wuPalmer = wuPalmer(a, b);
+                    if (!(wuPalmer <= bestWuPalmer)) {
+                        bestWuPalmer = wuPalmer;
+                    }
+                }
+            }
+        }
+        scores[0] = bestLength == Integer.MAX_VALUE ? Double.NaN : 1.0 / (1 + bestLength);
+        scores[1] = bestWuPalmer;
+    }
+
+    /** Returns the fewest edges from A up to a common ancestor and down to B, or MAX_VALUE if none. */
+    private int shortestLength(int a, int b) {
+        int best = Integer.MAX_VALUE;
+        int i = ancestorOffsets[a];
+        int j = ancestorOffsets[b];
+        while (i < ancestorOffsets[a + 1] && j < ancestorOffsets[b + 1]) {
+            if (ancestorNodes[i] < ancestorNodes[j]) {
+                i++;
+            } else if (ancestorNodes[i] > ancestorNodes[j]) {
+                j++;
+            } else {
+                best = Math.min(best, ancestorDistances[i] + ancestorDistances[j]);
+                i++;
+                j++;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the Wu-Palmer similarity of nodes A and B, or NaN if they have no common ancestor. */
+    private double wuPalmer(int a, int b) {
+        int lcsDepth = 0;
+        int lcsLength = 0;
+        int i = ancestorOffsets[a];
+        int j = ancestorOffsets[b];
+        while (i < ancestorOffsets[a + 1] && j < ancestorOffsets[b + 1]) {
+            if (ancestorNodes[i] < ancestorNodes[j]) {
+                i++;
+            } else if (ancestorNodes[i] > ancestorNodes[j]) {
+                j++;
+            } else {
+                int depth = depths[ancestorNodes[i]];
+                int length = ancestorDistances[i] + ancestorDistances[j];
+                // the deepest common ancestor, and the closer one of equally deep ones
+                if (depth > lcsDepth || (depth == lcsDepth && length < lcsLength)) {
+                    lcsDepth = depth;
+                    lcsLength = length;
+                }
+                i++;
+                j++;
+            }
+        }
+        if (lcsDepth == 0) {
+            return Double.NaN;
+        }
+        return 2.0 * lcsDepth / (lcsLength + 2.0 * lcsDepth);
+    }
+
+    /**
+     * Scores every pair of words in PAIRSFILE and writes the results to SCORESFILE, working
+     * through the file in fixed-size batches so memory stays bounded however large it is. Each
+     * input line holds two words separated by a tab, comma or space; each output line is
+     * "wordA, tab, wordB, tab, path similarity, tab, Wu-Palmer similarity", in input order.
+     * Blank lines are skipped. The pairs of a batch are scored on POOL.
+     */
+    public void scoreFile(Path pairsFile, Path scoresFile, ForkJoinPool pool) throws IOException {
+        String[] wordsA = new String[BATCH_PAIRS];
+        String[] wordsB = new String[BATCH_PAIRS];
+        double[] scores = new double[2 * BATCH_PAIRS];
+        try (BufferedReader in = Files.newBufferedReader(pairsFile, StandardCharsets.UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(scoresFile, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                int count = 0;
+                String pair;
+                while (count < BATCH_PAIRS && (pair = in.readLine()) != null) {
+                    String[] words = pair.trim().split("[\t, ]+");
+                    if (words[0].isEmpty()) {
+                        continue;
+                    }
+                    if (words.length < 2) {
+                        throw new IllegalArgumentException("Expected two words on the line \"" + pair + "\"");
+                    }
+                    wordsA[count] = words[0];
+                    wordsB[count] = words[1];
+                    count += 1;
+                }
+                if (count == 0) {
+                    break;
+                }
+                pool.invoke(new ScoreTask(wordsA, wordsB, 0, count, scores));
+                for (int i = 0; i < count; i++) {
+                    line.setLength(0);
+                    line.append(wordsA[i]).append('\t').append(wordsB[i]).append('\t')
+                            .append(scores[2 * i]).append('\t').append(scores[2 * i + 1]).append('\n');
+                    out.append(line);
+                }
+            }
+        }
+    }
+
+    /** Scores a slice of pairs into SCORES (two per pair), splitting it in half while it is large. */
+    private final class ScoreTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final String[] wordsA;
+        private final String[] wordsB;
+        private final int lo;
+        private final int hi;
+        private final double[] scores;
+
+        ScoreTask(String[] wordsA, String[] wordsB, int lo, int hi, double[] scores) {
+            this.wordsA = wordsA;
+            this.wordsB = wordsB;
+            this.lo = lo;
+            this.hi = hi;
+            this.scores = scores;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= SEQUENTIAL_PAIRS) {
+                double[] pairScores = new double[2];
+                for (int i = lo; i < hi; i++) {
+                    score(dictionary.id(wordsA[i]), dictionary.id(wordsB[i]), pairScores);
+                    scores[2 * i] = pairScores[0];
+                    scores[2 * i + 1] = pairScores[1];
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ScoreTask(wordsA, wordsB, lo, mid, scores),
+                    new ScoreTask(wordsA, wordsB, mid, hi, scores));
+        }
+    }
+}
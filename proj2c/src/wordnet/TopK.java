@@ -0,0 +1,82 @@
+package wordnet;
+
+import java.util.Arrays;
+
+/**
+ * Picks the k ids with the highest counts out of parallel arrays, using a bounded binary heap
+ * of array positions. Nothing is shared between calls, so it is safe to use from any number of
+ * threads at once.
+ */
+final class TopK {
+    private TopK() {
+    }
+
+    /**
+     * Returns the (at most K) ids in IDS whose COUNTS are highest, sorted in increasing id order.
+     * Ids with a count of 0 or less are never picked. Equal counts are broken in favour of the
+     * smaller id, so the result is always the same for the same input.
+     */
+    static int[] select(int[] ids, double[] counts, int k) {
+        // heap[0] is the worst of the best k seen so far
+        int[] heap = new int[Math.min(k, ids.length)];
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (!(counts[i] > 0)) {
+                continue;
+            }
+            if (size < heap.length) {
+                heap[size] = i;
+                siftUp(heap, size, ids, counts);
+                size += 1;
+            } else if (size > 0 && worse(heap[0], i, ids, counts)) {
+                heap[0] = i;
+                siftDown(heap, size, ids, counts);
+            }
+        }
+        int[] selected = new int[size];
+        for (int i = 0; i < size; i++) {
+            selected[i] = ids[heap[i]];
+        }
+        Arrays.sort(selected);
+        return selected;
+    }
+
+    /** Returns true if position A ranks below position B: a lower count, or the same count and a larger id. */
+    private static boolean worse(int a, int b, int[] ids, double[] counts) {
+        int byCount = Double.compare(counts[a], counts[b]);
+        return byCount < 0 || (byCount == 0 && ids[a] > ids[b]);
+    }
+
+    private static void siftUp(int[] heap, int index, int[] ids, double[] counts) {
+        int position = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!worse(position, heap[parent], ids, counts)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = position;
+    }
+
+    private static void siftDown(int[] heap, int size, int[] ids, double[] counts) {
+        int position = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(heap[child + 1], heap[child], ids, counts)) {
+                child += 1;
+            }
+            if (!worse(heap[child], position, ids, counts)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = position;
+    }
+}
@@ -1,28 +1,84 @@
 package wordnet;
 
+import dictionary.WordDictionary;
 import edu.princeton.cs.algs4.In;
+import graph.CsrGraph;
 import graph.Graph;
+import graph.ReachabilityIndex;
+import metrics.Metrics;
+import metrics.StageTimer;
+import metrics.Timer;
 import ngrams.NGramMap;
-import ngrams.TimeSeries;
+import snapshot.SnapshotFiles;
 
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class WordNet {
-    private final Graph graph;
-    private final HashMap<String, Double> totalCountHM;
+    // closures reaching at least this many nodes are worth remembering
+    private static final int MEMO_MIN_NODES = 64;
+    // how many closures to remember per direction
+    private static final int MEMO_CAPACITY = 1024;
+    // each thread's traversal stack, reused across queries (grown as needed)
+    private static final ThreadLocal<int[]> STACK = ThreadLocal.withInitial(() -> new int[64]);
+    // long traversals check every this many nodes (a power of two) whether they were cancelled
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    private static final StageTimer CLOSURES_TIMER = Metrics.stage("closures");
+    private static final StageTimer COUNTS_TIMER = Metrics.stage("counts");
+    private static final StageTimer TOP_K_TIMER = Metrics.stage("top_k");
+    private static final StageTimer ANCESTRAL_PATH_TIMER = Metrics.stage("ancestral_path");
+    // "WNET" and the snapshot format version, see writeSnapshot
+    private static final int SNAPSHOT_MAGIC = 0x574E4554;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // gives every word appearing in a synset a dense id, the graph only deals in those ids
+    private final WordDictionary dictionary;
+
+    // the graph compacted into CSR form once loading is done; all traversals run over these
+    private final CsrGraph hyponymGraph; // node index -> indexes of its children
+    private final CsrGraph hypernymGraph; // node index -> indexes of its parents
+    private final CsrGraph nodeWords; // node index -> ids of the words in it
+    private final CsrGraph wordNodes; // word id -> indexes of the nodes containing it
+
+    // memoized closures of expensive nodes, one cache per direction
+    private final ClosureCache hyponymClosures = new ClosureCache(MEMO_CAPACITY);
+    private final ClosureCache hypernymClosures = new ClosureCache(MEMO_CAPACITY);
+    // optional precomputed closures, one per direction (null until useReachabilityIndexes)
+    private volatile ReachabilityIndex hyponymIndex;
+    private volatile ReachabilityIndex hypernymIndex;
+
     public WordNet(String synsetsFile, String hyponymsFile) {
-        graph = new Graph();
-        totalCountHM = new HashMap<>();
+        // the graph is only needed while loading, everything afterwards uses the CSR form
+        Graph graph = new Graph();
         // Read from the given synsets file
+        // (all lines first, since the dictionary needs to see every word before handing out ids)
+        ArrayList<Integer> indexes = new ArrayList<>();
+        ArrayList<String[]> synsets = new ArrayList<>();
+        HashSet<String> allWords = new HashSet<>();
         In in = new In(synsetsFile);
         while (in.hasNextLine()) {
             // index, one (or more) word(s), definition
             String line = in.readLine();
             String[] splitLine = line.split(",");
-            int index = Integer.parseInt(splitLine[0]);
+            indexes.add(Integer.parseInt(splitLine[0]));
             String[] words = splitLine[1].split(" ");
-            HashSet<String> values = new HashSet<>(List.of(words));
-            graph.createNode(index, values);
+            synsets.add(words);
+            allWords.addAll(List.of(words));
+        }
+        dictionary = WordDictionary.of(allWords);
+        for (int i = 0; i < synsets.size(); i++) {
+            String[] words = synsets.get(i);
+            int[] wordIds = Arrays.stream(words).mapToInt(dictionary::id).distinct().toArray();
+            graph.createNode(indexes.get(i), wordIds);
         }
         // Read from the given hyponyms file
         in = new In(hyponymsFile);
@@ -36,99 +92,487 @@ public class WordNet {
                 graph.addEdge(rootIndex, childIndex);
             }
         }
+        hyponymGraph = graph.childrenToCsr();
+        hypernymGraph = graph.parentsToCsr();
+        nodeWords = graph.nodeValuesToCsr();
+        wordNodes = graph.nodeIndexesToCsr(dictionary.size());
+    }
+
+    private WordNet(WordDictionary dictionary, CsrGraph hyponymGraph, CsrGraph hypernymGraph,
+                    CsrGraph nodeWords, CsrGraph wordNodes) {
+        this.dictionary = dictionary;
+        this.hyponymGraph = hyponymGraph;
+        this.hypernymGraph = hypernymGraph;
+        this.nodeWords = nodeWords;
+        this.wordNodes = wordNodes;
+    }
+
+    /**
+     * Writes this WordNet to a binary snapshot at PATH, so later runs can load it with
+     * openSnapshot instead of re-parsing the text files. The snapshot holds the dictionary and
+     * the four CSR graphs, as little-endian ints. The file is replaced atomically, so processes
+     * that already mapped the old one are not disturbed.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        SnapshotFiles.writeAtomically(path, this::writeSnapshotTo);
     }
 
-    public Graph getGraph() {
-        return graph;
+    private void writeSnapshotTo(Path path) throws IOException {
+        long size = 2L * Integer.BYTES + dictionary.encodedSize() + hyponymGraph.encodedSize()
+                + hypernymGraph.encodedSize() + nodeWords.encodedSize() + wordNodes.encodedSize();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("The WordNet snapshot would take " + size + " bytes, more than one mapping can hold");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION);
+            dictionary.writeTo(out);
+            hyponymGraph.writeTo(out);
+            hypernymGraph.writeTo(out);
+            nodeWords.writeTo(out);
+            wordNodes.writeTo(out);
+            out.force();
+        }
     }
 
     /**
-     * Given a word, return all hyponyms or ancestors of it based on the given hashMap
-     * (the word may appear in multiple nodes).
+     * Opens a snapshot written by writeSnapshot. Only the dictionary is decoded onto the heap;
+     * the graphs stay in the mapped file, so this is near-instant and the pages are shared by
+     * every process mapping the file. The graphs are checked against each other and the
+     * dictionary, and a file that is not a snapshot, or is truncated or corrupt, throws an
+     * IOException.
      */
-    public HashSet<String> getHOrAForSingleWord(HashMap<Integer, HashSet<Integer>> hashMap, String word) {
-        // We need to somehow do a graph traversal
+    public static WordNet openSnapshot(Path path) throws IOException {
+        return SnapshotFiles.read(path, WordNet::mapSnapshot);
+    }
+
+    private static WordNet mapSnapshot(Path path) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < 2L * Integer.BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a WordNet snapshot");
+            }
+            // the mapping stays valid after the channel is closed
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION) {
+            throw new IOException(path + " is not a WordNet snapshot");
+        }
+        WordDictionary dictionary = WordDictionary.readFrom(in);
+        CsrGraph hyponymGraph = CsrGraph.readFrom(in);
+        CsrGraph hypernymGraph = CsrGraph.readFrom(in);
+        CsrGraph nodeWords = CsrGraph.readFrom(in);
+        CsrGraph wordNodes = CsrGraph.readFrom(in);
+        int nodeCount = hyponymGraph.nodeCount();
+        if (hypernymGraph.nodeCount() != nodeCount || nodeWords.nodeCount() != nodeCount
+                || wordNodes.nodeCount() != dictionary.size() || in.hasRemaining()) {
+            throw new IOException(path + " is corrupt: its graphs do not fit together");
+        }
+        hyponymGraph.validate(nodeCount);
+        hypernymGraph.validate(nodeCount);
+        nodeWords.validate(dictionary.size());
+        wordNodes.validate(nodeCount);
+        return new WordNet(dictionary, hyponymGraph, hypernymGraph, nodeWords, wordNodes);
+    }
+
+    public WordDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /** Returns the graph from each node to its hyponyms (children), for hyponym queries. */
+    public CsrGraph getHyponymGraph() {
+        return hyponymGraph;
+    }
+
+    /** Returns the graph from each word id to the indexes of the nodes containing it. */
+    CsrGraph getWordNodes() {
+        return wordNodes;
+    }
+
+    /** Returns the graph from each node to its hypernyms (parents), for ancestor queries. */
+    public CsrGraph getHypernymGraph() {
+        return hypernymGraph;
+    }
+
+    /**
+     * Makes traversals use the given precomputed closures, built (or read) for getHyponymGraph
+     * and getHypernymGraph respectively. Either may be null to go back to plain traversal.
+     */
+    public void useReachabilityIndexes(ReachabilityIndex hyponyms, ReachabilityIndex hypernyms) {
+        hyponymIndex = hyponyms;
+        hypernymIndex = hypernyms;
+    }
+
+    /**
+     * Returns true if HYPONYM is a hyponym of WORD, i.e. some node containing HYPONYM can be
+     * reached from some node containing WORD (a word counts as its own hyponym).
+     * Returns false if either word is not in WordNet.
+     */
+    public boolean isHyponym(String hyponym, String word) {
+        int hyponymId = dictionary.id(hyponym);
+        int wordId = dictionary.id(word);
+        if (hyponymId < 0 || wordId < 0) {
+            return false;
+        }
+        ReachabilityIndex index = hyponymIndex;
+        for (int i = wordNodes.start(wordId); i < wordNodes.end(wordId); i++) {
+            int from = wordNodes.target(i);
+            BitSet closure = index == null ? getHOrANodesForNode(hyponymGraph, from) : null;
+            for (int j = wordNodes.start(hyponymId); j < wordNodes.end(hyponymId); j++) {
+                int to = wordNodes.target(j);
+                if (index != null ? index.isReachable(from, to) : closure.get(to)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the shortest ancestral path between WORDA and WORDB: the common ancestors (nodes
+     * reachable from both through getHypernymGraph) that are the fewest edges away from the two
+     * words combined. A word that appears in several nodes starts from all of them.
+     */
+    public AncestralPath shortestAncestralPath(String wordA, String wordB) {
+        int idA = dictionary.id(wordA);
+        int idB = dictionary.id(wordB);
+        if (idA < 0 || idB < 0) {
+            return AncestralPath.NONE;
+        }
+        AncestralPathSearch.IntList ancestors = new AncestralPathSearch.IntList();
+        int length;
+        Timer.Sample ancestralPathSample = ANCESTRAL_PATH_TIMER.time();
+        try {
+            length = AncestralPathSearch.search(hypernymGraph,
+                    wordNodes.targets(idA), wordNodes.targets(idB), ancestors);
+        } finally {
+            ancestralPathSample.stop();
+        }
+        if (length < 0) {
+            return AncestralPath.NONE;
+        }
+        BitSet wordIds = new BitSet(dictionary.size());
+        for (int i = 0; i < ancestors.size(); i++) {
+            int node = ancestors.get(i);
+            for (int j = nodeWords.start(node); j < nodeWords.end(node); j++) {
+                wordIds.set(nodeWords.target(j));
+            }
+        }
+        List<String> words = new ArrayList<>();
+        for (int wordId = wordIds.nextSetBit(0); wordId >= 0; wordId = wordIds.nextSetBit(wordId + 1)) {
+            words.add(dictionary.word(wordId));
+        }
+        return new AncestralPath(length, words);
+    }
+
+    /**
+     * Given a word, return all hyponyms or ancestors of it based on the given direction
+     * (getHyponymGraph or getHypernymGraph of this WordNet, anything else throws an
+     * IllegalArgumentException). The word may appear in multiple nodes.
+     */
+    public HashSet<String> getHOrAForSingleWord(CsrGraph direction, String word) {
         HashSet<String> hyponymsOrAncestorsHS = new HashSet<>();
-        HashSet<Integer> nodeIndexes = graph.getNodeIndex(word);
+        BitSet wordIds = getHOrAIdsForSingleWord(direction, dictionary.id(word));
+        for (int wordId = wordIds.nextSetBit(0); wordId >= 0; wordId = wordIds.nextSetBit(wordId + 1)) {
+            hyponymsOrAncestorsHS.add(dictionary.word(wordId));
+        }
+        return hyponymsOrAncestorsHS;
+    }
+
+    /** Same as the method above, but with words given and returned as dictionary ids. */
+    private BitSet getHOrAIdsForSingleWord(CsrGraph direction, int wordId) {
+        return nodesToWordIds(getHOrANodesForWord(direction, wordId));
+    }
+
+    /** Returns the indexes of all nodes reachable from any node containing word WORDID. */
+    private BitSet getHOrANodesForWord(CsrGraph direction, int wordId) {
         // Check that the input word is valid
-        if (nodeIndexes != null) {
-            for (Integer nodeIndex : nodeIndexes) {
-                // We need to somehow traverse from a given node index
-                hyponymsOrAncestorsHS.addAll(getHOrAForSingleWord(hashMap, nodeIndex));
+        if (wordId < 0) {
+            return new BitSet();
+        }
+        if (wordNodes.degree(wordId) == 1) {
+            // the usual case, the (possibly shared) closure can be used without copying
+            return getHOrANodesForNode(direction, wordNodes.target(wordNodes.start(wordId)));
+        }
+        BitSet nodes = new BitSet(direction.nodeCount());
+        for (int i = wordNodes.start(wordId); i < wordNodes.end(wordId); i++) {
+            // We need to somehow traverse from a given node index
+            nodes.or(getHOrANodesForNode(direction, wordNodes.target(i)));
+        }
+        return nodes;
+    }
+
+    /** Returns the ids of all words in the given NODES. */
+    private BitSet nodesToWordIds(BitSet nodes) {
+        BitSet wordIds = new BitSet(dictionary.size());
+        int visited = 0;
+        for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+            if ((++visited & (CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                checkCancelled(Thread.currentThread());
+            }
+            for (int i = nodeWords.start(node); i < nodeWords.end(node); i++) {
+                wordIds.set(nodeWords.target(i));
             }
         }
-        return hyponymsOrAncestorsHS;
+        return wordIds;
     }
 
-    /** Helper function of the method above. */
-    public HashSet<String> getHOrAForSingleWord(HashMap<Integer, HashSet<Integer>> hashMap, int nodeIndex) {
-        HashSet<String> ans;
-        HashSet<Integer> adjOrParentNodes = graph.getAdjOrParentNodes(hashMap, nodeIndex);
-        // "leaf" node
-        if (adjOrParentNodes == null) {
-            return new HashSet<>(graph.getNodeValue(nodeIndex));
-        } else {
-            // "non-leaf" node
-            ans = new HashSet<>(graph.getNodeValue(nodeIndex));
-            for (Integer adjOrParentNode: adjOrParentNodes) {
-                ans.addAll(getHOrAForSingleWord(hashMap, adjOrParentNode));
+    /**
+     * Helper function of getHOrANodesForWord, returns the indexes of all nodes reachable from
+     * nodeIndex (itself included). The traversal is an iterative depth-first search with a
+     * visited bitset, so every node is expanded at most once no matter how many paths lead to
+     * it. Closures stored in the reachability index are used as they are, and large results are
+     * memoized; the returned bitset may be shared and must not be modified. Safe to call from
+     * any number of threads at once. Throws a CancellationException if the calling thread is
+     * interrupted during a long traversal.
+     */
+    private BitSet getHOrANodesForNode(CsrGraph direction, int nodeIndex) {
+        boolean up = isHypernymDirection(direction);
+        ClosureCache memo = up ? hypernymClosures : hyponymClosures;
+        ReachabilityIndex index = up ? hypernymIndex : hyponymIndex;
+        BitSet visited = new BitSet(direction.nodeCount());
+        if (index != null && index.addClosureTo(nodeIndex, visited)) {
+            return visited;
+        }
+        BitSet cached = memo.get(nodeIndex);
+        if (cached != null) {
+            return cached;
+        }
+        int[] stack = STACK.get();
+        int size = 0;
+        stack[size++] = nodeIndex;
+        visited.set(nodeIndex);
+        int expanded = 0;
+        while (size > 0) {
+            if ((++expanded & (CANCEL_CHECK_INTERVAL - 1)) == 0) {
+                checkCancelled(Thread.currentThread());
+            }
+            int node = stack[--size];
+            for (int i = direction.start(node); i < direction.end(node); i++) {
+                int next = direction.target(i);
+                if (visited.get(next)) {
+                    continue;
+                }
+                if (index != null && index.addClosureTo(next, visited)) {
+                    continue;
+                }
+                BitSet nextClosure = memo.get(next);
+                if (nextClosure != null) {
+                    // everything below next is already known, no need to walk it again
+                    visited.or(nextClosure);
+                    continue;
+                }
+                visited.set(next);
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, size * 2);
+                    STACK.set(stack);
+                }
+                stack[size++] = next;
             }
         }
-        return ans;
+        if (visited.cardinality() >= MEMO_MIN_NODES) {
+            memo.put(nodeIndex, visited);
+        }
+        return visited;
     }
 
-    /** Return words which are hyponyms or ancestors of all words in the list, based on the given hashMap. */
-    public List<String> getHOrAForListOfWords(HashMap<Integer, HashSet<Integer>> hashMap, List<String> words) {
-        HashSet<String> commonHOrA = getHOrAForSingleWord(hashMap, words.getFirst());
-        for (int i = 1; i < words.size(); i++) {
-            commonHOrA.retainAll(getHOrAForSingleWord(hashMap, words.get(i)));
+    /**
+     * Returns true for getHypernymGraph and false for getHyponymGraph. Closures are memoized per
+     * direction, so any other graph is refused with an IllegalArgumentException rather than
+     * being traversed and cached as if it were one of them.
+     */
+    private boolean isHypernymDirection(CsrGraph direction) {
+        if (direction == hypernymGraph) {
+            return true;
+        }
+        if (direction == hyponymGraph) {
+            return false;
+        }
+        throw new IllegalArgumentException("The direction must be getHyponymGraph() or getHypernymGraph()");
+    }
+
+    /** Return words which are hyponyms or ancestors of all words in the list, based on the given direction. */
+    public List<String> getHOrAForListOfWords(CsrGraph direction, List<String> words) {
+        return getHOrAForListOfWords(direction, words, null, 1);
+    }
+
+    /**
+     * Same as the method above, but the closures of the words are computed on POOL, using at
+     * most PARALLELISM threads (the calling thread included) for this one query. POOL may be
+     * null to do everything on the calling thread. The result is the same either way.
+     */
+    public List<String> getHOrAForListOfWords(CsrGraph direction, List<String> words,
+                                              ForkJoinPool pool, int parallelism) {
+        List<String> list = new ArrayList<>();
+        for (int wordId : getHOrAIdsForListOfWords(direction, words, pool, parallelism)) {
+            list.add(dictionary.word(wordId));
         }
-        List<String> list = new ArrayList<>(commonHOrA);
-        Collections.sort(list);
         return list;
     }
 
+    /**
+     * Same as the method above, but returns sorted dictionary ids (which sorts the words too).
+     * The closures are intersected as node bitsets, smallest first, and only the words of the
+     * smallest closure are ever looked at. A word survives if any node containing it is in every
+     * other closure, which is the same as intersecting the words of each closure.
+     */
+    private int[] getHOrAIdsForListOfWords(CsrGraph direction, List<String> words,
+                                           ForkJoinPool pool, int parallelism) {
+        // translate each word to its id once, everything below works on ids
+        int[] wordIds = new int[words.size()];
+        for (int i = 0; i < wordIds.length; i++) {
+            wordIds[i] = dictionary.id(words.get(i));
+            if (wordIds[i] < 0) {
+                // an unknown word has no hyponyms or ancestors, so nothing is common to all
+                return new int[0];
+            }
+        }
+        BitSet[] closures = getHOrANodesForWords(direction, wordIds, pool, parallelism);
+        int smallest = 0;
+        for (int i = 0; i < wordIds.length; i++) {
+            if (closures[i].cardinality() < closures[smallest].cardinality()) {
+                smallest = i;
+            }
+        }
+        BitSet[] others = new BitSet[closures.length - 1];
+        for (int i = 0, j = 0; i < closures.length; i++) {
+            if (i != smallest) {
+                others[j++] = closures[i];
+            }
+        }
+        Arrays.sort(others, Comparator.comparingInt(BitSet::cardinality));
+
+        BitSet common = nodesToWordIds(closures[smallest]);
+        for (BitSet closure : others) {
+            checkCancelled(Thread.currentThread());
+            for (int wordId = common.nextSetBit(0); wordId >= 0; wordId = common.nextSetBit(wordId + 1)) {
+                if (!containsAnyNodeOf(closure, wordId)) {
+                    common.clear(wordId);
+                }
+            }
+            if (common.isEmpty()) {
+                break;
+            }
+        }
+        return common.stream().toArray();
+    }
+
+    /**
+     * Returns the closure of each word in WORDIDS. With a POOL, the words are dealt out to at most
+     * PARALLELISM slices; the calling thread works on the first one while the pool runs the rest.
+     */
+    private BitSet[] getHOrANodesForWords(CsrGraph direction, int[] wordIds,
+                                         ForkJoinPool pool, int parallelism) {
+        BitSet[] closures = new BitSet[wordIds.length];
+        int slices = pool == null ? 1 : Math.min(Math.max(parallelism, 1), wordIds.length);
+        List<ForkJoinTask<?>> forked = new ArrayList<>();
+        // the pool's threads are never interrupted themselves, so they watch the caller's thread
+        Thread caller = Thread.currentThread();
+        for (int slice = 1; slice < slices; slice++) {
+            int first = slice;
+            forked.add(pool.submit(() -> fillClosures(direction, wordIds, first, slices, closures, caller)));
+        }
+        fillClosures(direction, wordIds, 0, slices, closures, caller);
+        for (ForkJoinTask<?> task : forked) {
+            task.join();
+        }
+        return closures;
+    }
+
+    /**
+     * Computes the closures of WORDIDS[FIRST], WORDIDS[FIRST + STEP], ... into CLOSURES, giving
+     * up between words if CALLER (the thread the query runs for) has been interrupted.
+     */
+    private void fillClosures(CsrGraph direction, int[] wordIds, int first, int step, BitSet[] closures,
+                              Thread caller) {
+        for (int i = first; i < wordIds.length; i += step) {
+            checkCancelled(caller);
+            closures[i] = getHOrANodesForWord(direction, wordIds[i]);
+        }
+    }
+
+    /**
+     * Throws a CancellationException if THREAD has been interrupted, which is how a query that ran
+     * past its time is told to stop (see browser.AdmissionControl). The flag is left set.
+     */
+    private static void checkCancelled(Thread thread) {
+        if (thread.isInterrupted()) {
+            throw new CancellationException("The query was cancelled");
+        }
+    }
+
+    /** Returns true if NODES contains at least one of the nodes containing word WORDID. */
+    private boolean containsAnyNodeOf(BitSet nodes, int wordId) {
+        for (int i = wordNodes.start(wordId); i < wordNodes.end(wordId); i++) {
+            if (nodes.get(wordNodes.target(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Return top k words which are hyponyms or ancestors of all words in the list (between startYear and endYear).
      * If k < 0, we should return an empty list,
      * If k == 0, we should call the method above,
      * If k > 0, we should select the top k hyponyms or ancestors of all words in the list.
      * The k words which occurred the most times in the time range requested.
-     * For words with the same counts, we can break ties alphabetically, or randomly, or not at all.
+     * For words with the same counts, ties are broken alphabetically (the earlier word wins).
+     */
+    public List<String> getTopKHOrAForListOfWords(List<String> words,
+                                                  int startYear, int endYear, int k,
+                                                  NGramMap nGramMap,
+                                                  CsrGraph direction) {
+        return getTopKHOrAForListOfWords(words, startYear, endYear, k, nGramMap, direction, null, 1);
+    }
+
+    /**
+     * Same as the method above, but the closures and the count lookups run on POOL, using at
+     * most PARALLELISM threads (the calling thread included) for this one query. POOL may be
+     * null to do everything on the calling thread. The result is the same either way.
      */
     public List<String> getTopKHOrAForListOfWords(List<String> words,
                                                   int startYear, int endYear, int k,
                                                   NGramMap nGramMap,
-                                                  HashMap<Integer, HashSet<Integer>> hashMap) {
-        List<String> allHOrA = getHOrAForListOfWords(hashMap, words);
+                                                  CsrGraph direction,
+                                                  ForkJoinPool pool, int parallelism) {
         if (k < 0) {
             return new ArrayList<>();
         }
+        int[] allHOrA;
+        Timer.Sample closuresSample = CLOSURES_TIMER.time();
+        try {
+            allHOrA = getHOrAIdsForListOfWords(direction, words, pool, parallelism);
+        } finally {
+            closuresSample.stop();
+        }
+        int[] selected = allHOrA;
         if (k > 0) {
-            for (String hOrA: allHOrA) {
-                totalCountHM.put(hOrA, getTotalCountOfAWordInSomeTimeRange(nGramMap, hOrA, startYear, endYear));
-            }
-            PriorityQueue<String> topKHOrAPQ =
-                    new PriorityQueue<>((s1, s2) -> Double.compare(totalCountHM.get(s1), totalCountHM.get(s2)));
-            for (String hOrA: allHOrA) {
-                if (totalCountHM.get(hOrA) > 0) {
-                    topKHOrAPQ.add(hOrA);
-                }
-                if (topKHOrAPQ.size() > k) {
-                    topKHOrAPQ.poll();
-                }
+            // For words not stored in the ngrams data folder, the count will be 0
+            // some words may appear in hyponyms and synset but not in total_xxx_words (e.g., colloacations, etc)
+            double[] counts;
+            Timer.Sample countsSample = COUNTS_TIMER.time();
+            try {
+                counts = pool == null
+                        ? nGramMap.totalCounts(dictionary, allHOrA, startYear, endYear)
+                        : nGramMap.totalCounts(dictionary, allHOrA, startYear, endYear, pool, parallelism);
+            } finally {
+                countsSample.stop();
+            }
+            Timer.Sample topKSample = TOP_K_TIMER.time();
+            try {
+                selected = TopK.select(allHOrA, counts, k);
+            } finally {
+                topKSample.stop();
             }
-            List<String> list = new ArrayList<>(topKHOrAPQ);
-            Collections.sort(list);
-            return list;
         }
-        return allHOrA;
-    }
-
-    private double getTotalCountOfAWordInSomeTimeRange(NGramMap nGramMap, String word, int startYear, int endYear) {
-        // For words not stored in the ngrams data folder, this will return a 0
-        // some words may appear in hyponyms and synset but not in total_xxx_words (e.g., colloacations, etc)
-        TimeSeries wordCountTS = nGramMap.countHistory(word, startYear, endYear);
-        return wordCountTS.data().stream().mapToDouble(Double::doubleValue).sum();
+        List<String> list = new ArrayList<>();
+        for (int wordId : selected) {
+            list.add(dictionary.word(wordId));
+        }
+        return list;
     }
 }
@@ -0,0 +1,213 @@
+package browser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class AdmissionControlTest {
+
+    /** Waits up to five seconds for CONDITION to hold. */
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the condition");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /** Returns a control with LIMITS for a route that is never called (only call is used). */
+    private static AdmissionControl control(RouteLimits limits, ExecutorService workers) {
+        return new AdmissionControl((request, response) -> "", limits, workers);
+    }
+
+    /** Starts a thread that calls CONTROL with a task waiting for RELEASE, and waits until it runs. */
+    private static Thread hold(AdmissionControl control, CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                control.call(() -> {
+                    started.countDown();
+                    release.await();
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holder.start();
+        started.await();
+        return holder;
+    }
+
+    @Test
+    public void testRouteLimitsRejectsBadValues() {
+        assertThrows(IllegalArgumentException.class, () -> new RouteLimits(0, 1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RouteLimits(1, -1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RouteLimits(1, 1, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RouteLimits(1, 1, 0, -1));
+    }
+
+    @Test
+    public void testTimeoutNeedsWorkers() {
+        assertThrows(IllegalArgumentException.class, () -> control(new RouteLimits(1, 1, 0, 100), null));
+    }
+
+    @Test
+    public void testRunsAndCounts() throws Exception {
+        AdmissionControl control = control(new RouteLimits(2, 0, 0, 0), null);
+        assertThat(control.call(() -> "cat")).isEqualTo("cat");
+        assertThat(control.call(() -> "dog")).isEqualTo("dog");
+        assertThat(control.admitted()).isEqualTo(2);
+        assertThat(control.rejected()).isEqualTo(0);
+        assertThat(control.running()).isEqualTo(0);
+    }
+
+    @Test
+    public void testTurnsAwayBeyondTheQueue() throws Exception {
+        AdmissionControl control = control(new RouteLimits(1, 1, 10_000, 0), null);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(control, release);
+        Thread waiter = new Thread(() -> {
+            try {
+                control.call(() -> null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        awaitUntil(() -> control.queued() == 1);
+
+        // one running and one waiting, so there is no room for a third
+        assertThrows(RejectedExecutionException.class, () -> control.call(() -> null));
+        assertThat(control.rejected()).isEqualTo(1);
+
+        release.countDown();
+        holder.join();
+        waiter.join();
+        assertThat(control.admitted()).isEqualTo(2);
+        assertThat(control.queued()).isEqualTo(0);
+        assertThat(control.running()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGivesUpWaitingAfterTheQueueTimeout() throws Exception {
+        AdmissionControl control = control(new RouteLimits(1, 1, 20, 0), null);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(control, release);
+
+        assertThrows(RejectedExecutionException.class, () -> control.call(() -> null));
+        assertThat(control.queued()).isEqualTo(0);
+
+        release.countDown();
+        holder.join();
+    }
+
+    @Test
+    public void testWaitersRunInTheOrderTheyArrived() throws Exception {
+        AdmissionControl control = control(new RouteLimits(1, 5, 10_000, 0), null);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(control, release);
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int id = i;
+            Thread waiter = new Thread(() -> {
+                try {
+                    control.call(() -> order.add(id));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            waiter.start();
+            waiters.add(waiter);
+            // so each one is known to have arrived before the next
+            awaitUntil(() -> control.queued() == id + 1);
+        }
+
+        release.countDown();
+        holder.join();
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+        assertThat(order).containsExactly(0, 1, 2, 3, 4).inOrder();
+    }
+
+    @Test
+    public void testTimedOutTaskKeepsItsPermitUntilItStops() throws Exception {
+        ExecutorService workers = Executors.newCachedThreadPool();
+        try {
+            AdmissionControl control = control(new RouteLimits(1, 0, 0, 20), workers);
+            CountDownLatch finish = new CountDownLatch(1);
+
+            assertThrows(TimeoutException.class, () -> control.call(() -> {
+                // like work that does not check for interrupts
+                while (true) {
+                    try {
+                        finish.await();
+                        return null;
+                    } catch (InterruptedException e) {
+                        // keep going
+                    }
+                }
+            }));
+            assertThat(control.timedOut()).isEqualTo(1);
+            assertThat(control.running()).isEqualTo(1);
+            assertThrows(RejectedExecutionException.class, () -> control.call(() -> null));
+
+            finish.countDown();
+            awaitUntil(() -> control.running() == 0);
+            assertThat(control.call(() -> "cat")).isEqualTo("cat");
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTaskCancelledBeforeStartingGivesItsPermitBack() throws Exception {
+        // one worker, kept busy, so the timed task never gets to start
+        ExecutorService workers = Executors.newFixedThreadPool(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            workers.submit(() -> {
+                release.await();
+                return null;
+            });
+            AdmissionControl control = control(new RouteLimits(1, 0, 0, 20), workers);
+            assertThrows(TimeoutException.class, () -> control.call(() -> "never"));
+            assertThat(control.running()).isEqualTo(0);
+        } finally {
+            release.countDown();
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPassesOnWhatTheTaskThrows() throws Exception {
+        ExecutorService workers = Executors.newCachedThreadPool();
+        try {
+            AdmissionControl control = control(new RouteLimits(1, 0, 0, 1000), workers);
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> control.call(() -> {
+                throw new IllegalArgumentException("bad words");
+            }));
+            assertThat(e.getMessage()).isEqualTo("bad words");
+            assertThat(control.running()).isEqualTo(0);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+}
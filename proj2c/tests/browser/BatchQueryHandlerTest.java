@@ -0,0 +1,126 @@
+package browser;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BatchQueryHandlerTest {
+    private static final Pattern INDEX = Pattern.compile("\"index\":(\\d+)");
+
+    /** A handler that answers with the words it was asked about. */
+    private static final NgordnetQueryHandler ECHO = new NgordnetQueryHandler() {
+        @Override
+        public String handle(NgordnetQuery q) {
+            return q.words().toString();
+        }
+    };
+
+    /** Answers the batch BODY with a handler for HANDLERS, and returns the response lines by index. */
+    private static Map<Integer, String> answer(String body, Map<String, NgordnetQueryHandler> handlers,
+                                               long itemTimeoutMillis) throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            BatchQueryHandler batch = new BatchQueryHandler(handlers, executor, 2, 10, itemTimeoutMillis);
+            BatchQueryHandler.Item[] items = BatchQueryHandler.parse(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            batch.answer(items, out);
+
+            Map<Integer, String> lines = new HashMap<>();
+            for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+                Matcher index = INDEX.matcher(line);
+                assertThat(index.find()).isTrue();
+                assertThat(lines.put(Integer.parseInt(index.group(1)), line)).isNull();
+            }
+            assertThat(lines).hasSize(items.length);
+            return lines;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejectsBodiesThatAreNotArrays() {
+        assertThat(BatchQueryHandler.parse("{\"route\": \"hyponyms\"}")).isNull();
+        assertThat(BatchQueryHandler.parse("not json")).isNull();
+    }
+
+    @Test
+    public void testAnswersMalformedItemsWithErrors() throws Exception {
+        String body = "[null, {\"words\": \"cat\"}, {\"route\": \"hyponyms\"}, "
+                + "{\"route\": \"nope\", \"words\": \"cat\"}, {\"route\": \"hyponyms\", \"words\": \"cat, dog\"}]";
+        Map<Integer, String> lines = answer(body, Map.of("hyponyms", ECHO), 0);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(lines.get(i)).contains("\"error\":");
+            assertThat(lines.get(i)).contains("at least");
+        }
+        assertThat(lines.get(3)).contains("Unknown route");
+        assertThat(lines.get(4)).contains("\"result\":");
+        assertThat(lines.get(4)).contains("[cat, dog]");
+    }
+
+    @Test
+    public void testAnswersIdenticalQueriesOnce() throws Exception {
+        int[] calls = new int[1];
+        NgordnetQueryHandler counting = new NgordnetQueryHandler() {
+            @Override
+            public synchronized String handle(NgordnetQuery q) {
+                calls[0] += 1;
+                return q.words().toString();
+            }
+        };
+        String body = "[{\"route\": \"hyponyms\", \"words\": \"cat\"}, {\"route\": \"hyponyms\", \"words\": \"cat\"}]";
+        Map<Integer, String> lines = answer(body, Map.of("hyponyms", counting), 0);
+        assertThat(lines.get(0)).contains("[cat]");
+        assertThat(lines.get(1)).contains("[cat]");
+        assertThat(calls[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void testAnErrorOnlyFailsItsOwnQuery() throws Exception {
+        NgordnetQueryHandler broken = new NgordnetQueryHandler() {
+            @Override
+            public String handle(NgordnetQuery q) {
+                throw new AssertionError("broken handler");
+            }
+        };
+        String body = "[{\"route\": \"broken\", \"words\": \"cat\"}, {\"route\": \"echo\", \"words\": \"dog\"}]";
+        Map<Integer, String> lines = answer(body, Map.of("broken", broken, "echo", ECHO), 0);
+        assertThat(lines.get(0)).contains("broken handler");
+        assertThat(lines.get(1)).contains("[dog]");
+    }
+
+    @Test
+    public void testCancelsQueriesPastTheItemTimeout() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        NgordnetQueryHandler slow = new NgordnetQueryHandler() {
+            @Override
+            public String handle(NgordnetQuery q) {
+                try {
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "too late";
+            }
+        };
+        String body = "[{\"route\": \"slow\", \"words\": \"cat\"}, {\"route\": \"echo\", \"words\": \"dog\"}]";
+        long start = System.nanoTime();
+        Map<Integer, String> lines = answer(body, Map.of("slow", slow, "echo", ECHO), 50);
+
+        assertThat(lines.get(0)).contains(AdmissionControl.TIMED_OUT);
+        assertThat(lines.get(1)).contains("[dog]");
+        assertThat(System.nanoTime() - start).isLessThan(10_000_000_000L);
+        interrupted.await();
+    }
+}
@@ -0,0 +1,150 @@
+package browser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CachingQueryHandlerTest {
+    /** A handler that answers with the words it was asked about and counts how often it was asked. */
+    private static final class CountingHandler extends NgordnetQueryHandler {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String handle(NgordnetQuery q) {
+            calls.incrementAndGet();
+            return q.words().toString();
+        }
+    }
+
+    private static NgordnetQuery query(NgordnetQueryType type, String... words) {
+        return new NgordnetQuery(List.of(words), 1900, 2000, 0, type);
+    }
+
+    /** Returns a cache in front of DELEGATE where only COMMON_ANCESTOR queries depend on word order. */
+    private static CachingQueryHandler cache(NgordnetQueryHandler delegate, AtomicLong version) {
+        return new CachingQueryHandler(delegate, q -> q.ngordnetQueryType() == NgordnetQueryType.COMMON_ANCESTOR,
+                1000, 1 << 20, version::get);
+    }
+
+    @Test
+    public void testTrimmedWordsShareAnEntry() {
+        CountingHandler delegate = new CountingHandler();
+        CachingQueryHandler cache = cache(delegate, new AtomicLong());
+        assertThat(cache.handle(query(NgordnetQueryType.COMMON_ANCESTOR, "cat", "dog"))).isEqualTo("[cat, dog]");
+        assertThat(cache.handle(query(NgordnetQueryType.COMMON_ANCESTOR, " cat", "dog  ")))
+                .isEqualTo("[cat, dog]");
+        assertThat(delegate.calls.get()).isEqualTo(1);
+        assertThat(cache.hits()).isEqualTo(1L);
+        assertThat(cache.misses()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testOrderAndDuplicatesOnlyMatterWhenTheHandlerSaysSo() {
+        CountingHandler delegate = new CountingHandler();
+        CachingQueryHandler cache = cache(delegate, new AtomicLong());
+        cache.handle(query(NgordnetQueryType.HYPONYMS, "dog", "cat"));
+        cache.handle(query(NgordnetQueryType.HYPONYMS, "cat", "dog"));
+        cache.handle(query(NgordnetQueryType.HYPONYMS, "cat", " dog", "cat"));
+        assertThat(delegate.calls.get()).isEqualTo(1);
+
+        // the order of a common ancestor query is part of the key
+        cache.handle(query(NgordnetQueryType.COMMON_ANCESTOR, "dog", "cat"));
+        cache.handle(query(NgordnetQueryType.COMMON_ANCESTOR, "cat", "dog"));
+        assertThat(delegate.calls.get()).isEqualTo(3);
+
+        // and so are the query type, the years and k
+        cache.handle(query(NgordnetQueryType.ANCESTORS, "cat", "dog"));
+        cache.handle(new NgordnetQuery(List.of("cat", "dog"), 1900, 2001, 0, NgordnetQueryType.HYPONYMS));
+        cache.handle(new NgordnetQuery(List.of("cat", "dog"), 1900, 2000, 5, NgordnetQueryType.HYPONYMS));
+        assertThat(delegate.calls.get()).isEqualTo(6);
+    }
+
+    @Test
+    public void testNewDataVersionComputesAgain() {
+        CountingHandler delegate = new CountingHandler();
+        AtomicLong version = new AtomicLong();
+        CachingQueryHandler cache = cache(delegate, version);
+        NgordnetQuery q = query(NgordnetQueryType.HYPONYMS, "cat");
+        cache.handle(q);
+        cache.handle(q);
+        assertThat(delegate.calls.get()).isEqualTo(1);
+
+        version.incrementAndGet();
+        cache.handle(q);
+        assertThat(delegate.calls.get()).isEqualTo(2);
+        assertThat(cache.evictions()).isEqualTo(1L);
+        // the recomputed response is cached for the new version
+        cache.handle(q);
+        assertThat(delegate.calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testStaysWithinItsBudget() {
+        CountingHandler delegate = new CountingHandler();
+        CachingQueryHandler cache = new CachingQueryHandler(delegate, q -> false, 1000, 4096, () -> 0);
+        for (int i = 0; i < 200; i++) {
+            cache.handle(query(NgordnetQueryType.HYPONYMS, "word" + i));
+            assertThat(cache.sizeInBytes()).isAtMost(4096L);
+        }
+        assertThat(cache.evictions()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void testStaysWithinItsEntryBudget() {
+        CountingHandler delegate = new CountingHandler();
+        // tiny responses that would never fill the bytes
+        CachingQueryHandler cache = new CachingQueryHandler(delegate, q -> false, 10, 1 << 20, () -> 0);
+        for (int i = 0; i < 200; i++) {
+            cache.handle(query(NgordnetQueryType.HYPONYMS, "w" + i));
+            assertThat(cache.entries()).isAtMost(10);
+        }
+        assertThat(cache.evictions()).isEqualTo(190L);
+
+        // a response hit twice is protected from a stream of new ones
+        NgordnetQuery hot = query(NgordnetQueryType.HYPONYMS, "hot");
+        cache.handle(hot);
+        cache.handle(hot);
+        for (int i = 0; i < 20; i++) {
+            cache.handle(query(NgordnetQueryType.HYPONYMS, "cold" + i));
+        }
+        int calls = delegate.calls.get();
+        cache.handle(hot);
+        assertThat(delegate.calls.get()).isEqualTo(calls);
+        assertThat(cache.entries()).isEqualTo(10);
+    }
+
+    @Test
+    public void testCachedNeverComputes() {
+        CountingHandler delegate = new CountingHandler();
+        AtomicLong version = new AtomicLong();
+        CachingQueryHandler cache = cache(delegate, version);
+        NgordnetQuery q = query(NgordnetQueryType.HYPONYMS, "cat", "dog");
+        assertThat(cache.cached(q)).isNull();
+        assertThat(delegate.calls.get()).isEqualTo(0);
+        assertThat(cache.hits()).isEqualTo(0L);
+
+        cache.handle(q);
+        assertThat(cache.cached(query(NgordnetQueryType.HYPONYMS, "dog", "cat"))).isEqualTo("[cat, dog]");
+        assertThat(cache.hits()).isEqualTo(1L);
+        assertThat(delegate.calls.get()).isEqualTo(1);
+
+        // nor answers from old data
+        version.incrementAndGet();
+        assertThat(cache.cached(q)).isNull();
+        assertThat(delegate.calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRejectsEmptyBudgets() {
+        CountingHandler delegate = new CountingHandler();
+        assertThrows(IllegalArgumentException.class,
+                () -> new CachingQueryHandler(delegate, q -> false, 0, 4096, () -> 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CachingQueryHandler(delegate, q -> false, 10, 0, () -> 0));
+    }
+}
@@ -0,0 +1,129 @@
+package dictionary;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WordDictionaryTest {
+    /** Returns a dictionary written with writeTo and read back with readFrom. */
+    private static WordDictionary roundTrip(WordDictionary dictionary) {
+        ByteBuffer buffer = ByteBuffer.allocate(dictionary.encodedSize());
+        dictionary.writeTo(buffer);
+        assertThat(buffer.remaining()).isEqualTo(0);
+        buffer.flip();
+        WordDictionary reread = WordDictionary.readFrom(buffer);
+        assertThat(buffer.remaining()).isEqualTo(0);
+        return reread;
+    }
+
+    @Test
+    public void testIdsFollowAlphabeticalOrder() {
+        WordDictionary dictionary = WordDictionary.of(List.of("dog", "cat", "zebra", "ant", "cat"));
+        assertThat(dictionary.size()).isEqualTo(4);
+        assertThat(dictionary.id("ant")).isEqualTo(0);
+        assertThat(dictionary.id("cat")).isEqualTo(1);
+        assertThat(dictionary.id("dog")).isEqualTo(2);
+        assertThat(dictionary.id("zebra")).isEqualTo(3);
+        for (int id = 0; id < dictionary.size(); id++) {
+            assertThat(dictionary.id(dictionary.word(id))).isEqualTo(id);
+        }
+    }
+
+    @Test
+    public void testMissingWordsAreMinusOne() {
+        WordDictionary dictionary = WordDictionary.of(List.of("cat", "dog"));
+        assertThat(dictionary.id("unicorn")).isEqualTo(-1);
+        assertThat(dictionary.id("")).isEqualTo(-1);
+        assertThat(dictionary.id("Cat")).isEqualTo(-1);
+        assertThat(dictionary.id("cat ")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testEmptyAndOneWordDictionaries() {
+        WordDictionary empty = WordDictionary.of(List.of());
+        assertThat(empty.size()).isEqualTo(0);
+        assertThat(empty.id("cat")).isEqualTo(-1);
+        assertThat(roundTrip(empty).size()).isEqualTo(0);
+
+        WordDictionary one = WordDictionary.of(List.of("cat"));
+        assertThat(one.size()).isEqualTo(1);
+        assertThat(one.id("cat")).isEqualTo(0);
+        assertThat(one.word(0)).isEqualTo("cat");
+        assertThat(one.id("dog")).isEqualTo(-1);
+        assertThat(roundTrip(one).id("cat")).isEqualTo(0);
+    }
+
+    @Test
+    public void testProbesPastCollidingHashes() {
+        // "Aa" and "BB" have the same hashCode, and so does every string built from them
+        List<String> colliding = new ArrayList<>();
+        for (String a : new String[]{"Aa", "BB"}) {
+            for (String b : new String[]{"Aa", "BB"}) {
+                for (String c : new String[]{"Aa", "BB"}) {
+                    colliding.add(a + b + c);
+                }
+            }
+        }
+        for (String word : colliding) {
+            assertThat(word.hashCode()).isEqualTo(colliding.get(0).hashCode());
+        }
+        List<String> words = new ArrayList<>(colliding);
+        words.add("cat");
+        words.add("dog");
+        WordDictionary dictionary = WordDictionary.of(words);
+        assertThat(dictionary.size()).isEqualTo(10);
+        for (String word : words) {
+            assertThat(dictionary.word(dictionary.id(word))).isEqualTo(word);
+        }
+        // a missing word with the same hash walks the whole run and still comes back -1
+        WordDictionary half = WordDictionary.of(colliding.subList(0, 4));
+        for (String word : colliding.subList(4, 8)) {
+            assertThat(half.id(word)).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void testRoundTripKeepsEveryId() {
+        Random random = new Random(8);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            words.add(Integer.toString(random.nextInt(20_000), 36));
+        }
+        // and words whose UTF-8 is longer than their chars
+        words.add("café");
+        words.add("日本");
+        WordDictionary dictionary = WordDictionary.of(words);
+        WordDictionary reread = roundTrip(dictionary);
+        assertThat(reread.size()).isEqualTo(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) {
+            assertThat(reread.word(id)).isEqualTo(dictionary.word(id));
+            assertThat(reread.id(dictionary.word(id))).isEqualTo(id);
+        }
+        assertThat(reread.id("unicorn!")).isEqualTo(-1);
+        assertThat(reread.translate(dictionary)[reread.id("café")]).isEqualTo(dictionary.id("café"));
+    }
+
+    @Test
+    public void testTranslatesBetweenDictionaries() {
+        WordDictionary small = WordDictionary.of(List.of("cat", "dog", "emu"));
+        WordDictionary large = WordDictionary.of(List.of("ant", "cat", "dog"));
+        int[] translation = small.translate(large);
+        assertThat(translation[small.id("cat")]).isEqualTo(large.id("cat"));
+        assertThat(translation[small.id("dog")]).isEqualTo(large.id("dog"));
+        assertThat(translation[small.id("emu")]).isEqualTo(-1);
+    }
+
+    @Test
+    public void testRejectsCorruptLengths() {
+        ByteBuffer tooManyWords = ByteBuffer.allocate(8).putInt(1_000_000).putInt(0).flip();
+        assertThrows(IllegalArgumentException.class, () -> WordDictionary.readFrom(tooManyWords));
+        ByteBuffer negativeLength = ByteBuffer.allocate(8).putInt(1).putInt(-1).flip();
+        assertThrows(IllegalArgumentException.class, () -> WordDictionary.readFrom(negativeLength));
+    }
+}
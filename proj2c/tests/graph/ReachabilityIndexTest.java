@@ -0,0 +1,162 @@
+package graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReachabilityIndexTest {
+    private static final int NODES = 200;
+
+    @TempDir
+    Path dir;
+
+    /** Returns a random DAG of N nodes, with edges only from lower to higher nodes. */
+    private static CsrGraph randomDag(int n, long seed) {
+        Random random = new Random(seed);
+        int[][] lists = new int[n][];
+        for (int v = 0; v < n; v++) {
+            int degree = v == n - 1 ? 0 : random.nextInt(4);
+            lists[v] = new int[degree];
+            for (int i = 0; i < degree; i++) {
+                lists[v][i] = v + 1 + random.nextInt(Math.min(n - v - 1, 30));
+            }
+        }
+        return CsrGraph.of(lists);
+    }
+
+    /** Returns every node reachable from START, by a plain breadth-first search. */
+    private static BitSet closure(CsrGraph graph, int start) {
+        BitSet seen = new BitSet(graph.nodeCount());
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        seen.set(start);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            for (int next : graph.targets(queue.poll())) {
+                if (!seen.get(next)) {
+                    seen.set(next);
+                    queue.add(next);
+                }
+            }
+        }
+        return seen;
+    }
+
+    private static void assertMatchesSearch(ReachabilityIndex index, CsrGraph graph) {
+        for (int from = 0; from < graph.nodeCount(); from++) {
+            BitSet expected = closure(graph, from);
+            for (int to = 0; to < graph.nodeCount(); to++) {
+                assertThat(index.isReachable(from, to)).isEqualTo(expected.get(to));
+            }
+            BitSet stored = new BitSet(graph.nodeCount());
+            if (index.addClosureTo(from, stored)) {
+                assertThat(stored).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testAgreesWithSearchForAnyBudget() {
+        CsrGraph graph = randomDag(NODES, 13);
+        for (long budget : new long[]{0, 2000, Long.MAX_VALUE}) {
+            assertMatchesSearch(ReachabilityIndex.build(graph, budget), graph);
+        }
+    }
+
+    @Test
+    public void testStaysWithinItsBudget() {
+        CsrGraph graph = randomDag(NODES, 14);
+        ReachabilityIndex none = ReachabilityIndex.build(graph, 0);
+        ReachabilityIndex some = ReachabilityIndex.build(graph, 2000);
+        ReachabilityIndex all = ReachabilityIndex.build(graph, Long.MAX_VALUE);
+
+        assertThat(none.sizeInBytes()).isEqualTo(0L);
+        assertThat(some.sizeInBytes()).isAtMost(2000L);
+        int covered = 0;
+        for (int v = 0; v < NODES; v++) {
+            assertThat(none.covers(v)).isFalse();
+            assertThat(all.covers(v)).isTrue();
+            covered += some.covers(v) ? 1 : 0;
+        }
+        // a budget that fits some closures but not all of them
+        assertThat(covered).isGreaterThan(0);
+        assertThat(covered).isLessThan(NODES);
+    }
+
+    @Test
+    public void testRoundTripsThroughAFile() throws IOException {
+        CsrGraph graph = randomDag(NODES, 15);
+        ReachabilityIndex index = ReachabilityIndex.build(graph, 2000);
+        Path file = dir.resolve("index");
+        index.write(file);
+        ReachabilityIndex reread = ReachabilityIndex.read(file, graph);
+
+        assertThat(reread.sizeInBytes()).isEqualTo(index.sizeInBytes());
+        for (int v = 0; v < NODES; v++) {
+            assertThat(reread.covers(v)).isEqualTo(index.covers(v));
+        }
+        assertMatchesSearch(reread, graph);
+
+        Path again = dir.resolve("again");
+        reread.write(again);
+        assertThat(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(again))).isTrue();
+    }
+
+    @Test
+    public void testRejectsAnIndexOfAnotherGraph() throws IOException {
+        Path file = dir.resolve("index");
+        ReachabilityIndex.build(randomDag(NODES, 16), 2000).write(file);
+        assertThrows(IOException.class, () -> ReachabilityIndex.read(file, randomDag(NODES + 1, 16)));
+    }
+
+    @Test
+    public void testRejectsAnIndexOfAGraphOfTheSameSize() throws IOException {
+        // the same nodes and number of edges, with one edge pointing elsewhere
+        int[][] lists = {{1, 2}, {3}, {3}, {}};
+        int[][] moved = {{1, 2}, {2}, {3}, {}};
+        CsrGraph graph = CsrGraph.of(lists);
+        CsrGraph other = CsrGraph.of(moved);
+        assertThat(other.nodeCount()).isEqualTo(graph.nodeCount());
+        assertThat(other.edgeCount()).isEqualTo(graph.edgeCount());
+        assertThat(other.checksum()).isNotEqualTo(graph.checksum());
+
+        Path file = dir.resolve("index");
+        ReachabilityIndex.build(graph, Long.MAX_VALUE).write(file);
+        assertThrows(IOException.class, () -> ReachabilityIndex.read(file, other));
+        assertThat(ReachabilityIndex.read(file, CsrGraph.of(lists)).isReachable(0, 3)).isTrue();
+    }
+
+    @Test
+    public void testRejectsTruncatedOrCorruptFiles() throws IOException {
+        CsrGraph graph = randomDag(NODES, 17);
+        Path file = dir.resolve("index");
+        ReachabilityIndex.build(graph, Long.MAX_VALUE).write(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        for (int length : new int[]{0, 5, 32, bytes.length / 2, bytes.length - 1}) {
+            Path truncated = dir.resolve("truncated" + length);
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> ReachabilityIndex.read(truncated, graph));
+        }
+
+        Path trailing = dir.resolve("trailing");
+        Files.write(trailing, Arrays.copyOf(bytes, bytes.length + 1));
+        assertThrows(IOException.class, () -> ReachabilityIndex.read(trailing, graph));
+
+        // the kind byte of the first node, just after the 32-byte header
+        byte[] badKind = bytes.clone();
+        badKind[32] = 9;
+        Path corrupt = dir.resolve("badKind");
+        Files.write(corrupt, badKind);
+        assertThrows(IOException.class, () -> ReachabilityIndex.read(corrupt, graph));
+    }
+}
@@ -0,0 +1,113 @@
+package metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MetricsTest {
+    /** Returns the lines of a scrape that belong to metrics whose names start with NAME. */
+    private static List<String> scrapeLines(String name) {
+        List<String> lines = new ArrayList<>();
+        for (String line : Metrics.scrape(true).split("\n")) {
+            if (line.startsWith(name) || line.startsWith("# HELP " + name) || line.startsWith("# TYPE " + name)) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testBucketsEndOnTheirUpperBounds() {
+        Timer timer = new Timer();
+        // 0 and 1 ns, then exactly 2^10 ns and the durations either side of it
+        for (long nanos : new long[]{0, 1, 1023, 1024, 1025}) {
+            timer.record(nanos);
+        }
+        assertThat(timer.countAtMost(0)).isEqualTo(2L);
+        assertThat(timer.countAtMost(9)).isEqualTo(2L);
+        assertThat(timer.countAtMost(10)).isEqualTo(4L);
+        assertThat(timer.countAtMost(11)).isEqualTo(5L);
+        assertThat(timer.count()).isEqualTo(5L);
+
+        // negative durations (a clock that went back) count as 0
+        timer.record(-5);
+        assertThat(timer.countAtMost(0)).isEqualTo(3L);
+        // and the longest durations land in the last bucket
+        timer.record(Long.MAX_VALUE);
+        assertThat(timer.countAtMost(62)).isEqualTo(6L);
+        assertThat(timer.count()).isEqualTo(7L);
+    }
+
+    @Test
+    public void testTimersScrapeAsHistograms() {
+        Timer timer = Metrics.timer("test_known", "in tests, by case", "case", "known");
+        long[] durations = {0, 1000, 1024, 1025, 1 << 20, 1L << 40};
+        long totalNanos = 0;
+        for (long nanos : durations) {
+            timer.record(nanos);
+            totalNanos += nanos;
+        }
+
+        List<String> expected = new ArrayList<>();
+        expected.add("# HELP test_known_seconds Time spent in tests, by case");
+        expected.add("# TYPE test_known_seconds histogram");
+        for (int power = 10; power <= 36; power++) {
+            // 0, 1000 and 1024 ns are at most 2^10 ns; 1025 at most 2^11; 2^20 at most 2^20; 2^40 beyond them all
+            long count = power < 11 ? 3 : power < 20 ? 4 : 5;
+            String le = Double.toString(Math.scalb(1.0, power) / 1e9);
+            expected.add("test_known_seconds_bucket{case=\"known\",le=\"" + le + "\"} " + count);
+        }
+        expected.add("test_known_seconds_bucket{case=\"known\",le=\"+Inf\"} 6");
+        expected.add("test_known_seconds_sum{case=\"known\"} " + totalNanos / 1e9);
+        expected.add("test_known_seconds_count{case=\"known\"} 6");
+        expected.add("# HELP test_known_allocated_bytes_total Bytes allocated in tests, by case");
+        expected.add("# TYPE test_known_allocated_bytes_total counter");
+        expected.add("test_known_allocated_bytes_total{case=\"known\"} 0");
+        assertThat(scrapeLines("test_known")).containsExactlyElementsIn(expected).inOrder();
+
+        // the first and last bounds, spelled out: about a microsecond and about a minute
+        assertThat(expected.get(2)).contains("le=\"1.024E-6\"");
+        assertThat(expected.get(28)).contains("le=\"68.719476736\"");
+    }
+
+    @Test
+    public void testTimersAreOnlyScrapedWhenEnabled() {
+        Metrics.timer("test_hidden", "in tests", null, null).record(5);
+        assertThat(scrapeLines("test_hidden")).isNotEmpty();
+        assertThat(Metrics.scrape(false)).doesNotContain("test_hidden");
+    }
+
+    @Test
+    public void testCountersAndGauges() {
+        Metrics.counter("test_things_total", "Things\ncounted\\", "kind", "a \"b\"\\\nc", () -> 3);
+        Metrics.gauge("test_ratio", "A ratio", null, null, () -> 0.25);
+        Metrics.gauge("test_big", "A big gauge", null, null, () -> 1e20);
+        Metrics.gauge("test_infinite", "An infinite gauge", null, null, () -> Double.NEGATIVE_INFINITY);
+
+        assertThat(scrapeLines("test_things_total")).containsExactly(
+                "# HELP test_things_total Things\\ncounted\\\\",
+                "# TYPE test_things_total counter",
+                "test_things_total{kind=\"a \\\"b\\\"\\\\\\nc\"} 3").inOrder();
+        assertThat(scrapeLines("test_ratio")).containsExactly(
+                "# HELP test_ratio A ratio", "# TYPE test_ratio gauge", "test_ratio 0.25").inOrder();
+        assertThat(scrapeLines("test_big")).contains("test_big 1.0E20");
+        assertThat(scrapeLines("test_infinite")).contains("test_infinite -Inf");
+
+        // registering again replaces the supplier
+        Metrics.gauge("test_ratio", "A ratio", null, null, () -> 0.5);
+        assertThat(scrapeLines("test_ratio")).contains("test_ratio 0.5");
+    }
+
+    @Test
+    public void testRejectsReusedNames() {
+        Metrics.gauge("test_reused", "A gauge", null, null, () -> 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> Metrics.counter("test_reused", "A gauge", null, null, () -> 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> Metrics.gauge("test_reused", "A gauge", "route", "x", () -> 1));
+    }
+}
@@ -0,0 +1,104 @@
+package ngrams;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class NGramMapIngestTest {
+    @TempDir
+    Path dir;
+
+    private NGramMap smallNGramMap() throws IOException {
+        Path words = Files.writeString(dir.resolve("words.csv"), """
+                cat\t2000\t10\t1
+                cat\t2001\t20\t1
+                dog\t2000\t5\t1
+                """);
+        Path counts = Files.writeString(dir.resolve("counts.csv"), """
+                2000,100,1,1
+                2001,200,1,1
+                """);
+        return new NGramMap(words.toString(), counts.toString());
+    }
+
+    private Path delta(String name, String rows) throws IOException {
+        return Files.writeString(dir.resolve(name), rows);
+    }
+
+    @Test
+    public void testAddsNewWordsAndYears() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        ngm.ingest(delta("new.delta", """
+                bird\t2001\t7\t1
+                cat\t2002\t30\t1
+                2002,300,1,1
+                """));
+        assertThat(ngm.countHistory("bird").keySet()).containsExactly(2001);
+        assertThat(ngm.countHistory("bird").get(2001)).isEqualTo(7.0);
+        assertThat(ngm.countHistory("cat").keySet()).containsExactly(2000, 2001, 2002).inOrder();
+        assertThat(ngm.countHistory("cat").get(2002)).isEqualTo(30.0);
+        assertThat(ngm.totalCountHistory().get(2002)).isEqualTo(300.0);
+        assertThat(ngm.weightHistory("cat").get(2002)).isEqualTo(0.1);
+        // rows the delta does not mention are left as they were
+        assertThat(ngm.countHistory("dog").keySet()).containsExactly(2000);
+        assertThat(ngm.countHistory("dog").get(2000)).isEqualTo(5.0);
+    }
+
+    @Test
+    public void testReplacesExistingRows() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        assertThat(ngm.weightHistory("cat").get(2001)).isEqualTo(0.1);
+        ngm.ingest(delta("replace.delta", """
+                cat\t2001\t50\t1
+                2001,500,1,1
+                """));
+        // replaced, not added to
+        assertThat(ngm.countHistory("cat").get(2001)).isEqualTo(50.0);
+        assertThat(ngm.totalCountHistory().get(2001)).isEqualTo(500.0);
+        assertThat(ngm.weightHistory("cat").get(2001)).isEqualTo(0.1);
+        assertThat(ngm.countHistory("cat").get(2000)).isEqualTo(10.0);
+        assertThat(ngm.totalCountHistory().get(2000)).isEqualTo(100.0);
+        assertThat(ngm.totalCount("cat", 2000, 2001)).isEqualTo(60.0);
+    }
+
+    @Test
+    public void testTotalsOnlyChangeTheWeights() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        assertThat(ngm.weightHistory("dog").get(2000)).isEqualTo(0.05);
+        ngm.ingest(delta("totals.delta", "2000,50,1,1\n"));
+        assertThat(ngm.countHistory("dog").get(2000)).isEqualTo(5.0);
+        assertThat(ngm.weightHistory("dog").get(2000)).isEqualTo(0.1);
+    }
+
+    @Test
+    public void testEachIngestBumpsTheVersion() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        assertThat(ngm.version()).isEqualTo(0L);
+        ngm.ingest(delta("one.delta", "cat\t2003\t1\t1\n"));
+        assertThat(ngm.version()).isEqualTo(1L);
+        // even a delta with nothing in it is a new version
+        ngm.ingest(delta("empty.delta", "\n"));
+        assertThat(ngm.version()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testRejectsMalformedDeltasWhole() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        List<String> malformed = List.of("cat\t2001", "cat\tlate\t5\t1", "cat\t2001\tmany\t1", "2001", "late,5,1,1");
+        for (String line : malformed) {
+            // the good row before the bad one is not merged either
+            Path delta = delta("bad.delta", "cat\t2001\t99\t1\n" + line + "\n");
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ngm.ingest(delta));
+            assertThat(e.getMessage()).isEqualTo("Malformed line in " + delta + ": \"" + line + "\"");
+        }
+        assertThat(ngm.version()).isEqualTo(0L);
+        assertThat(ngm.countHistory("cat").get(2001)).isEqualTo(20.0);
+    }
+}
@@ -0,0 +1,125 @@
+package ngrams;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class NGramMapSnapshotTest {
+    private static final List<String> WORDS = List.of("cat", "dog", "airport", "request", "zebra");
+
+    @TempDir
+    Path dir;
+
+    /** Returns an NGramMap read from small words and counts files written to the temp dir. */
+    private NGramMap fromTextFiles() throws IOException {
+        Path words = dir.resolve("words.csv");
+        Path counts = dir.resolve("counts.csv");
+        Files.writeString(words, """
+                airport\t2007\t175702\t32788
+                airport\t2008\t173294\t31271
+                request\t2005\t646179\t81592
+                request\t2006\t677820\t86967
+                cat\t1900\t12\t3
+                cat\t2000\t4000\t100
+                dog\t1900\t55\t10
+                dog\t1950\t601\t40
+                dog\t2000\t9000\t300
+                """);
+        Files.writeString(counts, """
+                1900,1000000.0,5,6
+                1950,2000000.0,5,6
+                2000,4000000.0,5,6
+                2005,8000000.0,5,6
+                2006,9000000.0,5,6
+                2007,10000000.0,5,6
+                2008,11000000.0,5,6
+                """);
+        return new NGramMap(words.toString(), counts.toString());
+    }
+
+    @Test
+    public void testSnapshotHasTheSameCounts() throws IOException {
+        NGramMap original = fromTextFiles();
+        Path snapshot = dir.resolve("ngrams.snapshot");
+        original.writeSnapshot(snapshot);
+        NGramMap reopened = NGramMap.openSnapshot(snapshot);
+
+        assertThat(reopened.totalCountHistory()).isEqualTo(original.totalCountHistory());
+        for (String word : WORDS) {
+            assertThat(reopened.countHistory(word)).isEqualTo(original.countHistory(word));
+            assertThat(reopened.weightHistory(word)).isEqualTo(original.weightHistory(word));
+            assertThat(reopened.totalCount(word, 1900, 2020)).isEqualTo(original.totalCount(word, 1900, 2020));
+        }
+        assertThat(reopened.countHistory("zebra").size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSnapshotOfASnapshotIsIdentical() throws IOException {
+        Path first = dir.resolve("first.snapshot");
+        Path second = dir.resolve("second.snapshot");
+        fromTextFiles().writeSnapshot(first);
+        NGramMap.openSnapshot(first).writeSnapshot(second);
+        assertThat(Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(second))).isTrue();
+    }
+
+    @Test
+    public void testOverwritingLeavesNoTemporaryFiles() throws IOException {
+        NGramMap original = fromTextFiles();
+        Path snapshot = dir.resolve("ngrams.snapshot");
+        original.writeSnapshot(snapshot);
+        original.writeSnapshot(snapshot);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.filter(file -> file.getFileName().toString().endsWith(".tmp")).count())
+                    .isEqualTo(0L);
+        }
+        assertThat(NGramMap.openSnapshot(snapshot).countHistory("dog")).isEqualTo(original.countHistory("dog"));
+    }
+
+    @Test
+    public void testRejectsTruncatedSnapshots() throws IOException {
+        Path snapshot = dir.resolve("ngrams.snapshot");
+        fromTextFiles().writeSnapshot(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+
+        for (int length : new int[]{0, 3, 20, bytes.length / 2, bytes.length - 1}) {
+            Path truncated = dir.resolve("truncated" + length);
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> NGramMap.openSnapshot(truncated));
+        }
+    }
+
+    @Test
+    public void testRejectsCorruptHeaders() throws IOException {
+        Path snapshot = dir.resolve("ngrams.snapshot");
+        fromTextFiles().writeSnapshot(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+
+        // magic, version, word count, arena size and totals length (the first year of the
+        // totals may be anything), each set to a value no valid snapshot has there
+        for (int offset : new int[]{0, 4, 8, 12, 20}) {
+            byte[] corrupt = bytes.clone();
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, -7);
+            Path file = dir.resolve("corrupt" + offset);
+            Files.write(file, corrupt);
+            assertThrows(IOException.class, () -> NGramMap.openSnapshot(file));
+        }
+    }
+
+    @Test
+    public void testRejectsFilesThatAreNotSnapshots() throws IOException {
+        Path text = dir.resolve("words.csv");
+        fromTextFiles();
+        assertThrows(IOException.class, () -> NGramMap.openSnapshot(text));
+    }
+}
@@ -0,0 +1,152 @@
+package ngrams;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SummedWeightHistoryTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * Writes WORDS random words, each with counts in a random stretch of years with gaps, and a
+     * total for every year from 1400 to 2100, and returns them as an NGramMap.
+     */
+    private NGramMap randomNGramMap(int words, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder wordRows = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            int first = 1400 + random.nextInt(700);
+            int last = Math.min(2100, first + random.nextInt(200));
+            for (int year = first; year <= last; year += 1 + random.nextInt(4)) {
+                wordRows.append(String.format("w%04d\t%d\t%d\t1%n", w, year, 1 + random.nextInt(10_000)));
+            }
+        }
+        StringBuilder totalRows = new StringBuilder();
+        for (int year = 1400; year <= 2100; year++) {
+            totalRows.append(year).append(',').append(1_000_000 + random.nextInt(1_000_000)).append(",1,1\n");
+        }
+        Path wordsFile = Files.writeString(dir.resolve("words" + seed + ".csv"), wordRows);
+        Path countsFile = Files.writeString(dir.resolve("counts" + seed + ".csv"), totalRows);
+        return new NGramMap(wordsFile.toString(), countsFile.toString());
+    }
+
+    /** Returns the sum of the weights of WORDS the way NGramMap used to: dividedBy per word, then plus. */
+    private static TimeSeries sumByPlus(NGramMap ngm, List<String> words, int startYear, int endYear) {
+        TimeSeries totals = ngm.totalCountHistory();
+        TimeSeries sum = new TimeSeries();
+        for (String word : words) {
+            TimeSeries counts = ngm.countHistory(word);
+            if (counts.isEmpty()) {
+                continue;
+            }
+            sum = sum.plus(new TimeSeries(counts.dividedBy(totals), startYear, endYear));
+        }
+        return sum;
+    }
+
+    private static List<String> randomWords(Random random, int count, int vocabulary) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // now and then a word that is not in the data
+            words.add(random.nextInt(20) == 0 ? "missing" + i : String.format("w%04d", random.nextInt(vocabulary)));
+        }
+        return words;
+    }
+
+    private static void assertClose(TimeSeries actual, TimeSeries expected) {
+        assertThat(actual.keySet()).containsExactlyElementsIn(expected.keySet()).inOrder();
+        for (Map.Entry<Integer, Double> entry : expected.entrySet()) {
+            assertThat(actual.get(entry.getKey())).isWithin(1e-12 * entry.getValue()).of(entry.getValue());
+        }
+    }
+
+    @Test
+    public void testSmallExample() throws IOException {
+        Path words = Files.writeString(dir.resolve("small_words.csv"), """
+                cat\t2000\t10\t1
+                cat\t2002\t20\t1
+                dog\t2001\t5\t1
+                dog\t2002\t5\t1
+                """);
+        Path counts = Files.writeString(dir.resolve("small_counts.csv"), """
+                2000,100,1,1
+                2001,100,1,1
+                2002,100,1,1
+                """);
+        NGramMap ngm = new NGramMap(words.toString(), counts.toString());
+        // 2001 has only dog, 2000 only cat, and the missing word is ignored
+        TimeSeries summed = ngm.summedWeightHistory(List.of("cat", "unicorn", "dog"));
+        assertThat(summed.keySet()).containsExactly(2000, 2001, 2002).inOrder();
+        assertThat(summed.get(2000)).isEqualTo(0.1);
+        assertThat(summed.get(2001)).isEqualTo(0.05);
+        assertThat(summed.get(2002)).isEqualTo(0.25);
+        assertThat(ngm.summedWeightHistory(List.of("cat", "dog"), 2001, 2001).keySet()).containsExactly(2001);
+        assertThat(ngm.summedWeightHistory(List.of("unicorn"))).isEmpty();
+        assertThat(ngm.summedWeightHistory(List.of())).isEmpty();
+        assertThat(ngm.summedWeightHistory(List.of("cat"), 2003, 1999)).isEmpty();
+    }
+
+    @Test
+    public void testSequentialMatchesPlusExactly() throws IOException {
+        NGramMap ngm = randomNGramMap(500, 7);
+        Random random = new Random(7);
+        for (int trial = 0; trial < 100; trial++) {
+            List<String> words = randomWords(random, 1 + random.nextInt(40), 500);
+            // ranges that start before or end after the data (and MIN_YEAR and MAX_YEAR) are cut to it
+            int startYear = 1300 + random.nextInt(900);
+            int endYear = startYear + random.nextInt(400) - 50;
+            TimeSeries expected = sumByPlus(ngm, words, startYear, endYear);
+            assertThat(ngm.summedWeightHistory(words, startYear, endYear)).isEqualTo(expected);
+        }
+        List<String> words = randomWords(random, 30, 500);
+        assertThat(ngm.summedWeightHistory(words)).isEqualTo(sumByPlus(ngm, words, 1400, 2100));
+    }
+
+    @Test
+    public void testParallelMatchesPlus() throws IOException {
+        NGramMap ngm = randomNGramMap(3000, 8);
+        Random random = new Random(8);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int trial = 0; trial < 20; trial++) {
+                // enough words that the sum is split across several tasks
+                List<String> words = randomWords(random, 100 + random.nextInt(3000), 3000);
+                int startYear = 1300 + random.nextInt(900);
+                int endYear = startYear + random.nextInt(400) - 50;
+                TimeSeries expected = sumByPlus(ngm, words, startYear, endYear);
+                assertClose(ngm.summedWeightHistory(words, startYear, endYear, pool), expected);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testYearWithoutTotalThrows() throws IOException {
+        Path words = Files.writeString(dir.resolve("bad_words.csv"), "cat\t2000\t10\t1\ncat\t2001\t10\t1\n");
+        Path counts = Files.writeString(dir.resolve("bad_counts.csv"), "2000,100,1,1\n");
+        NGramMap ngm = new NGramMap(words.toString(), counts.toString());
+        assertThrows(IllegalArgumentException.class, () -> ngm.summedWeightHistory(List.of("cat")));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertThrows(IllegalArgumentException.class,
+                    () -> ngm.summedWeightHistory(List.of("cat"), 1400, 2100, pool));
+        } finally {
+            pool.shutdown();
+        }
+        // outside the year without a total there is nothing wrong
+        assertThat(ngm.summedWeightHistory(List.of("cat"), 2000, 2000).get(2000)).isEqualTo(0.1);
+    }
+}
@@ -0,0 +1,194 @@
+package ngrams;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TimeSeriesTest {
+    private static TimeSeries series(int[] years, double[] values) {
+        TimeSeries ts = new TimeSeries();
+        for (int i = 0; i < years.length; i++) {
+            ts.put(years[i], values[i]);
+        }
+        return ts;
+    }
+
+    /** Returns a series with random values in a random subset of the years FROM through TO. */
+    private static TimeSeries randomSeries(Random random, int from, int to) {
+        TimeSeries ts = new TimeSeries();
+        for (int year = from; year <= to; year++) {
+            if (random.nextInt(3) > 0) {
+                ts.put(year, (double) random.nextInt(1000) + 1);
+            }
+        }
+        return ts;
+    }
+
+    /** The sum as TimeSeries.plus used to compute it, one lookup per year. */
+    private static TimeSeries plusByLookup(TimeSeries a, TimeSeries b) {
+        TimeSeries sum = new TimeSeries();
+        for (Integer year : a.years()) {
+            sum.put(year, b.containsKey(year) ? a.get(year) + b.get(year) : a.get(year));
+        }
+        for (Integer year : b.years()) {
+            if (!sum.containsKey(year)) {
+                sum.put(year, b.get(year));
+            }
+        }
+        return sum;
+    }
+
+    /** The quotient as TimeSeries.dividedBy used to compute it, one lookup per year. */
+    private static TimeSeries dividedByLookup(TimeSeries a, TimeSeries b) {
+        TimeSeries quotient = new TimeSeries();
+        for (Integer year : a.years()) {
+            if (!b.containsKey(year)) {
+                throw new IllegalArgumentException();
+            }
+            quotient.put(year, a.get(year) / b.get(year));
+        }
+        return quotient;
+    }
+
+    @Test
+    public void testPlusKeepsYearsOfEither() {
+        TimeSeries a = series(new int[]{1990, 1992, 1994}, new double[]{1, 2, 3});
+        TimeSeries b = series(new int[]{1991, 1992, 1995}, new double[]{10, 20, 30});
+        TimeSeries sum = a.plus(b);
+        assertThat(sum.keySet()).containsExactly(1990, 1991, 1992, 1994, 1995).inOrder();
+        assertThat(sum.data()).containsExactly(1.0, 10.0, 22.0, 3.0, 30.0).inOrder();
+        // neither side is changed
+        assertThat(a.data()).containsExactly(1.0, 2.0, 3.0).inOrder();
+        assertThat(b.data()).containsExactly(10.0, 20.0, 30.0).inOrder();
+    }
+
+    @Test
+    public void testPlusOfDisjointAndEmptySeries() {
+        TimeSeries early = series(new int[]{1800, 1801}, new double[]{1, 2});
+        TimeSeries late = series(new int[]{1900, 1901}, new double[]{3, 4});
+        assertThat(early.plus(late).keySet()).containsExactly(1800, 1801, 1900, 1901).inOrder();
+        assertThat(late.plus(early)).isEqualTo(early.plus(late));
+        assertThat(early.plus(new TimeSeries())).isEqualTo(early);
+        assertThat(new TimeSeries().plus(early)).isEqualTo(early);
+        assertThat(new TimeSeries().plus(new TimeSeries())).isEmpty();
+    }
+
+    @Test
+    public void testDividedByNeedsEveryYear() {
+        TimeSeries counts = series(new int[]{1990, 1992}, new double[]{5, 10});
+        TimeSeries totals = series(new int[]{1989, 1990, 1991, 1992, 1993}, new double[]{1, 50, 1, 200, 1});
+        TimeSeries weights = counts.dividedBy(totals);
+        // years only the divisor has are ignored
+        assertThat(weights.keySet()).containsExactly(1990, 1992).inOrder();
+        assertThat(weights.data()).containsExactly(0.1, 0.05).inOrder();
+
+        // as before, a year missing from the divisor throws, wherever it is
+        for (int missing : new int[]{1990, 1992}) {
+            TimeSeries gappy = new TimeSeries(totals, 1989, 1993);
+            gappy.remove(missing);
+            assertThrows(IllegalArgumentException.class, () -> counts.dividedBy(gappy));
+        }
+        assertThrows(IllegalArgumentException.class, () -> counts.dividedBy(new TimeSeries()));
+        assertThat(new TimeSeries().dividedBy(totals)).isEmpty();
+    }
+
+    @Test
+    public void testMergeWalksMatchLookups() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 500; trial++) {
+            int start = 1400 + random.nextInt(50);
+            TimeSeries a = randomSeries(random, start, start + random.nextInt(60));
+            TimeSeries b = randomSeries(random, start + random.nextInt(60) - 30, start + 30 + random.nextInt(60));
+            assertThat(a.plus(b)).isEqualTo(plusByLookup(a, b));
+
+            TimeSeries totals = randomSeries(random, 1300, 1600);
+            if (totals.keySet().containsAll(a.keySet())) {
+                assertThat(a.dividedBy(totals)).isEqualTo(dividedByLookup(a, totals));
+            } else {
+                assertThrows(IllegalArgumentException.class, () -> a.dividedBy(totals));
+            }
+        }
+    }
+
+    @Test
+    public void testDenseRoundTrip() {
+        TimeSeries ts = series(new int[]{1990, 1993, 1995}, new double[]{1, 0, 3});
+        DenseTimeSeries dense = DenseTimeSeries.of(ts);
+        assertThat(dense.firstYear()).isEqualTo(1990);
+        assertThat(dense.lastYear()).isEqualTo(1995);
+        assertThat(dense.get(1993)).isEqualTo(0.0);
+        assertThat(dense.get(1991)).isNaN();
+        assertThat(dense.get(1800)).isNaN();
+        assertThat(dense.toTimeSeries()).isEqualTo(ts);
+        assertThat(dense.toTimeSeries(1991, 1994).keySet()).containsExactly(1993);
+        assertThat(DenseTimeSeries.of(new TimeSeries()).toTimeSeries()).isEmpty();
+    }
+
+    @Test
+    public void testDenseMatchesTreeMap() {
+        Random random = new Random(6);
+        for (int trial = 0; trial < 500; trial++) {
+            int start = 1400 + random.nextInt(50);
+            TimeSeries a = randomSeries(random, start, start + random.nextInt(60));
+            TimeSeries b = randomSeries(random, start + random.nextInt(120) - 60, start + random.nextInt(120));
+            DenseTimeSeries denseA = DenseTimeSeries.of(a);
+            DenseTimeSeries denseB = DenseTimeSeries.of(b);
+            assertThat(denseA.plus(denseB).toTimeSeries()).isEqualTo(a.plus(b));
+            // plus leaves both sides as they were
+            assertThat(denseA.toTimeSeries()).isEqualTo(a);
+            assertThat(denseB.toTimeSeries()).isEqualTo(b);
+
+            TimeSeries totals = randomSeries(random, 1350, 1550);
+            try {
+                TimeSeries expected = a.dividedBy(totals);
+                assertThat(denseA.dividedBy(DenseTimeSeries.of(totals)).toTimeSeries()).isEqualTo(expected);
+            } catch (IllegalArgumentException e) {
+                assertThrows(IllegalArgumentException.class, () -> denseA.dividedBy(DenseTimeSeries.of(totals)));
+            }
+        }
+    }
+
+    @Test
+    public void testPlusIntoGrowsInPlace() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 200; trial++) {
+            // the accumulator starts empty and has series before, after, around and inside it added
+            DenseTimeSeries sum = new DenseTimeSeries(0, -1);
+            TimeSeries expected = new TimeSeries();
+            for (int i = 0; i < 5; i++) {
+                int from = 1400 + random.nextInt(200);
+                TimeSeries ts = randomSeries(random, from, from + random.nextInt(50));
+                assertThat(sum.plusInto(DenseTimeSeries.of(ts))).isSameInstanceAs(sum);
+                expected = expected.plus(ts);
+                assertThat(sum.toTimeSeries()).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testPlusIntoARange() {
+        TimeSeries a = series(new int[]{2000, 2001}, new double[]{1, 1});
+        TimeSeries b = series(new int[]{1998, 1999, 2000, 2001, 2002, 2003}, new double[]{1, 2, 3, 4, 5, 6});
+        DenseTimeSeries sum = DenseTimeSeries.of(a).plusInto(DenseTimeSeries.of(b), 1999, 2002);
+        assertThat(sum.toTimeSeries()).isEqualTo(a.plus(new TimeSeries(b, 1999, 2002)));
+        // a range outside the other series adds nothing
+        DenseTimeSeries unchanged = DenseTimeSeries.of(a).plusInto(DenseTimeSeries.of(b), 2010, 2020);
+        assertThat(unchanged.toTimeSeries()).isEqualTo(a);
+        assertThat(unchanged.lastYear()).isEqualTo(2001);
+    }
+
+    @Test
+    public void testScale() {
+        TimeSeries ts = series(new int[]{1990, 1992}, new double[]{2, 4});
+        DenseTimeSeries dense = DenseTimeSeries.of(ts);
+        assertThat(dense.scale(0.5)).isSameInstanceAs(dense);
+        assertThat(dense.toTimeSeries().data()).containsExactly(1.0, 2.0).inOrder();
+        // years without data stay without data
+        assertThat(dense.get(1991)).isNaN();
+        assertThat(List.copyOf(dense.toTimeSeries().keySet())).containsExactly(1990, 1992).inOrder();
+    }
+}
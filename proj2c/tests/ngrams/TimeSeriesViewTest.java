@@ -0,0 +1,116 @@
+package ngrams;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TimeSeriesViewTest {
+    @TempDir
+    Path dir;
+
+    private NGramMap smallNGramMap() throws IOException {
+        Path words = Files.writeString(dir.resolve("words.csv"), """
+                cat\t2000\t10\t1
+                cat\t2002\t20\t1
+                cat\t2003\t30\t1
+                dog\t2001\t5\t1
+                """);
+        Path counts = Files.writeString(dir.resolve("counts.csv"), """
+                2000,100,1,1
+                2001,100,1,1
+                2002,100,1,1
+                2003,100,1,1
+                """);
+        return new NGramMap(words.toString(), counts.toString());
+    }
+
+    @Test
+    public void testReadsLikeTheCopy() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        for (int[] range : new int[][]{{1400, 2100}, {2001, 2002}, {2000, 2000}, {2001, 2001}, {2004, 2010},
+            {2003, 2000}}) {
+            TimeSeriesView view = ngm.countView("cat", range[0], range[1]);
+            TimeSeries copy = ngm.countHistory("cat", range[0], range[1]);
+            assertThat(view.years()).isEqualTo(copy.years());
+            assertThat(view.data()).isEqualTo(copy.data());
+            assertThat(view.size()).isEqualTo(copy.size());
+            assertThat(view.isEmpty()).isEqualTo(copy.isEmpty());
+            assertThat(view.toString()).isEqualTo(copy.toString());
+            assertThat(view.toTimeSeries()).isEqualTo(copy);
+            assertThat(view.hashCode()).isEqualTo(copy.hashCode());
+
+            TimeSeriesView weights = ngm.weightView("cat", range[0], range[1]);
+            assertThat(weights.toString()).isEqualTo(ngm.weightHistory("cat", range[0], range[1]).toString());
+        }
+        TimeSeriesView cat = ngm.countView("cat", 1400, 2100);
+        // years without data inside the range are skipped
+        assertThat(cat.years()).containsExactly(2000, 2002, 2003).inOrder();
+        assertThat(cat.data()).containsExactly(10.0, 20.0, 30.0).inOrder();
+        assertThat(cat.get(2001)).isNull();
+        assertThat(cat.get(2002)).isEqualTo(20.0);
+        assertThat(cat.sum()).isEqualTo(60.0);
+        assertThat(cat.toString()).isEqualTo("{2000=10.0, 2002=20.0, 2003=30.0}");
+    }
+
+    @Test
+    public void testUnknownWordsGiveEmptyViews() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        TimeSeriesView view = ngm.countView("unicorn", 1400, 2100);
+        assertThat(view.isEmpty()).isTrue();
+        assertThat(view.years()).isEmpty();
+        assertThat(view.toString()).isEqualTo(new TimeSeries().toString());
+        assertThat(ngm.weightView("unicorn", 1400, 2100).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testEqualsComparesData() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        TimeSeriesView whole = ngm.countView("cat", 1400, 2100);
+        assertThat(whole).isEqualTo(ngm.countView("cat", 2000, 2003));
+        // the same years and data, however the view was cut
+        assertThat(ngm.countView("cat", 2001, 2002)).isEqualTo(ngm.countView("cat", 2002, 2002));
+        assertThat(whole.equals(ngm.countView("cat", 2000, 2002))).isFalse();
+        assertThat(whole.equals(ngm.countView("dog", 1400, 2100))).isFalse();
+        assertThat(ngm.countView("unicorn", 0, 1)).isEqualTo(ngm.countView("cat", 1400, 1500));
+
+        // a written view is equal to an unwritten one with the same data
+        TimeSeriesView written = ngm.countView("cat", 2000, 2002);
+        written.put(2003, 30);
+        assertThat(written).isEqualTo(whole);
+        assertThat(written.hashCode()).isEqualTo(whole.hashCode());
+    }
+
+    @Test
+    public void testWritesNeverReachTheNGramMap() throws IOException {
+        NGramMap ngm = smallNGramMap();
+        TimeSeriesView counts = ngm.countView("cat", 1400, 2100);
+        counts.put(2000, 99);
+        counts.put(1999, 1);
+        assertThat(counts.get(2000)).isEqualTo(99.0);
+        assertThat(counts.years()).containsExactly(1999, 2000, 2002, 2003).inOrder();
+        assertThat(counts.toString()).isEqualTo("{1999=1.0, 2000=99.0, 2002=20.0, 2003=30.0}");
+        assertThat(counts.sum()).isEqualTo(150.0);
+
+        assertThat(ngm.countHistory("cat").get(2000)).isEqualTo(10.0);
+        assertThat(ngm.countHistory("cat").containsKey(1999)).isFalse();
+        assertThat(ngm.countView("cat", 1400, 2100).get(2000)).isEqualTo(10.0);
+        assertThat(ngm.totalCount("cat", 1400, 2100)).isEqualTo(60.0);
+
+        // weight views share the cached weights, which must not change either
+        TimeSeriesView weights = ngm.weightView("cat", 1400, 2100);
+        weights.put(2000, 1.0);
+        assertThat(weights.get(2000)).isEqualTo(1.0);
+        assertThat(ngm.weightView("cat", 1400, 2100).get(2000)).isEqualTo(0.1);
+        assertThat(ngm.weightHistory("cat").get(2000)).isEqualTo(0.1);
+
+        // nor does changing the copy a view hands out
+        TimeSeries copy = ngm.countView("cat", 1400, 2100).toTimeSeries();
+        copy.put(2000, 7.0);
+        assertThat(ngm.countHistory("cat").get(2000)).isEqualTo(10.0);
+    }
+}
@@ -0,0 +1,79 @@
+package ngrams;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class WeightCacheTest {
+    private static final int THREADS = 8;
+
+    /** Returns a one-year series whose only value is ID, so a series shows which id it belongs to. */
+    private static DenseTimeSeries seriesOf(int id) {
+        DenseTimeSeries series = new DenseTimeSeries(2000, 2000);
+        series.put(2000, id);
+        return series;
+    }
+
+    @Test
+    public void testHitsOnceCached() {
+        LongAdder hits = new LongAdder();
+        LongAdder misses = new LongAdder();
+        WeightCache cache = new WeightCache(1024, hits, misses);
+        for (int round = 0; round < 3; round++) {
+            for (int id = 0; id < 4; id++) {
+                assertThat(cache.get(id, WeightCacheTest::seriesOf).get(2000)).isEqualTo((double) id);
+            }
+        }
+        assertThat(misses.sum()).isEqualTo(4L);
+        assertThat(hits.sum()).isEqualTo(8L);
+    }
+
+    @Test
+    public void testEightThreadsOnlyEverGetTheirOwnSeries() throws Exception {
+        LongAdder hits = new LongAdder();
+        LongAdder misses = new LongAdder();
+        // far more ids than entries, so sets are evicting all the time
+        WeightCache cache = new WeightCache(256, hits, misses);
+        int lookupsPerThread = 200_000;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> wrong = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long seed = t;
+                Callable<Integer> lookups = () -> {
+                    Random random = new Random(seed);
+                    start.await();
+                    int mismatches = 0;
+                    for (int i = 0; i < lookupsPerThread; i++) {
+                        // mostly a hot few hundred ids, sometimes any of many thousands
+                        int id = random.nextInt(4) == 0 ? random.nextInt(20_000) : random.nextInt(300);
+                        if (cache.get(id, WeightCacheTest::seriesOf).get(2000) != id) {
+                            mismatches += 1;
+                        }
+                    }
+                    return mismatches;
+                };
+                wrong.add(threads.submit(lookups));
+            }
+            start.countDown();
+            for (Future<Integer> future : wrong) {
+                assertThat(future.get()).isEqualTo(0);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        assertThat(hits.sum() + misses.sum()).isEqualTo((long) THREADS * lookupsPerThread);
+        assertThat(hits.sum()).isGreaterThan(0L);
+    }
+}
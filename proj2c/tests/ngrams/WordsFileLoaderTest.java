@@ -0,0 +1,128 @@
+package ngrams;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WordsFileLoaderTest {
+    @TempDir
+    Path dir;
+
+    /** Parses TEXT the way NGramMap used to, one split line at a time, summing repeated rows. */
+    private static Map<String, TreeMap<Integer, Double>> parseBySplitting(String text) {
+        Map<String, TreeMap<Integer, Double>> counts = new HashMap<>();
+        for (String line : text.split("\r?\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] splitLine = line.split("\t");
+            counts.computeIfAbsent(splitLine[0], word -> new TreeMap<>())
+                    .merge(Integer.parseInt(splitLine[1]), Double.parseDouble(splitLine[2]), Double::sum);
+        }
+        return counts;
+    }
+
+    /** Loads TEXT with WordsFileLoader on PARALLELISM threads. */
+    private CountColumns load(String text, int parallelism) throws IOException {
+        Path file = Files.writeString(dir.resolve("words.tsv"), text);
+        CountColumns.Builder builder = new CountColumns.Builder();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            WordsFileLoader.load(file, builder, pool);
+        } finally {
+            pool.shutdown();
+        }
+        return builder.build(false);
+    }
+
+    private void assertParsesLikeSplitting(String text, int parallelism) throws IOException {
+        Map<String, TreeMap<Integer, Double>> expected = parseBySplitting(text);
+        CountColumns columns = load(text, parallelism);
+        assertThat(columns.wordCount()).isEqualTo(expected.size());
+        for (Map.Entry<String, TreeMap<Integer, Double>> entry : expected.entrySet()) {
+            int id = columns.id(entry.getKey());
+            TreeMap<Integer, Double> years = entry.getValue();
+            assertThat(columns.firstYear(id)).isEqualTo(years.firstKey());
+            assertThat(columns.lastYear(id)).isEqualTo(years.lastKey());
+            // years in between that have no row read as NaN
+            for (int year = years.firstKey(); year <= years.lastKey(); year++) {
+                assertThat(columns.count(id, year)).isEqualTo(years.getOrDefault(year, Double.NaN));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallExamples() throws IOException {
+        assertParsesLikeSplitting("""
+                cat\t2000\t10\t3
+                cat\t2001\t2.5\t1
+                cat\t2001\t1\t1
+                dog\t-5\t1e3\t2
+                dog\t0\t7.25E-2\t1
+                huge\t1999\t12345678901234567\t9
+                huger\t1999\t123456789012345678901234\t9
+                exactly\t1999\t1234567890123456\t9
+                nextTo\t1999\t999999999999999\t9
+                """, 1);
+    }
+
+    @Test
+    public void testCarriageReturnsAndBlankLines() throws IOException {
+        assertParsesLikeSplitting("cat\t2000\t10\t3\r\n\r\ncat\t2001\t4\t1\r\n\ndog\t1990\t5\t2\r\n", 1);
+        // the last line need not end in a newline, nor have a volumes column
+        assertParsesLikeSplitting("cat\t2000\t10\t3\ndog\t1990\t5", 1);
+    }
+
+    @Test
+    public void testWordsRunAcrossRanges() throws IOException {
+        // a few megabytes, so the file is cut into several ranges and words straddle the cuts
+        Random random = new Random(3);
+        StringBuilder text = new StringBuilder();
+        int word = 0;
+        while (text.length() < 3 << 20) {
+            int years = 1 + random.nextInt(300);
+            int year = 1500 + random.nextInt(200);
+            for (int i = 0; i < years; i++) {
+                String count = switch (random.nextInt(10)) {
+                    case 0 -> random.nextInt(1000) + "." + random.nextInt(100);
+                    case 1 -> random.nextInt(100) + "e" + random.nextInt(10);
+                    default -> Long.toString(random.nextLong(1L << 50));
+                };
+                text.append("word").append(word).append('\t').append(year).append('\t').append(count)
+                        .append('\t').append(random.nextInt(50)).append(random.nextBoolean() ? "\r\n" : "\n");
+                year += 1 + random.nextInt(3);
+            }
+            word += 1;
+        }
+        assertParsesLikeSplitting(text.toString(), 4);
+    }
+
+    @Test
+    public void testMalformedLinesAreQuoted() {
+        String[][] cases = {
+            {"cat\t2000\t10\t1\ncat 2001 10 1\n", "no tab after the word", "cat 2001 10 1"},
+            {"cat\n", "no tab after the word", "cat"},
+            {"cat\tlate\t10\t1\r\n", "the year is not a whole number followed by a tab", "cat\tlate\t10\t1"},
+            {"cat\t2000\n", "the year is not a whole number followed by a tab", "cat\t2000"},
+            {"cat\t2000\t\t1\n", "no count", "cat\t2000\t\t1"},
+        };
+        for (String[] c : cases) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> load(c[0], 1));
+            assertThat(e.getMessage())
+                    .isEqualTo("Malformed line in the words file (" + c[1] + "): \"" + c[2] + "\"");
+        }
+        // a count the JDK cannot parse is reported by it
+        assertThrows(NumberFormatException.class, () -> load("cat\t2000\t1x\t1\n", 1));
+    }
+}
@@ -0,0 +1,110 @@
+package plotting;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PngEncoderTest {
+
+    /** Returns a white WIDTH x HEIGHT image with random coloured lines on it, like a chart. */
+    private static BufferedImage chartLikeImage(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        Random random = new Random(seed);
+        for (int line = 0; line < 5; line++) {
+            g.setColor(new Color(random.nextInt()));
+            int lastX = 0;
+            int lastY = height / 2;
+            for (int x = 0; x < width; x += 3) {
+                int y = random.nextInt(height);
+                g.drawLine(lastX, lastY, x, y);
+                lastX = x;
+                lastY = y;
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static void assertDecodesTo(byte[] png, BufferedImage expected) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertThat(decoded.getWidth()).isEqualTo(width);
+        assertThat(decoded.getHeight()).isEqualTo(height);
+        assertThat(decoded.getRGB(0, 0, width, height, null, 0, width))
+                .isEqualTo(expected.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    @Test
+    public void testDecodesToTheSamePixels() throws IOException {
+        int[][] sizes = {{800, 600}, {1, 1}, {37, 5}, {5, 37}};
+        for (int[] size : sizes) {
+            BufferedImage image = chartLikeImage(size[0], size[1], 1);
+            assertDecodesTo(PngEncoder.encode(image), image);
+        }
+    }
+
+    @Test
+    public void testIncompressibleImageSpansManyChunks() throws IOException {
+        // random noise deflates to more than one 64KB IDAT chunk
+        BufferedImage image = new BufferedImage(600, 400, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(2);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        assertDecodesTo(PngEncoder.encode(image), image);
+    }
+
+    @Test
+    public void testBase64MatchesTheBytes() {
+        BufferedImage image = chartLikeImage(200, 100, 3);
+        byte[] decoded = Base64.getDecoder().decode(PngEncoder.encodeBase64(image));
+        assertThat(decoded).isEqualTo(PngEncoder.encode(image));
+    }
+
+    @Test
+    public void testOtherImageTypesAreRejected() {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        assertThrows(IllegalArgumentException.class, () -> PngEncoder.encode(image));
+    }
+
+    @Test
+    public void testManyThreadsShareThePool() throws Exception {
+        // more threads than the pool holds, so encoders are both reused and dropped
+        ExecutorService threads = Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors() + 1);
+        try {
+            List<BufferedImage> images = new ArrayList<>();
+            List<Future<byte[]>> encoded = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                BufferedImage image = chartLikeImage(120 + i, 80, i);
+                images.add(image);
+                encoded.add(threads.submit(() -> PngEncoder.encode(image)));
+            }
+            for (int i = 0; i < images.size(); i++) {
+                assertDecodesTo(encoded.get(i).get(), images.get(i));
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package wordnet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AncestralPathTest {
+    @TempDir
+    Path dir;
+
+    /** Returns the number of parent edges from any synset of WORD to each synset, or -1 if none. */
+    private static int[] distancesUp(RandomWordNet graph, String word) {
+        int[] dist = new int[graph.parents.size()];
+        Arrays.fill(dist, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int start : graph.synsetsOfWord.get(word)) {
+            dist[start] = 0;
+            queue.add(start);
+        }
+        while (!queue.isEmpty()) {
+            int synset = queue.poll();
+            for (int parent : graph.parents.get(synset)) {
+                if (dist[parent] < 0) {
+                    dist[parent] = dist[synset] + 1;
+                    queue.add(parent);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Returns the shortest ancestral path, by searching up from both words over the whole graph. */
+    private static AncestralPath searchEverything(RandomWordNet graph, String a, String b) {
+        int[] distA = distancesUp(graph, a);
+        int[] distB = distancesUp(graph, b);
+        int best = -1;
+        for (int v = 0; v < distA.length; v++) {
+            if (distA[v] >= 0 && distB[v] >= 0 && (best < 0 || distA[v] + distB[v] < best)) {
+                best = distA[v] + distB[v];
+            }
+        }
+        if (best < 0) {
+            return new AncestralPath(-1, List.of());
+        }
+        TreeSet<String> ancestors = new TreeSet<>();
+        for (int v = 0; v < distA.length; v++) {
+            if (distA[v] >= 0 && distB[v] >= 0 && distA[v] + distB[v] == best) {
+                ancestors.addAll(graph.synsetWords.get(v));
+            }
+        }
+        return new AncestralPath(best, List.copyOf(ancestors));
+    }
+
+    private WordNet smallWordNet() throws IOException {
+        Path synsets = Files.writeString(dir.resolve("small_synsets.txt"), """
+                0,entity,anything at all
+                1,animal,a living thing that moves
+                2,plant,a living thing that grows
+                3,cat feline,a small cat
+                4,dog,a small dog
+                5,tree,a big plant
+                6,catnip,a plant cats like
+                """);
+        Path hyponyms = Files.writeString(dir.resolve("small_hyponyms.txt"), """
+                0,1,2
+                1,3,4
+                2,5,6
+                """);
+        return new WordNet(synsets.toString(), hyponyms.toString());
+    }
+
+    @Test
+    public void testSmallExamples() throws IOException {
+        WordNet wordNet = smallWordNet();
+        assertThat(wordNet.shortestAncestralPath("cat", "dog")).isEqualTo(new AncestralPath(2, List.of("animal")));
+        assertThat(wordNet.shortestAncestralPath("cat", "tree")).isEqualTo(new AncestralPath(4, List.of("entity")));
+        assertThat(wordNet.shortestAncestralPath("dog", "animal")).isEqualTo(new AncestralPath(1, List.of("animal")));
+        assertThat(wordNet.shortestAncestralPath("cat", "feline"))
+                .isEqualTo(new AncestralPath(0, List.of("cat", "feline")));
+    }
+
+    @Test
+    public void testUnknownWordsHaveNoPath() throws IOException {
+        WordNet wordNet = smallWordNet();
+        assertThat(wordNet.shortestAncestralPath("cat", "unicorn")).isEqualTo(new AncestralPath(-1, List.of()));
+        assertThat(wordNet.shortestAncestralPath("unicorn", "cat")).isEqualTo(new AncestralPath(-1, List.of()));
+    }
+
+    @Test
+    public void testAgreesWithSearchingTheWholeGraph() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 3000, 2000, 18);
+        WordNet wordNet = graph.wordNet();
+        Random random = new Random(18);
+        for (int trial = 0; trial < 500; trial++) {
+            String a = graph.randomWord(random);
+            String b = random.nextInt(10) == 0 ? a : graph.randomWord(random);
+            AncestralPath expected = searchEverything(graph, a, b);
+            assertThat(wordNet.shortestAncestralPath(a, b)).isEqualTo(expected);
+            assertThat(wordNet.shortestAncestralPath(b, a)).isEqualTo(expected);
+        }
+    }
+}
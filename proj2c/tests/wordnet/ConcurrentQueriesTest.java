@@ -0,0 +1,190 @@
+package wordnet;
+
+import graph.CsrGraph;
+import ngrams.NGramMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ConcurrentQueriesTest {
+    private static final int THREADS = 8;
+
+    @TempDir
+    Path dir;
+
+    /** One random query and the answer a single thread gave for it. */
+    private record Query(List<String> words, boolean up, int startYear, int endYear, int k, Object expected) {
+    }
+
+    /** Runs TASK on THREADS threads at once, giving each its thread number, and returns their results. */
+    private static <T> List<T> onEightThreads(ThreadTask<T> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                Callable<T> call = () -> {
+                    start.await();
+                    return task.run(thread);
+                };
+                futures.add(threads.submit(call));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private interface ThreadTask<T> {
+        T run(int thread) throws Exception;
+    }
+
+    /**
+     * Returns the closure of WORDS when K is 0 or their top K words otherwise, plus the weight
+     * history of the first word.
+     */
+    private static Object answer(WordNet wordNet, NGramMap nGramMap, List<String> words, boolean up,
+                                 int startYear, int endYear, int k) {
+        CsrGraph direction = up ? wordNet.getHypernymGraph() : wordNet.getHyponymGraph();
+        List<String> result = k == 0
+                ? wordNet.getHOrAForListOfWords(direction, words)
+                : wordNet.getTopKHOrAForListOfWords(words, startYear, endYear, k, nGramMap, direction);
+        return List.of(result, nGramMap.weightHistory(words.get(0), startYear, endYear));
+    }
+
+    @Test
+    public void testClosureCacheOnlyEverReturnsTheRightClosure() throws Exception {
+        // far more nodes than entries, so puts are evicting all the time
+        ClosureCache cache = new ClosureCache(64);
+        List<Integer> wrong = onEightThreads(thread -> {
+            Random random = new Random(thread);
+            int mismatches = 0;
+            for (int i = 0; i < 200_000; i++) {
+                int node = random.nextInt(5000);
+                BitSet cached = cache.get(node);
+                if (cached == null) {
+                    BitSet closure = new BitSet();
+                    closure.set(node);
+                    cache.put(node, closure);
+                } else if (cached.cardinality() != 1 || !cached.get(node)) {
+                    mismatches += 1;
+                }
+            }
+            return mismatches;
+        });
+        for (int mismatches : wrong) {
+            assertThat(mismatches).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testEightThreadsAnswerLikeOneThread() throws Exception {
+        // a large vocabulary, so the closure and weight caches keep evicting during the run
+        RandomWordNet graph = new RandomWordNet(dir, 6000, 8000, 20);
+        WordNet single = graph.wordNet();
+        NGramMap singleNGramMap = graph.nGramMap();
+        Random random = new Random(20);
+        List<Query> queries = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            List<String> words = new ArrayList<>();
+            int count = 1 + random.nextInt(2);
+            for (int j = 0; j < count; j++) {
+                words.add(random.nextInt(4) == 0 ? graph.wordNearTheRoot(random) : graph.randomWord(random));
+            }
+            boolean up = random.nextBoolean();
+            int startYear = 1900 + random.nextInt(100);
+            int endYear = startYear + random.nextInt(40);
+            int k = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(10);
+            queries.add(new Query(words, up, startYear, endYear, k,
+                    answer(single, singleNGramMap, words, up, startYear, endYear, k)));
+        }
+
+        WordNet shared = graph.wordNet();
+        NGramMap sharedNGramMap = graph.nGramMap();
+        List<Integer> wrong = onEightThreads(thread -> {
+            Random order = new Random(thread);
+            int mismatches = 0;
+            for (int i = 0; i < 1000; i++) {
+                Query query = queries.get(order.nextInt(queries.size()));
+                Object actual = answer(shared, sharedNGramMap, query.words(), query.up(), query.startYear(),
+                        query.endYear(), query.k());
+                if (!actual.equals(query.expected())) {
+                    mismatches += 1;
+                }
+            }
+            return mismatches;
+        });
+        for (int mismatches : wrong) {
+            assertThat(mismatches).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testReadersSeeWholeIngests() throws Exception {
+        RandomWordNet graph = new RandomWordNet(dir, 300, 200, 21);
+        NGramMap nGramMap = graph.nGramMap();
+        String word = graph.words.get(0);
+        int ingests = 20;
+        List<Path> deltas = new ArrayList<>();
+        for (int i = 0; i < ingests; i++) {
+            int year = 2021 + i;
+            deltas.add(Files.writeString(dir.resolve("delta" + i + ".txt"),
+                    word + "\t" + year + "\t" + (i + 1) + "\t1\n" + year + ",1000,1,1\n"));
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        List<Integer> wrong = onEightThreads(thread -> {
+            if (thread == 0) {
+                for (Path delta : deltas) {
+                    nGramMap.ingest(delta);
+                }
+                done.set(true);
+                return 0;
+            }
+            int mismatches = 0;
+            int seen = 0;
+            boolean last = false;
+            while (!last) {
+                // one more read after the writer is done, which must see every ingest
+                last = done.get();
+                // a reader sees the years of the ingests so far, in order, and never loses one
+                List<Integer> years = new ArrayList<>(nGramMap.countHistory(word, 2021, 2100).keySet());
+                for (int i = 0; i < years.size(); i++) {
+                    if (years.get(i) != 2021 + i) {
+                        mismatches += 1;
+                    }
+                }
+                if (years.size() < seen) {
+                    mismatches += 1;
+                }
+                seen = years.size();
+            }
+            return seen == ingests ? mismatches : mismatches + 1;
+        });
+        for (int mismatches : wrong) {
+            assertThat(mismatches).isEqualTo(0);
+        }
+        assertThat(nGramMap.countHistory(word, 2021, 2100).size()).isEqualTo(ingests);
+    }
+}
@@ -0,0 +1,115 @@
+package wordnet;
+
+import graph.CsrGraph;
+import ngrams.NGramMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ParallelQueriesTest {
+    @TempDir
+    Path dir;
+
+    /** Returns 1 to 3 random words, often including one near the root so the closures are large. */
+    private static List<String> randomWords(RandomWordNet graph, Random random) {
+        List<String> words = new ArrayList<>();
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            words.add(random.nextBoolean() ? graph.wordNearTheRoot(random) : graph.randomWord(random));
+        }
+        return words;
+    }
+
+    /** Returns what getTopKHOrAForListOfWords should return, worked out word by word. */
+    private static List<String> topKBySorting(RandomWordNet graph, NGramMap nGramMap, List<String> words,
+                                              int startYear, int endYear, int k, boolean up) {
+        List<String> candidates = new ArrayList<>();
+        for (String word : graph.commonClosure(words, up)) {
+            if (nGramMap.totalCount(word, startYear, endYear) > 0) {
+                candidates.add(word);
+            }
+        }
+        candidates.sort(Comparator.<String>comparingDouble(word -> -nGramMap.totalCount(word, startYear, endYear))
+                .thenComparing(Comparator.naturalOrder()));
+        return candidates.stream().limit(k).sorted().toList();
+    }
+
+    @Test
+    public void testParallelClosuresMatchASearch() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 6000, 4000, 16);
+        WordNet wordNet = graph.wordNet();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(16);
+            for (int trial = 0; trial < 100; trial++) {
+                List<String> words = randomWords(graph, random);
+                boolean up = random.nextBoolean();
+                CsrGraph direction = up ? wordNet.getHypernymGraph() : wordNet.getHyponymGraph();
+                List<String> expected = new ArrayList<>(graph.commonClosure(words, up));
+
+                assertThat(wordNet.getHOrAForListOfWords(direction, words)).isEqualTo(expected);
+                assertThat(wordNet.getHOrAForListOfWords(direction, words, pool, 4)).isEqualTo(expected);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelTopKMatchesSorting() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 6000, 4000, 17);
+        WordNet wordNet = graph.wordNet();
+        NGramMap nGramMap = graph.nGramMap();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(17);
+            for (int trial = 0; trial < 100; trial++) {
+                List<String> words = randomWords(graph, random);
+                boolean up = random.nextBoolean();
+                CsrGraph direction = up ? wordNet.getHypernymGraph() : wordNet.getHyponymGraph();
+                int startYear = 1900 + random.nextInt(100);
+                int endYear = startYear + random.nextInt(40);
+                int k = 1 + random.nextInt(20);
+                List<String> expected = topKBySorting(graph, nGramMap, words, startYear, endYear, k, up);
+
+                assertThat(wordNet.getTopKHOrAForListOfWords(words, startYear, endYear, k, nGramMap, direction))
+                        .isEqualTo(expected);
+                assertThat(wordNet.getTopKHOrAForListOfWords(words, startYear, endYear, k, nGramMap, direction,
+                        pool, 4)).isEqualTo(expected);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelCountsAreIdentical() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 6000, 4000, 18);
+        WordNet wordNet = graph.wordNet();
+        NGramMap nGramMap = graph.nGramMap();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(18);
+            for (int trial = 0; trial < 20; trial++) {
+                // well over the size at which the lookups are split into slices
+                int[] ids = random.ints(3000 + random.nextInt(3000), 0, wordNet.getDictionary().size()).toArray();
+                int startYear = 1900 + random.nextInt(100);
+                int endYear = startYear + random.nextInt(40);
+                double[] sequential = nGramMap.totalCounts(wordNet.getDictionary(), ids, startYear, endYear);
+                double[] parallel = nGramMap.totalCounts(wordNet.getDictionary(), ids, startYear, endYear, pool, 4);
+                assertThat(parallel).isEqualTo(sequential);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package wordnet;
+
+import ngrams.NGramMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A random WordNet (and NGramMap over its words) written to text files for tests, with a plain
+ * copy of the graph kept in lists, so answers can be checked against a simple search.
+ *
+ * Synset v > 0 has one or two parents among the synsets just before it, so the graph is a DAG
+ * with many shared descendants, rooted at synset 0. Words are named w0000, w0001, ... so their
+ * alphabetical order is their numeric order, and many of them appear in several synsets.
+ */
+final class RandomWordNet {
+    final List<List<String>> synsetWords = new ArrayList<>();
+    final List<List<Integer>> children = new ArrayList<>();
+    final List<List<Integer>> parents = new ArrayList<>();
+    final Map<String, List<Integer>> synsetsOfWord = new HashMap<>();
+    final List<String> words;
+    final Path synsetsFile;
+    final Path hyponymsFile;
+    final Path wordsFile;
+    final Path countsFile;
+
+    /** Writes a WordNet of SYNSETS synsets over VOCABULARY words (and their counts) to DIR. */
+    RandomWordNet(Path dir, int synsets, int vocabulary, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder synsetLines = new StringBuilder();
+        StringBuilder hyponymLines = new StringBuilder();
+        for (int v = 0; v < synsets; v++) {
+            List<String> names = new ArrayList<>();
+            int size = 1 + random.nextInt(3);
+            for (int i = 0; i < size; i++) {
+                String word = String.format("w%04d", random.nextInt(vocabulary));
+                if (!names.contains(word)) {
+                    names.add(word);
+                    synsetsOfWord.computeIfAbsent(word, w -> new ArrayList<>()).add(v);
+                }
+            }
+            synsetWords.add(names);
+            children.add(new ArrayList<>());
+            parents.add(new ArrayList<>());
+            synsetLines.append(v).append(',').append(String.join(" ", names)).append(",gloss ").append(v).append('\n');
+            if (v == 0) {
+                continue;
+            }
+            int parentCount = v == 1 ? 1 : 1 + random.nextInt(2);
+            for (int i = 0; i < parentCount; i++) {
+                int parent = Math.max(0, v - 1 - random.nextInt(Math.min(v, 50)));
+                if (!parents.get(v).contains(parent)) {
+                    parents.get(v).add(parent);
+                    children.get(parent).add(v);
+                    hyponymLines.append(parent).append(',').append(v).append('\n');
+                }
+            }
+        }
+        words = new ArrayList<>(new TreeSet<>(synsetsOfWord.keySet()));
+
+        // counts for most words, over a few random years each; every year has a total
+        StringBuilder wordLines = new StringBuilder();
+        for (String word : words) {
+            if (random.nextInt(10) == 0) {
+                continue;
+            }
+            for (int year = 1900; year <= 2020; year += 1 + random.nextInt(15)) {
+                wordLines.append(word).append('\t').append(year).append('\t')
+                        .append(1 + random.nextInt(1000)).append('\t').append(1).append('\n');
+            }
+        }
+        StringBuilder countLines = new StringBuilder();
+        for (int year = 1900; year <= 2020; year++) {
+            countLines.append(year).append(',').append(1_000_000 + random.nextInt(1_000_000)).append(".0,1,1\n");
+        }
+
+        synsetsFile = Files.writeString(dir.resolve("synsets.txt"), synsetLines);
+        hyponymsFile = Files.writeString(dir.resolve("hyponyms.txt"), hyponymLines);
+        wordsFile = Files.writeString(dir.resolve("words.csv"), wordLines);
+        countsFile = Files.writeString(dir.resolve("counts.csv"), countLines);
+    }
+
+    WordNet wordNet() {
+        return new WordNet(synsetsFile.toString(), hyponymsFile.toString());
+    }
+
+    NGramMap nGramMap() {
+        return new NGramMap(wordsFile.toString(), countsFile.toString());
+    }
+
+    /** Returns the synsets reachable from STARTS (themselves included), going up to parents if UP. */
+    Set<Integer> reachable(Collection<Integer> starts, boolean up) {
+        List<List<Integer>> edges = up ? parents : children;
+        Set<Integer> seen = new TreeSet<>(starts);
+        ArrayDeque<Integer> queue = new ArrayDeque<>(starts);
+        while (!queue.isEmpty()) {
+            for (int next : edges.get(queue.poll())) {
+                if (seen.add(next)) {
+                    queue.add(next);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /** Returns the words of every synset reachable from a synset of WORD, in alphabetical order. */
+    TreeSet<String> closure(String word, boolean up) {
+        TreeSet<String> result = new TreeSet<>();
+        for (int synset : reachable(synsetsOfWord.getOrDefault(word, List.of()), up)) {
+            result.addAll(synsetWords.get(synset));
+        }
+        return result;
+    }
+
+    /** Returns the words in the closure of every word of WORDS, in alphabetical order. */
+    TreeSet<String> commonClosure(List<String> words, boolean up) {
+        TreeSet<String> result = closure(words.get(0), up);
+        for (String word : words.subList(1, words.size())) {
+            result.retainAll(closure(word, up));
+        }
+        return result;
+    }
+
+    /** Returns a random word of the vocabulary. */
+    String randomWord(Random random) {
+        return words.get(random.nextInt(words.size()));
+    }
+
+    /** Returns a word of one of the first synsets, whose hyponym closures are large. */
+    String wordNearTheRoot(Random random) {
+        return synsetWords.get(random.nextInt(Math.min(5, synsetWords.size()))).get(0);
+    }
+}
@@ -0,0 +1,189 @@
+package wordnet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class SimilarityIndexTest {
+    @TempDir
+    Path dir;
+
+    private SimilarityIndex smallIndex() throws IOException {
+        Path synsets = Files.writeString(dir.resolve("small_synsets.txt"), """
+                0,entity,anything at all
+                1,animal,a living thing that moves
+                2,plant,a living thing that grows
+                3,cat feline,a small cat
+                4,dog,a small dog
+                5,tree,a big plant
+                6,rock,not alive, and not below entity either
+                """);
+        Path hyponyms = Files.writeString(dir.resolve("small_hyponyms.txt"), """
+                0,1,2
+                1,3,4
+                2,5
+                """);
+        return new SimilarityIndex(new WordNet(synsets.toString(), hyponyms.toString()));
+    }
+
+    @Test
+    public void testSmallExamples() throws IOException {
+        SimilarityIndex index = smallIndex();
+        // cat and dog meet at animal (depth 2), two edges apart
+        assertThat(index.pathSimilarity("cat", "dog")).isEqualTo(1.0 / 3);
+        assertThat(index.wuPalmerSimilarity("cat", "dog")).isEqualTo(2.0 * 2 / (2 + 2.0 * 2));
+        // cat and tree only meet at the root (depth 1), four edges apart
+        assertThat(index.pathSimilarity("cat", "tree")).isEqualTo(1.0 / 5);
+        assertThat(index.wuPalmerSimilarity("cat", "tree")).isEqualTo(2.0 / (4 + 2.0));
+        // words of the same synset are as similar as can be
+        assertThat(index.pathSimilarity("cat", "feline")).isEqualTo(1.0);
+        assertThat(index.wuPalmerSimilarity("cat", "feline")).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testNoCommonAncestorIsNaN() throws IOException {
+        SimilarityIndex index = smallIndex();
+        assertThat(index.pathSimilarity("cat", "rock")).isNaN();
+        assertThat(index.wuPalmerSimilarity("cat", "rock")).isNaN();
+        assertThat(index.pathSimilarity("cat", "unicorn")).isNaN();
+        assertThat(index.wuPalmerSimilarity("unicorn", "cat")).isNaN();
+    }
+
+    /** Returns the edges from SYNSET up to each synset, or -1 where it cannot get to. */
+    private static int[] distancesUp(RandomWordNet graph, int synset) {
+        int[] dist = new int[graph.parents.size()];
+        Arrays.fill(dist, -1);
+        dist[synset] = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>(List.of(synset));
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int parent : graph.parents.get(node)) {
+                if (dist[parent] < 0) {
+                    dist[parent] = dist[node] + 1;
+                    queue.add(parent);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Returns the depth of every synset: 1 for a root, one more than its shallowest parent otherwise. */
+    private static int[] depths(RandomWordNet graph) {
+        int[] depths = new int[graph.parents.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int v = 0; v < depths.length; v++) {
+            if (graph.parents.get(v).isEmpty()) {
+                depths[v] = 1;
+                queue.add(v);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int child : graph.children.get(node)) {
+                if (depths[child] == 0) {
+                    depths[child] = depths[node] + 1;
+                    queue.add(child);
+                }
+            }
+        }
+        return depths;
+    }
+
+    /** Returns {path similarity, Wu-Palmer similarity} of A and B, straight from the definitions. */
+    private static double[] scoreBySearching(RandomWordNet graph, int[] depths, String a, String b) {
+        int bestLength = Integer.MAX_VALUE;
+        double bestWuPalmer = Double.NaN;
+        for (int synsetA : graph.synsetsOfWord.get(a)) {
+            int[] distA = distancesUp(graph, synsetA);
+            for (int synsetB : graph.synsetsOfWord.get(b)) {
+                int[] distB = distancesUp(graph, synsetB);
+                int lcsDepth = 0;
+                int lcsLength = 0;
+                for (int v = 0; v < distA.length; v++) {
+                    if (distA[v] < 0 || distB[v] < 0) {
+                        continue;
+                    }
+                    int length = distA[v] + distB[v];
+                    bestLength = Math.min(bestLength, length);
+                    if (depths[v] > lcsDepth || (depths[v] == lcsDepth && length < lcsLength)) {
+                        lcsDepth = depths[v];
+                        lcsLength = length;
+                    }
+                }
+                if (lcsDepth > 0) {
+                    double wuPalmer = 2.0 * lcsDepth / (lcsLength + 2.0 * lcsDepth);
+                    if (Double.isNaN(bestWuPalmer) || wuPalmer > bestWuPalmer) {
+                        bestWuPalmer = wuPalmer;
+                    }
+                }
+            }
+        }
+        double path = bestLength == Integer.MAX_VALUE ? Double.NaN : 1.0 / (1 + bestLength);
+        return new double[]{path, bestWuPalmer};
+    }
+
+    @Test
+    public void testAgreesWithTheDefinitions() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 1500, 1000, 19);
+        SimilarityIndex index = new SimilarityIndex(graph.wordNet());
+        int[] depths = depths(graph);
+        Random random = new Random(19);
+        for (int trial = 0; trial < 300; trial++) {
+            String a = graph.randomWord(random);
+            String b = graph.randomWord(random);
+            double[] expected = scoreBySearching(graph, depths, a, b);
+            assertThat(index.pathSimilarity(a, b)).isEqualTo(expected[0]);
+            assertThat(index.wuPalmerSimilarity(a, b)).isEqualTo(expected[1]);
+            assertThat(index.pathSimilarity(b, a)).isEqualTo(expected[0]);
+            assertThat(index.wuPalmerSimilarity(b, a)).isEqualTo(expected[1]);
+        }
+    }
+
+    @Test
+    public void testScoresAFileInOrder() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 1500, 1000, 20);
+        SimilarityIndex index = new SimilarityIndex(graph.wordNet());
+        Random random = new Random(20);
+        String[] separators = {"\t", ",", " "};
+        List<String[]> pairs = new ArrayList<>();
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            String[] pair = {graph.randomWord(random), i % 100 == 0 ? "unicorn" : graph.randomWord(random)};
+            pairs.add(pair);
+            input.append(pair[0]).append(separators[i % 3]).append(pair[1]).append('\n');
+            if (i % 500 == 0) {
+                input.append('\n');
+            }
+        }
+        Path pairsFile = Files.writeString(dir.resolve("pairs.txt"), input);
+        Path scoresFile = dir.resolve("scores.tsv");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            index.scoreFile(pairsFile, scoresFile, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<String> lines = Files.readAllLines(scoresFile);
+        assertThat(lines).hasSize(pairs.size());
+        for (int i = 0; i < pairs.size(); i++) {
+            String[] fields = lines.get(i).split("\t");
+            String[] pair = pairs.get(i);
+            assertThat(fields[0]).isEqualTo(pair[0]);
+            assertThat(fields[1]).isEqualTo(pair[1]);
+            assertThat(Double.parseDouble(fields[2])).isEqualTo(index.pathSimilarity(pair[0], pair[1]));
+            assertThat(Double.parseDouble(fields[3])).isEqualTo(index.wuPalmerSimilarity(pair[0], pair[1]));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package wordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TopKTest {
+
+    /** Returns what TopK.select should return, by sorting everything. */
+    private static int[] selectBySorting(int[] ids, double[] counts, int k) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (counts[i] > 0) {
+                positions.add(i);
+            }
+        }
+        positions.sort(Comparator.<Integer>comparingDouble(i -> -counts[i]).thenComparingInt(i -> ids[i]));
+        return positions.stream().limit(k).mapToInt(i -> ids[i]).sorted().toArray();
+    }
+
+    @Test
+    public void testPicksTheHighestCounts() {
+        int[] ids = {10, 11, 12, 13, 14};
+        double[] counts = {5, 50, 1, 30, 20};
+        assertThat(TopK.select(ids, counts, 3)).isEqualTo(new int[]{11, 13, 14});
+        assertThat(TopK.select(ids, counts, 1)).isEqualTo(new int[]{11});
+    }
+
+    @Test
+    public void testBreaksTiesTowardsSmallerIds() {
+        int[] ids = {7, 3, 9, 5};
+        double[] counts = {2, 2, 2, 2};
+        assertThat(TopK.select(ids, counts, 2)).isEqualTo(new int[]{3, 5});
+    }
+
+    @Test
+    public void testNeverPicksCountsThatAreNotPositive() {
+        int[] ids = {1, 2, 3, 4};
+        double[] counts = {0, -3, Double.NaN, 8};
+        assertThat(TopK.select(ids, counts, 4)).isEqualTo(new int[]{4});
+    }
+
+    @Test
+    public void testHandlesEdgeSizes() {
+        assertThat(TopK.select(new int[0], new double[0], 5)).isEqualTo(new int[0]);
+        assertThat(TopK.select(new int[]{1, 2}, new double[]{1, 2}, 0)).isEqualTo(new int[0]);
+        assertThat(TopK.select(new int[]{2, 1}, new double[]{1, 2}, 10)).isEqualTo(new int[]{1, 2});
+    }
+
+    @Test
+    public void testAgreesWithSortingOnRandomInput() {
+        Random random = new Random(15);
+        for (int trial = 0; trial < 500; trial++) {
+            int n = random.nextInt(60);
+            int[] ids = random.ints(n, 0, 1000).distinct().toArray();
+            double[] counts = new double[ids.length];
+            for (int i = 0; i < counts.length; i++) {
+                // few distinct values, so there are plenty of ties and zeros
+                counts[i] = random.nextInt(8) - 1;
+            }
+            int k = random.nextInt(n + 2);
+            assertThat(TopK.select(ids, counts, k)).isEqualTo(selectBySorting(ids, counts, k));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package wordnet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WordNetSnapshotTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSnapshotAnswersLikeTheTextFiles() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 500, 400, 17);
+        WordNet original = graph.wordNet();
+        Path snapshot = dir.resolve("wordnet.snapshot");
+        original.writeSnapshot(snapshot);
+        WordNet reopened = WordNet.openSnapshot(snapshot);
+
+        assertThat(reopened.getDictionary().size()).isEqualTo(original.getDictionary().size());
+        for (String word : graph.words) {
+            assertThat(reopened.getHOrAForSingleWord(reopened.getHyponymGraph(), word))
+                    .isEqualTo(original.getHOrAForSingleWord(original.getHyponymGraph(), word));
+            assertThat(reopened.getHOrAForSingleWord(reopened.getHypernymGraph(), word))
+                    .isEqualTo(original.getHOrAForSingleWord(original.getHypernymGraph(), word));
+        }
+        Random random = new Random(17);
+        for (int trial = 0; trial < 100; trial++) {
+            String a = graph.randomWord(random);
+            String b = graph.randomWord(random);
+            assertThat(reopened.shortestAncestralPath(a, b)).isEqualTo(original.shortestAncestralPath(a, b));
+        }
+    }
+
+    @Test
+    public void testSnapshotOfASnapshotIsIdentical() throws IOException {
+        RandomWordNet graph = new RandomWordNet(dir, 300, 200, 18);
+        Path first = dir.resolve("first.snapshot");
+        Path second = dir.resolve("second.snapshot");
+        graph.wordNet().writeSnapshot(first);
+        WordNet.openSnapshot(first).writeSnapshot(second);
+        assertThat(Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(second))).isTrue();
+    }
+
+    @Test
+    public void testRejectsTruncatedSnapshots() throws IOException {
+        Path snapshot = dir.resolve("wordnet.snapshot");
+        new RandomWordNet(dir, 300, 200, 19).wordNet().writeSnapshot(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+
+        for (int length : new int[]{0, 4, 8, 100, bytes.length / 2, bytes.length - 4, bytes.length - 1}) {
+            Path truncated = dir.resolve("truncated" + length);
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> WordNet.openSnapshot(truncated));
+        }
+        Path longer = dir.resolve("longer");
+        Files.write(longer, Arrays.copyOf(bytes, bytes.length + 4));
+        assertThrows(IOException.class, () -> WordNet.openSnapshot(longer));
+    }
+
+    @Test
+    public void testRejectsTargetsOutsideTheGraph() throws IOException {
+        Path snapshot = dir.resolve("wordnet.snapshot");
+        new RandomWordNet(dir, 300, 200, 20).wordNet().writeSnapshot(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+
+        // the last int of the file is the last target of the last graph
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length - Integer.BYTES, 1_000_000);
+        Path corrupt = dir.resolve("corrupt");
+        Files.write(corrupt, bytes);
+        assertThrows(IOException.class, () -> WordNet.openSnapshot(corrupt));
+    }
+
+    @Test
+    public void testCorruptIntsOnlyEverThrowIOException() throws IOException {
+        Path snapshot = dir.resolve("wordnet.snapshot");
+        new RandomWordNet(dir, 300, 200, 21).wordNet().writeSnapshot(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+
+        Random random = new Random(21);
+        for (int trial = 0; trial < 300; trial++) {
+            byte[] corrupt = bytes.clone();
+            int offset = random.nextInt(bytes.length / Integer.BYTES) * Integer.BYTES;
+            int value = random.nextBoolean() ? random.nextInt() : random.nextInt(1000) - 10;
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+            Path file = dir.resolve("corrupt" + trial);
+            Files.write(file, corrupt);
+            try {
+                WordNet.openSnapshot(file);
+            } catch (IOException e) {
+                // expected for most of them; some changes still leave a valid snapshot
+            }
+        }
+    }
+}